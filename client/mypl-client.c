@@ -0,0 +1,134 @@
+/*
+ * File: mypl-client.c
+ * Date: Spring 2022
+ * Auth: Cameron S. Williamson
+ * Desc: Native client for the MyPL daemon (mypl --daemon). It speaks
+ *       the same protocol as MyPLClient.java (see there), but starts
+ *       in about a millisecond instead of paying for a JVM per run.
+ *
+ *       Usage: mypl-client script.mypl
+ *
+ *       The socket is $MYPL_SOCKET, or /tmp/mypl-[user].sock (see
+ *       MyPLClient.defaultSocket, which must agree).
+ */
+
+#include <limits.h>
+#include <pwd.h>
+#include <signal.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/socket.h>
+#include <sys/un.h>
+#include <unistd.h>
+
+/* frame types */
+#define OUT 1
+#define ERR 2
+#define EXIT 3
+
+/* read exactly n bytes, returns 0 if the connection closed first */
+static int read_fully(int fd, void *buf, size_t n) {
+  char *p = buf;
+  while (n > 0) {
+    ssize_t r = read(fd, p, n);
+    if (r <= 0)
+      return 0;
+    p += r;
+    n -= r;
+  }
+  return 1;
+}
+
+static int write_fully(int fd, const void *buf, size_t n) {
+  const char *p = buf;
+  while (n > 0) {
+    ssize_t w = write(fd, p, n);
+    if (w <= 0)
+      return 0;
+    p += w;
+    n -= w;
+  }
+  return 1;
+}
+
+static void default_socket(char *path, size_t size) {
+  const char *socket = getenv("MYPL_SOCKET");
+  if (socket != NULL && socket[0] != '\0') {
+    snprintf(path, size, "%s", socket);
+    return;
+  }
+  struct passwd *pw = getpwuid(getuid());
+  snprintf(path, size, "/tmp/mypl-%s.sock", pw != NULL ? pw->pw_name : "unknown");
+}
+
+int main(int argc, char *argv[]) {
+  if (argc != 2) {
+    fprintf(stderr, "Usage: mypl-client [script-file]\n");
+    return 1;
+  }
+  char script[PATH_MAX];
+  if (realpath(argv[1], script) == NULL) {
+    fprintf(stderr, "ERROR: Unable to open file '%s'\n", argv[1]);
+    return 1;
+  }
+
+  struct sockaddr_un addr;
+  memset(&addr, 0, sizeof(addr));
+  addr.sun_family = AF_UNIX;
+  default_socket(addr.sun_path, sizeof(addr.sun_path));
+  int fd = socket(AF_UNIX, SOCK_STREAM, 0);
+  if (fd < 0 || connect(fd, (struct sockaddr *) &addr, sizeof(addr)) < 0) {
+    fprintf(stderr, "ERROR: Unable to connect to the MyPL daemon at '%s'\n",
+            addr.sun_path);
+    return 1;
+  }
+  signal(SIGPIPE, SIG_IGN);
+
+  // the request line
+  if (!write_fully(fd, script, strlen(script)) || !write_fully(fd, "\n", 1)) {
+    fprintf(stderr, "ERROR: Connection to the MyPL daemon was closed\n");
+    return 1;
+  }
+
+  // forward standard input from a child process (the script may
+  // finish without reading all of it)
+  pid_t forwarder = fork();
+  if (forwarder == 0) {
+    char buf[8192];
+    ssize_t n;
+    while ((n = read(STDIN_FILENO, buf, sizeof(buf))) > 0)
+      if (!write_fully(fd, buf, n))
+        _exit(0);
+    shutdown(fd, SHUT_WR);
+    _exit(0);
+  }
+
+  // copy the frames to standard output and error
+  int status = 1;
+  char buf[8192];
+  while (1) {
+    unsigned char header[5];
+    if (!read_fully(fd, header, sizeof(header))) {
+      fprintf(stderr, "ERROR: Connection to the MyPL daemon was closed\n");
+      break;
+    }
+    unsigned int n = (header[1] << 24) | (header[2] << 16) | (header[3] << 8) | header[4];
+    if (header[0] == EXIT) {
+      status = (int) n;
+      break;
+    }
+    int out = header[0] == ERR ? STDERR_FILENO : STDOUT_FILENO;
+    while (n > 0) {
+      size_t chunk = n < sizeof(buf) ? n : sizeof(buf);
+      if (!read_fully(fd, buf, chunk))
+        break;
+      write_fully(out, buf, chunk);
+      n -= chunk;
+    }
+  }
+  if (forwarder > 0)
+    kill(forwarder, SIGTERM);
+  close(fd);
+  return status;
+}
@@ -235,7 +235,7 @@ public class ASTParser {
 
   /**
    * <vdecl_stmt> | <assign_stmt> | <cond_stmt> | <while_stmt> | <for_stmt> |
-   * <call_expr> | <return_stmt> | <delete_stmt>
+   * <parfor_stmt> | <call_expr> | <return_stmt> | <delete_stmt>
    * 
    * @param stmtList
    * @throws MyPLException
@@ -276,6 +276,8 @@ public class ASTParser {
       while_stmt(stmtList);
     } else if (match(TokenType.FOR)) {
       for_stmt(stmtList);
+    } else if (match(TokenType.PARFOR)) {
+      parfor_stmt(stmtList);
     } else if (match(TokenType.RETURN)) {
       ret_stmt(stmtList);
     } else if (match(TokenType.DELETE)) {
@@ -439,6 +441,30 @@ public class ASTParser {
     stmtList.add(fs);
   }
 
+  /**
+   * PARFOR ID FROM <expr> UPTO <expr> LBRACE <stmts> RBRACE
+   * @param stmtList
+   * @throws MyPLException
+   */
+  private void parfor_stmt(List<Stmt> stmtList) throws MyPLException {
+    debug("parfor_stmt");
+    ForStmt fs = new ForStmt();
+    fs.parallel = true;
+    eat(TokenType.PARFOR, "expecting 'parfor'");
+    fs.varName = currToken;
+    eat(TokenType.ID, "expecting identifier");
+    eat(TokenType.FROM, "expecting 'from'");
+    fs.start = new Expr();
+    expr(fs.start);
+    eat(TokenType.UPTO, "expecting 'upto'");
+    fs.end = new Expr();
+    expr(fs.end);
+    eat(TokenType.LBRACE, "expecting '{'");
+    stmts(fs.stmts);
+    eat(TokenType.RBRACE, "expecting '}'");
+    stmtList.add(fs);
+  }
+
   /**
    * <expr> (COMMA <expr>)* | e
    * @param args
@@ -0,0 +1,74 @@
+/*
+ * File: BasicBlock.java
+ * Date: Spring 2022
+ * Auth: Cameron S. Williamson
+ * Desc: A basic block of a frame's control-flow graph (see
+ *       ControlFlowGraph): a sequence of VM instructions that is only
+ *       entered at its first instruction and only left after its last
+ *       one.
+ */
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+
+public class BasicBlock {
+
+  // the block's number (its index in the graph's blocks)
+  private int id;
+
+  // the block's instructions, where only the last one can jump (its
+  // jump target is the target block, not its operand)
+  public List<VMInstr> instructions = new ArrayList<>();
+
+  // the block run next if the last instruction doesn't jump (null if
+  // the last instruction always jumps or returns)
+  public BasicBlock fallthrough = null;
+
+  // the block the last instruction jumps to (null if it isn't a jump)
+  public BasicBlock target = null;
+
+  // the blocks with an edge to this block
+  public List<BasicBlock> predecessors = new ArrayList<>();
+
+  // the block's immediate dominator (null for the entry block)
+  public BasicBlock dominator = null;
+
+  // the number of operands on the stack when the block starts
+  public int entryDepth = 0;
+
+  // the local slots whose value may be read before being written, on
+  // entry to and exit from the block
+  public Set<Integer> liveIn = new HashSet<>();
+  public Set<Integer> liveOut = new HashSet<>();
+
+  public BasicBlock(int id) {
+    this.id = id;
+  }
+
+  // get the block's number
+  public int id() {
+    return id;
+  }
+
+  // set the block's number
+  void setId(int id) {
+    this.id = id;
+  }
+
+  // get the blocks with an edge from this block (fall through first)
+  public List<BasicBlock> successors() {
+    List<BasicBlock> successors = new ArrayList<>();
+    if (fallthrough != null)
+      successors.add(fallthrough);
+    if (target != null && target != fallthrough)
+      successors.add(target);
+    return successors;
+  }
+
+  public String toString() {
+    return "B" + id;
+  }
+}
@@ -0,0 +1,260 @@
+/*
+ * File: BoundsAnalyzer.java
+ * Date: Spring 2022
+ * Auth: Cameron S. Williamson
+ * Desc: Finds the calls get(i, s) that can never be out of bounds, so
+ *       the code generator can skip their bounds check. This is the
+ *       case for counted loops over the characters of a string:
+ *
+ *         for i from 0 upto length(s) - 1 { ... get(i, s) ... }
+ *         for i from length(s) - 1 downto 0 { ... get(i, s) ... }
+ *
+ *       where the start (or end) is a non-negative int literal, the
+ *       other bound is length(s) minus a positive int literal, and
+ *       neither i nor s is assigned (or redeclared) within the loop.
+ *       The end value may also be a variable the LoopInvariantHoister
+ *       moved it into (which holds the value the end had in the loop).
+ */
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+public class BoundsAnalyzer implements Visitor {
+
+  // the (loop variable, string variable) pairs of the enclosing loops
+  // for which 0 <= loop variable < length(string variable)
+  private Deque<String[]> inRange = new ArrayDeque<>();
+
+  // the values of the variables added by the LoopInvariantHoister
+  // (which are never assigned)
+  private Map<String, Expr> hoisted = new HashMap<>();
+
+  // the get calls that are always in bounds
+  private Set<CallExpr> inBounds = Collections.newSetFromMap(new IdentityHashMap<>());
+
+  /**
+   * Returns true if the given get call (of a visited function) is
+   * never out of bounds.
+   *
+   * @param node the call
+   */
+  public boolean isInBounds(CallExpr node) {
+    return inBounds.contains(node);
+  }
+
+  //----------------------------------------------------------------------
+  // HELPER FUNCTIONS
+  //----------------------------------------------------------------------
+
+  // the variable the expression consists of (or null)
+  private static String variable(Expr e) {
+    if (e.op != null || e.logicallyNegated || !(e.first instanceof SimpleTerm))
+      return null;
+    RValue rvalue = ((SimpleTerm) e.first).rvalue;
+    if (!(rvalue instanceof IDRValue) || ((IDRValue) rvalue).path.size() != 1)
+      return null;
+    return ((IDRValue) rvalue).path.get(0).lexeme();
+  }
+
+  // the value of the expression if it is an int literal (or null)
+  private static Integer intLiteral(Expr e) {
+    if (e.op != null || e.logicallyNegated || !(e.first instanceof SimpleTerm))
+      return null;
+    RValue rvalue = ((SimpleTerm) e.first).rvalue;
+    if (!(rvalue instanceof SimpleRValue))
+      return null;
+    Token value = ((SimpleRValue) rvalue).value;
+    if (value.type() != TokenType.INT_VAL)
+      return null;
+    try {
+      return Integer.parseInt(value.lexeme());
+    } catch (NumberFormatException ex) {
+      return null;
+    }
+  }
+
+  // true if the expression is a non-negative int literal
+  private static boolean isNonNegative(Expr e) {
+    Integer value = intLiteral(e);
+    return value != null && value >= 0;
+  }
+
+  // the expression a variable added by the LoopInvariantHoister
+  // holds, if e reads one (or else e)
+  private Expr value(Expr e) {
+    String varName = variable(e);
+    return varName != null && hoisted.containsKey(varName) ? hoisted.get(varName) : e;
+  }
+
+  // the string variable s if the expression is length(s) - k for an
+  // int literal k >= 1 (or null)
+  private static String lengthMinus(Expr e) {
+    if (e.logicallyNegated || e.op == null || e.op.type() != TokenType.MINUS)
+      return null;
+    Integer k = intLiteral(e.rest);
+    if (k == null || k < 1 || !(e.first instanceof SimpleTerm))
+      return null;
+    RValue rvalue = ((SimpleTerm) e.first).rvalue;
+    if (!(rvalue instanceof CallExpr))
+      return null;
+    CallExpr call = (CallExpr) rvalue;
+    if (!call.funName.lexeme().equals("length") || call.args.size() != 1)
+      return null;
+    return variable(call.args.get(0));
+  }
+
+  // add the names of the variables assigned or declared by the given
+  // statements (including nested ones) to names
+  private static void assigned(List<Stmt> stmts, Set<String> names) {
+    for (Stmt stmt : stmts) {
+      if (stmt instanceof VarDeclStmt)
+        names.add(((VarDeclStmt) stmt).varName.lexeme());
+      else if (stmt instanceof AssignStmt)
+        names.add(((AssignStmt) stmt).lvalue.get(0).lexeme());
+      else if (stmt instanceof CondStmt) {
+        CondStmt cond = (CondStmt) stmt;
+        assigned(cond.ifPart.stmts, names);
+        for (BasicIf elif : cond.elifs)
+          assigned(elif.stmts, names);
+        if (cond.elseStmts != null)
+          assigned(cond.elseStmts, names);
+      } else if (stmt instanceof WhileStmt)
+        assigned(((WhileStmt) stmt).stmts, names);
+      else if (stmt instanceof ForStmt) {
+        names.add(((ForStmt) stmt).varName.lexeme());
+        assigned(((ForStmt) stmt).stmts, names);
+      }
+    }
+  }
+
+  //----------------------------------------------------------------------
+  // VISITOR FUNCTIONS
+  //----------------------------------------------------------------------
+
+  public void visit(Program node) throws MyPLException {
+    for (FunDecl fdecl : node.fdecls)
+      fdecl.accept(this);
+  }
+
+  public void visit(TypeDecl node) throws MyPLException {
+    // Intentionally left blank -- only functions are analyzed
+  }
+
+  public void visit(FunDecl node) throws MyPLException {
+    for (Stmt stmt : node.stmts)
+      stmt.accept(this);
+  }
+
+  public void visit(VarDeclStmt node) throws MyPLException {
+    node.expr.accept(this);
+    if (node.varName.lexeme().startsWith("$"))
+      hoisted.put(node.varName.lexeme(), node.expr);
+  }
+
+  public void visit(AssignStmt node) throws MyPLException {
+    node.expr.accept(this);
+  }
+
+  public void visit(CondStmt node) throws MyPLException {
+    node.ifPart.cond.accept(this);
+    for (Stmt stmt : node.ifPart.stmts)
+      stmt.accept(this);
+    for (BasicIf elif : node.elifs) {
+      elif.cond.accept(this);
+      for (Stmt stmt : elif.stmts)
+        stmt.accept(this);
+    }
+    if (node.elseStmts != null)
+      for (Stmt stmt : node.elseStmts)
+        stmt.accept(this);
+  }
+
+  public void visit(WhileStmt node) throws MyPLException {
+    node.cond.accept(this);
+    for (Stmt stmt : node.stmts)
+      stmt.accept(this);
+  }
+
+  public void visit(ForStmt node) throws MyPLException {
+    node.start.accept(this);
+    node.end.accept(this);
+    String varName = node.varName.lexeme();
+    String string = null;
+    if (node.upto && isNonNegative(node.start))
+      string = lengthMinus(value(node.end));
+    else if (!node.upto && isNonNegative(node.end))
+      string = lengthMinus(node.start);
+    // (the end value is computed on each iteration, so the string must
+    // not change either)
+    Set<String> names = new HashSet<>();
+    assigned(node.stmts, names);
+    boolean pushed = false;
+    if (string != null && !names.contains(varName) && !names.contains(string)) {
+      inRange.push(new String[] {varName, string});
+      pushed = true;
+    }
+    for (Stmt stmt : node.stmts)
+      stmt.accept(this);
+    if (pushed)
+      inRange.pop();
+  }
+
+  public void visit(ReturnStmt node) throws MyPLException {
+    if (node.expr != null)
+      node.expr.accept(this);
+  }
+
+  public void visit(DeleteStmt node) throws MyPLException {
+    // Intentionally left blank -- nothing to do here
+  }
+
+  public void visit(CallExpr node) throws MyPLException {
+    for (Expr arg : node.args)
+      arg.accept(this);
+    if (!node.funName.lexeme().equals("get") || node.args.size() != 2)
+      return;
+    String index = variable(node.args.get(0));
+    String string = variable(node.args.get(1));
+    for (String[] range : inRange)
+      if (range[0].equals(index) && range[1].equals(string))
+        inBounds.add(node);
+  }
+
+  public void visit(SimpleRValue node) throws MyPLException {
+    // Intentionally left blank -- nothing to do here
+  }
+
+  public void visit(NewRValue node) throws MyPLException {
+    // Intentionally left blank -- nothing to do here
+  }
+
+  public void visit(IDRValue node) throws MyPLException {
+    // Intentionally left blank -- nothing to do here
+  }
+
+  public void visit(NegatedRValue node) throws MyPLException {
+    node.expr.accept(this);
+  }
+
+  public void visit(Expr node) throws MyPLException {
+    node.first.accept(this);
+    if (node.rest != null)
+      node.rest.accept(this);
+  }
+
+  public void visit(SimpleTerm node) throws MyPLException {
+    node.rvalue.accept(this);
+  }
+
+  public void visit(ComplexTerm node) throws MyPLException {
+    node.expr.accept(this);
+  }
+}
@@ -31,31 +31,104 @@ public class CodeGenerator implements Visitor {
   // to keep track of the typedecl objects for initialization
   Map<String, TypeDecl> typeDecls = new HashMap<>();
 
+  // the number of parfor body frames generated so far (for naming)
+  private int parforCount = 0;
+
+  // which operands of the current function are never nil
+  private NilAnalyzer nilAnalyzer = null;
+
+  // which get calls of the current function are never out of bounds
+  private BoundsAnalyzer boundsAnalyzer = null;
+
   // ----------------------------------------------------------------------
   // HELPER FUNCTIONS
   // ----------------------------------------------------------------------
 
-  // helper function to clean up uneeded NOP instructions
-  private void fixNoOp() {
-    int nextIndex = currFrame.instructions.size();
-    // check if there are any instructions
-    if (nextIndex == 0)
-      return;
-    // get the last instuction added
-    VMInstr instr = currFrame.instructions.get(nextIndex - 1);
-    // check if it is a NOP
-    if (instr.opcode() == OpCode.NOP)
-      currFrame.instructions.remove(nextIndex - 1);
-  }
-
+  // helper function to discard the value of a call used as a
+  // statement (the void built-ins don't push one), so that the operand
+  // stack is the same before and after every statement
   private void fixCallStmt(Stmt s) {
-    // get the last instuction added
-    if (s instanceof CallExpr) {
+    if (s instanceof CallExpr && pushesValue((CallExpr) s)) {
       VMInstr instr = VMInstr.POP();
       instr.addComment("clean up call return value");
       currFrame.instructions.add(instr);
     }
+  }
+
+  // true if the call leaves a value on the operand stack, which all
+  // calls do except to the built-ins without a return value
+  private boolean pushesValue(CallExpr node) {
+    String funName = node.funName.lexeme();
+    return !(funName.equals("print") || funName.equals("timestart") ||
+             funName.equals("timeend") || funName.equals("checkpoint"));
+  }
+
+  // true if the call is to one of the timer built-in functions
+  private boolean isTimerCall(CallExpr node) {
+    String funName = node.funName.lexeme();
+    return funName.equals("timestart") || funName.equals("timeend") ||
+        funName.equals("timedelta");
+  }
+
+  // the statically checked type of the given expression (or term), or
+  // "" if it isn't known
+  private String typeOf(ASTNode node) {
+    String type = typeInfo.exprType(node);
+    return type == null ? "" : type;
+  }
+
+  // true if values of the given type are strings in the VM
+  private boolean isString(String type) {
+    return type.equals("string") || type.equals("char");
+  }
+
+  // the unchecked version of a typed instruction
+  private static VMInstr unchecked(VMInstr instr) {
+    switch (instr.opcode()) {
+      case IADD: return VMInstr.IADDU();
+      case DADD: return VMInstr.DADDU();
+      case SCONCAT: return VMInstr.SCONCATU();
+      case ISUB: return VMInstr.ISUBU();
+      case DSUB: return VMInstr.DSUBU();
+      case IMUL: return VMInstr.IMULU();
+      case DMUL: return VMInstr.DMULU();
+      case IDIV: return VMInstr.IDIVU();
+      case DDIV: return VMInstr.DDIVU();
+      case INEG: return VMInstr.INEGU();
+      case DNEG: return VMInstr.DNEGU();
+      case ICMPLT: return VMInstr.ICMPLTU();
+      case ICMPLE: return VMInstr.ICMPLEU();
+      case ICMPGT: return VMInstr.ICMPGTU();
+      case ICMPGE: return VMInstr.ICMPGEU();
+      case ICMPEQ: return VMInstr.ICMPEQU();
+      case ICMPNE: return VMInstr.ICMPNEU();
+      case DCMPLT: return VMInstr.DCMPLTU();
+      case DCMPLE: return VMInstr.DCMPLEU();
+      case DCMPGT: return VMInstr.DCMPGTU();
+      case DCMPGE: return VMInstr.DCMPGEU();
+      case DCMPEQ: return VMInstr.DCMPEQU();
+      case DCMPNE: return VMInstr.DCMPNEU();
+      case SCMPLT: return VMInstr.SCMPLTU();
+      case SCMPLE: return VMInstr.SCMPLEU();
+      case SCMPGT: return VMInstr.SCMPGTU();
+      case SCMPGE: return VMInstr.SCMPGEU();
+      case SCMPEQ: return VMInstr.SCMPEQU();
+      case SCMPNE: return VMInstr.SCMPNEU();
+      default: return instr;
+    }
+  }
 
+  // selects the int, double, or string version of an operator for the
+  // given kind of operands (or the untyped version)
+  private VMInstr typed(String kind, VMInstr intInstr, VMInstr doubleInstr,
+                        VMInstr stringInstr, VMInstr instr) {
+    if (kind.equals("int"))
+      return intInstr;
+    if (kind.equals("double"))
+      return doubleInstr;
+    if (kind.equals("string"))
+      return stringInstr;
+    return instr;
   }
 
   // ----------------------------------------------------------------------
@@ -81,6 +154,13 @@ public class CodeGenerator implements Visitor {
     // only need to translate the function declarations
     for (FunDecl fdecl : node.fdecls)
       fdecl.accept(this);
+    // once all the frames exist, copy small functions into their callers
+    Inliner.inline(vm.program());
+    // (after inlining, which can expose more of the loops' uses)
+    StrengthReducer.reduce(vm.program());
+    FieldPathEliminator.eliminate(vm.program());
+    // (last, to pack the slots the passes above add as well)
+    SlotAllocator.allocate(vm.program());
   }
 
   public void visit(TypeDecl node) throws MyPLException {
@@ -92,16 +172,21 @@ public class CodeGenerator implements Visitor {
     currFrame = functionFrame;
     varMap = new HashMap<>();
     currVarIndex = 0;
+    nilAnalyzer = new NilAnalyzer();
+    node.accept(nilAnalyzer);
+    boundsAnalyzer = new BoundsAnalyzer();
+    node.accept(boundsAnalyzer);
 
-    // Adding function parameters
+    // Adding function parameters (the VM passes arguments in the
+    // first local variable slots)
     for (FunParam param : node.params) {
-      varMap.put(param.paramName.lexeme(), currVarIndex);
-      currFrame.instructions.add(VMInstr.STORE(currVarIndex++));
+      varMap.put(param.paramName.lexeme(), currVarIndex++);
     }
 
     // Adding function body
     for (Stmt stmt : node.stmts) {
       stmt.accept(this);
+      fixCallStmt(stmt);
     }
 
     // Adding return statement if missing
@@ -115,6 +200,7 @@ public class CodeGenerator implements Visitor {
       currFrame.instructions.add(VMInstr.PUSH(VM.NIL_OBJ));
       currFrame.instructions.add(VMInstr.VRET());
     }
+    PeepholeOptimizer.optimize(currFrame);
     vm.add(currFrame);
   }
 
@@ -161,6 +247,7 @@ public class CodeGenerator implements Visitor {
     if (node.elseStmts != null) {
       for (Stmt stmt : node.elseStmts) {
         stmt.accept(this);
+        fixCallStmt(stmt);
       }
     }
 
@@ -177,6 +264,7 @@ public class CodeGenerator implements Visitor {
     currFrame.instructions.add(jmpf);
     for (Stmt stmt : node.stmts) {
       stmt.accept(this);
+      fixCallStmt(stmt);
     }
     VMInstr jmp = VMInstr.JMP(0);
     currFrame.instructions.add(jmp);
@@ -192,6 +280,7 @@ public class CodeGenerator implements Visitor {
     currFrame.instructions.add(jmpf);
     for (Stmt stmt : node.stmts) {
       stmt.accept(this);
+      fixCallStmt(stmt);
     }
     currFrame.instructions.add(VMInstr.JMP(startingIndex));
     jmpf.updateOperand(currFrame.instructions.size());
@@ -199,6 +288,10 @@ public class CodeGenerator implements Visitor {
   }
 
   public void visit(ForStmt node) throws MyPLException {
+    if (node.parallel) {
+      parallelFor(node);
+      return;
+    }
     // Handling the for line
     node.start.accept(this);
     String varName = node.varName.lexeme();
@@ -208,29 +301,74 @@ public class CodeGenerator implements Visitor {
     currFrame.instructions.add(VMInstr.STORE(tempVarIndex));
     currFrame.instructions.add(VMInstr.LOAD(tempVarIndex));
     node.end.accept(this);
-    if (node.upto)
-      currFrame.instructions.add(VMInstr.CMPLE());
-    else
-      currFrame.instructions.add(VMInstr.CMPGE());
+    // (the loop variable and end value are checked for nil, unless
+    // they are never nil)
+    boolean unchecked = nilAnalyzer.isNonNil(node);
+    VMInstr cmp = node.upto ? VMInstr.ICMPLE() : VMInstr.ICMPGE();
+    currFrame.instructions.add(unchecked ? unchecked(cmp) : cmp);
 
     VMInstr jmpf = VMInstr.JMPF(0);
     // Handling statements
     currFrame.instructions.add(jmpf);
     for (Stmt stmt : node.stmts) {
       stmt.accept(this);
+      fixCallStmt(stmt);
     }
     // Increment / Decrement
     currFrame.instructions.add(VMInstr.LOAD(tempVarIndex));
     currFrame.instructions.add(VMInstr.PUSH(1));
-    if (node.upto)
-      currFrame.instructions.add(VMInstr.ADD());
-    else
-      currFrame.instructions.add(VMInstr.SUB());
+    VMInstr step = node.upto ? VMInstr.IADD() : VMInstr.ISUB();
+    currFrame.instructions.add(unchecked ? unchecked(step) : step);
     currFrame.instructions.add(VMInstr.JMP(startingIndex));
     jmpf.updateOperand(currFrame.instructions.size());
     currFrame.instructions.add(VMInstr.NOP());
   }
 
+  private void parallelFor(ForStmt node) throws MyPLException {
+    // the bounds are computed in the enclosing function, which then
+    // hands chunks of the range to the body frame
+    node.start.accept(this);
+    node.end.accept(this);
+    String bodyName = currFrame.functionName() + "$parfor" + parforCount++;
+    currFrame.instructions.add(VMInstr.PARFOR(bodyName));
+
+    // the body frame gets a copy of the enclosing function's variables
+    // (so it uses the same indices) and the chunk's first and last
+    // value on its operand stack
+    VMFrame enclosingFrame = currFrame;
+    Map<String, Integer> enclosingVarMap = new HashMap<>(varMap);
+    currFrame = new VMFrame(bodyName, 0);
+    int tempVarIndex = currVarIndex++;
+    int endVarIndex = currVarIndex++;
+    varMap.put(node.varName.lexeme(), tempVarIndex);
+    currFrame.instructions.add(VMInstr.STORE(endVarIndex));
+    currFrame.instructions.add(VMInstr.STORE(tempVarIndex));
+    int startingIndex = currFrame.instructions.size();
+    currFrame.instructions.add(VMInstr.LOAD(tempVarIndex));
+    currFrame.instructions.add(VMInstr.LOAD(endVarIndex));
+    boolean unchecked = nilAnalyzer.isNonNil(node);
+    currFrame.instructions.add(unchecked ? VMInstr.ICMPLEU() : VMInstr.ICMPLE());
+    VMInstr jmpf = VMInstr.JMPF(0);
+    currFrame.instructions.add(jmpf);
+    for (Stmt stmt : node.stmts) {
+      stmt.accept(this);
+      fixCallStmt(stmt);
+    }
+    currFrame.instructions.add(VMInstr.LOAD(tempVarIndex));
+    currFrame.instructions.add(VMInstr.PUSH(1));
+    currFrame.instructions.add(unchecked ? VMInstr.IADDU() : VMInstr.IADD());
+    currFrame.instructions.add(VMInstr.STORE(tempVarIndex));
+    currFrame.instructions.add(VMInstr.JMP(startingIndex));
+    jmpf.updateOperand(currFrame.instructions.size());
+    currFrame.instructions.add(VMInstr.PUSH(VM.NIL_OBJ));
+    currFrame.instructions.add(VMInstr.VRET());
+    PeepholeOptimizer.optimize(currFrame);
+    vm.add(currFrame);
+
+    currFrame = enclosingFrame;
+    varMap = enclosingVarMap;
+  }
+
   public void visit(ReturnStmt node) throws MyPLException {
     if (node.expr == null)
       currFrame.instructions.add(VMInstr.PUSH(VM.NIL_OBJ));
@@ -248,9 +386,21 @@ public class CodeGenerator implements Visitor {
   public void visit(CallExpr node) throws MyPLException {
     // TODO: Finish the following (partially completed)
 
+    // spawn: the first argument names the function to run
+    if (node.funName.lexeme().equals("spawn")) {
+      for (Expr arg : node.args.subList(1, node.args.size()))
+        arg.accept(this);
+      Token funName = StaticChecker.getSpawnedFunction(node);
+      currFrame.instructions.add(VMInstr.SPAWN(funName.lexeme()));
+      return;
+    }
+
     // push args (in order)
     for (Expr arg : node.args)
       arg.accept(this);
+    // timers without a name use the default (unnamed) timer
+    if (isTimerCall(node) && node.args.size() == 0)
+      currFrame.instructions.add(VMInstr.PUSH(""));
     // built-in functions:
     if (node.funName.lexeme().equals("print"))
       currFrame.instructions.add(VMInstr.WRITE());
@@ -258,6 +408,8 @@ public class CodeGenerator implements Visitor {
       currFrame.instructions.add(VMInstr.READ());
     else if (node.funName.lexeme().equals("length"))
       currFrame.instructions.add(VMInstr.LEN());
+    else if (node.funName.lexeme().equals("get") && boundsAnalyzer.isInBounds(node))
+      currFrame.instructions.add(VMInstr.GETCHRU());
     else if (node.funName.lexeme().equals("get"))
       currFrame.instructions.add(VMInstr.GETCHR());
     else if (node.funName.lexeme().equals("stoi"))
@@ -278,6 +430,10 @@ public class CodeGenerator implements Visitor {
       currFrame.instructions.add(VMInstr.TIMEEND());
     else if (node.funName.lexeme().equals("timedelta"))
       currFrame.instructions.add(VMInstr.TIMEDELTA());
+    else if (node.funName.lexeme().equals("join"))
+      currFrame.instructions.add(VMInstr.JOIN());
+    else if (node.funName.lexeme().equals("checkpoint"))
+      currFrame.instructions.add(VMInstr.CHECKPOINT());
 
     // user-defined functions
     else
@@ -341,42 +497,70 @@ public class CodeGenerator implements Visitor {
 
   public void visit(NegatedRValue node) throws MyPLException {
     node.expr.accept(this);
-    currFrame.instructions.add(VMInstr.NEG());
+    String type = typeOf(node.expr);
+    VMInstr instr = VMInstr.NEG();
+    if (type.equals("int"))
+      instr = VMInstr.INEG();
+    else if (type.equals("double"))
+      instr = VMInstr.DNEG();
+    if (nilAnalyzer.isNonNil(node.expr))
+      instr = unchecked(instr);
+    currFrame.instructions.add(instr);
   }
 
   public void visit(Expr node) throws MyPLException {
     node.first.accept(this);
-    if (node.op != null) {
+    if (node.op != null && (node.op.type() == TokenType.AND || node.op.type() == TokenType.OR)) {
+      // short circuit: if the left operand decides the result, it is
+      // the result, otherwise the right operand is
+      VMInstr jmp = node.op.type() == TokenType.AND ? VMInstr.JMPFK(0) : VMInstr.JMPTK(0);
+      currFrame.instructions.add(jmp);
+      node.rest.accept(this);
+      jmp.updateOperand(currFrame.instructions.size());
+    } else if (node.op != null) {
       node.rest.accept(this);
 
       String operator = node.op.lexeme();
+      String lhsType = typeOf(node.first);
+      String rhsType = typeOf(node.rest);
+      // the operand types (if both are the same kind), which select
+      // the typed version of the operator
+      String kind = "";
+      if (lhsType.equals("int") && rhsType.equals("int"))
+        kind = "int";
+      else if (lhsType.equals("double") && rhsType.equals("double"))
+        kind = "double";
+      else if (isString(lhsType) && isString(rhsType))
+        kind = "string";
+
+      VMInstr instr = null;
       if (operator.equals("+"))
-        currFrame.instructions.add(VMInstr.ADD());
+        instr = typed(kind, VMInstr.IADD(), VMInstr.DADD(), VMInstr.SCONCAT(), VMInstr.ADD());
       else if (operator.equals("-"))
-        currFrame.instructions.add(VMInstr.SUB());
+        instr = typed(kind, VMInstr.ISUB(), VMInstr.DSUB(), VMInstr.SUB(), VMInstr.SUB());
       else if (operator.equals("*"))
-        currFrame.instructions.add(VMInstr.MUL());
+        instr = typed(kind, VMInstr.IMUL(), VMInstr.DMUL(), VMInstr.MUL(), VMInstr.MUL());
       else if (operator.equals("/"))
-        currFrame.instructions.add(VMInstr.DIV());
+        instr = typed(kind, VMInstr.IDIV(), VMInstr.DDIV(), VMInstr.DIV(), VMInstr.DIV());
       else if (operator.equals("%"))
-        currFrame.instructions.add(VMInstr.MOD());
+        instr = VMInstr.MOD();
       else if (operator.equals("=="))
-        currFrame.instructions.add(VMInstr.CMPEQ());
+        instr = typed(kind, VMInstr.ICMPEQ(), VMInstr.DCMPEQ(), VMInstr.SCMPEQ(), VMInstr.CMPEQ());
       else if (operator.equals("!="))
-        currFrame.instructions.add(VMInstr.CMPNE());
+        instr = typed(kind, VMInstr.ICMPNE(), VMInstr.DCMPNE(), VMInstr.SCMPNE(), VMInstr.CMPNE());
       else if (operator.equals("<"))
-        currFrame.instructions.add(VMInstr.CMPLT());
+        instr = typed(kind, VMInstr.ICMPLT(), VMInstr.DCMPLT(), VMInstr.SCMPLT(), VMInstr.CMPLT());
       else if (operator.equals(">"))
-        currFrame.instructions.add(VMInstr.CMPGT());
+        instr = typed(kind, VMInstr.ICMPGT(), VMInstr.DCMPGT(), VMInstr.SCMPGT(), VMInstr.CMPGT());
       else if (operator.equals("<="))
-        currFrame.instructions.add(VMInstr.CMPLE());
+        instr = typed(kind, VMInstr.ICMPLE(), VMInstr.DCMPLE(), VMInstr.SCMPLE(), VMInstr.CMPLE());
       else if (operator.equals(">="))
-        currFrame.instructions.add(VMInstr.CMPGE());
-      else if (operator.equals("and")) {
-        currFrame.instructions.add(VMInstr.AND());
-      } else if (operator.equals("or"))
-        currFrame.instructions.add(VMInstr.OR());
+        instr = typed(kind, VMInstr.ICMPGE(), VMInstr.DCMPGE(), VMInstr.SCMPGE(), VMInstr.CMPGE());
 
+      // operands that can't be nil don't need to be checked
+      if (nilAnalyzer.isNonNil(node.first) && nilAnalyzer.isNonNil(node.rest))
+        instr = unchecked(instr);
+      currFrame.instructions.add(instr);
     }
     if (node.logicallyNegated)
       currFrame.instructions.add(VMInstr.NOT());
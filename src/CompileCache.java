@@ -0,0 +1,238 @@
+/*
+ * File: CompileCache.java
+ * Date: Spring 2022
+ * Auth: Cameron S. Williamson
+ * Desc: An on-disk cache of compiled MyPL programs, keyed by a hash of
+ *       the program's source code (and of the compiler that built
+ *       it), so that reruns of an unchanged script can skip the front
+ *       end. Each entry also holds the source it was compiled from,
+ *       which must match for a hit, so a hash collision is only a
+ *       miss. The cache is bounded in size: once it grows past its
+ *       limit, the least recently used entries are removed.
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+
+public class CompileCache {
+
+  // the version of the cache layout (entries of other versions are
+  // never used)
+  private static final int VERSION = 2;
+
+  // the default size limit (in bytes)
+  private static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+  // the directory holding the cached programs
+  private Path dir;
+
+  // the size limit (in bytes) of the cache directory
+  private long maxBytes;
+
+  // identifies the compiler (part of each key, so entries built by a
+  // different build of MyPL are not reused)
+  private String compilerId;
+
+  /**
+   * Create a cache in the given directory.
+   *
+   * @param dir the cache directory (created when first needed)
+   * @param maxBytes the size limit of the cache
+   */
+  public CompileCache(Path dir, long maxBytes) {
+    this.dir = dir.resolve("v" + VERSION);
+    this.maxBytes = maxBytes;
+    this.compilerId = compilerId();
+  }
+
+  /**
+   * Create a cache using the MYPL_CACHE_DIR (default ~/.cache/mypl)
+   * and MYPL_CACHE_MAX_BYTES (default 64 MB) environment variables.
+   *
+   * @return the cache
+   */
+  public static CompileCache defaultCache() {
+    String dir = System.getenv("MYPL_CACHE_DIR");
+    if (dir == null || dir.isEmpty())
+      dir = Paths.get(System.getProperty("user.home"), ".cache", "mypl").toString();
+    long maxBytes = DEFAULT_MAX_BYTES;
+    String max = System.getenv("MYPL_CACHE_MAX_BYTES");
+    if (max != null) {
+      try {
+        maxBytes = Long.parseLong(max);
+      } catch (NumberFormatException e) {
+        // keep the default
+      }
+    }
+    return new CompileCache(Paths.get(dir), maxBytes);
+  }
+
+  /**
+   * Returns the cache key (a 128-bit hash in hex) for the given
+   * source. The hash is not cryptographic (setting up MessageDigest
+   * alone takes longer than running a small cached script), so it
+   * only names the entry: a hit also compares the entry's source.
+   *
+   * @param source the program's source code
+   */
+  public String key(byte[] source) {
+    byte[] id = compilerId.getBytes(StandardCharsets.UTF_8);
+    // two 64-bit FNV-1a hashes with different offsets, each finished
+    // with a murmur3 mix (and including the source length)
+    long h1 = 0xcbf29ce484222325L;
+    long h2 = 0x84222325cbf29ce4L;
+    for (byte b : id) {
+      h1 = (h1 ^ (b & 0xff)) * 0x100000001b3L;
+      h2 = (h2 ^ (b & 0xff)) * 0x100000001b3L;
+    }
+    for (byte b : source) {
+      h1 = (h1 ^ (b & 0xff)) * 0x100000001b3L;
+      h2 = (h2 ^ (~b & 0xff)) * 0x100000001b3L;
+    }
+    return hex(mix(h1 ^ source.length)).concat(hex(mix(h2 + source.length)));
+  }
+
+  /**
+   * Returns the cached program for the given source, or null if there
+   * is none (or it can't be read).
+   *
+   * @param source the program's source code
+   */
+  public VMProgram get(byte[] source) {
+    File file = entry(source).toFile();
+    if (!file.isFile())
+      return null;
+    try {
+      ByteBuffer in = VMProgram.map(file.getPath(), "program");
+      int length = in.getInt();
+      if (length == source.length &&
+          in.slice(in.position(), length).equals(ByteBuffer.wrap(source))) {
+        in.position(in.position() + length);
+        VMProgram program = VMProgram.load(in, file.getPath());
+        // mark the entry as recently used
+        file.setLastModified(System.currentTimeMillis());
+        return program;
+      }
+    } catch (MyPLException | RuntimeException e) {
+      // (damaged)
+    }
+    // a damaged entry, or one for a different source with the same
+    // key, is dropped and treated as a miss
+    file.delete();
+    return null;
+  }
+
+  /**
+   * Add the compiled program for the given source to the cache,
+   * removing old entries if the cache grows past its limit. Failures
+   * to write the cache are ignored.
+   *
+   * @param source the program's source code
+   * @param program the compiled program
+   */
+  public void put(byte[] source, VMProgram program) {
+    try {
+      Files.createDirectories(dir);
+      // write to a temporary file first so concurrent runs never see
+      // a partially written entry
+      Path tmp = Files.createTempFile(dir, "tmp", ".myplc");
+      try {
+        try (DataOutputStream out = new DataOutputStream(
+               new BufferedOutputStream(new FileOutputStream(tmp.toFile())))) {
+          out.writeInt(source.length);
+          out.write(source);
+          program.save(out);
+        }
+        Files.move(tmp, entry(source), StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(tmp);
+      }
+      evict();
+    } catch (IOException | MyPLException e) {
+      // the cache is only an optimization
+    }
+  }
+
+  //----------------------------------------------------------------------
+  // HELPER FUNCTIONS
+  //----------------------------------------------------------------------
+
+  // murmur3's 64-bit finalizer
+  private static long mix(long h) {
+    h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+    h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    return h ^ (h >>> 33);
+  }
+
+  // the 16 digit hex form of the given value
+  private static String hex(long h) {
+    String s = Long.toHexString(h);
+    return "0000000000000000".substring(s.length()).concat(s);
+  }
+
+  // the file for the given source's entry
+  private Path entry(byte[] source) {
+    return dir.resolve(key(source).concat(".myplc"));
+  }
+
+  // remove the least recently used entries until the cache is within
+  // its size limit
+  private void evict() throws IOException {
+    List<File> entries = new ArrayList<>();
+    try (Stream<Path> files = Files.list(dir)) {
+      files.filter(p -> p.toString().endsWith(".myplc"))
+        .forEach(p -> entries.add(p.toFile()));
+    }
+    long size = 0;
+    for (File file : entries)
+      size += file.length();
+    entries.sort(Comparator.comparingLong(File::lastModified));
+    for (int i = 0; i < entries.size() && size > maxBytes; ++i) {
+      size -= entries.get(i).length();
+      entries.get(i).delete();
+    }
+  }
+
+  // identifies the running build of MyPL by the location of its
+  // classes (a jar or class directory), and by the size and
+  // modification time of the jar or the total size and newest
+  // modification time of the class files, so rebuilding any part of
+  // the compiler changes it. Note that this (and key) avoid + on
+  // strings, since the first use of each new kind of string
+  // concatenation costs tens of milliseconds at startup, which is
+  // what the cache is saving.
+  private static String compilerId() {
+    CodeSource source = CompileCache.class.getProtectionDomain().getCodeSource();
+    if (source == null || source.getLocation() == null)
+      return "mypl";
+    File location = new File(source.getLocation().getPath());
+    long size = location.length();
+    long modified = location.lastModified();
+    File[] classes = location.listFiles((d, name) -> name.endsWith(".class"));
+    if (classes != null) {
+      size = 0;
+      for (File file : classes) {
+        size += file.length();
+        modified = Math.max(modified, file.lastModified());
+      }
+    }
+    return String.join(":", "mypl", location.getPath(), String.valueOf(size),
+                       String.valueOf(modified));
+  }
+}
@@ -0,0 +1,403 @@
+/*
+ * File: ConstantFolder.java
+ * Date: Spring 2022
+ * Auth: Cameron S. Williamson
+ * Desc: Optimizes a (statically checked) program's AST by computing
+ *       the expressions whose operands are all constants, and by
+ *       replacing uses of local variables that are initialized to a
+ *       constant and never assigned with that constant. For example,
+ *
+ *         var secs = 60 * 60 * 24
+ *         print(secs * 2)
+ *
+ *       becomes 'var secs = 86400' and 'print(172800)'. Expressions are
+ *       only folded if computing them can't fail (e.g., division by
+ *       zero is left to the VM), so runtime errors stay the same.
+ */
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+public class ConstantFolder implements Visitor {
+
+  // the type information (updated for the terms created)
+  private TypeInfo typeInfo = null;
+
+  // the variables (of the current function) that can be propagated
+  // (if their initial value is a constant)
+  private Set<String> propagated = new HashSet<>();
+
+  // the constant values of the propagated variables declared so far
+  private Map<String, Token> constants = new HashMap<>();
+
+  public ConstantFolder(TypeInfo typeInfo) {
+    this.typeInfo = typeInfo;
+  }
+
+  //----------------------------------------------------------------------
+  // HELPER FUNCTIONS
+  //----------------------------------------------------------------------
+
+  // the constant value of the expression (or null)
+  private static Token constant(Expr e) {
+    if (e.op != null || e.logicallyNegated)
+      return null;
+    return constant(e.first);
+  }
+
+  // the constant value of the term (or null), where nil doesn't count
+  // as a constant
+  private static Token constant(ExprTerm term) {
+    if (term instanceof ComplexTerm)
+      return constant(((ComplexTerm) term).expr);
+    RValue rvalue = ((SimpleTerm) term).rvalue;
+    if (!(rvalue instanceof SimpleRValue))
+      return null;
+    Token value = ((SimpleRValue) rvalue).value;
+    return value.type() == TokenType.NIL ? null : value;
+  }
+
+  // a term for the given constant
+  private SimpleTerm term(Token value, String type) {
+    SimpleRValue rvalue = new SimpleRValue();
+    rvalue.value = value;
+    SimpleTerm term = new SimpleTerm();
+    term.rvalue = rvalue;
+    typeInfo.setExprType(term, type);
+    return term;
+  }
+
+  // add the names of the variables declared, assigned, or used as
+  // loop variables by the given statements (including nested ones)
+  private static void names(List<Stmt> stmts, Map<String, Integer> declared,
+                            Set<String> assigned)
+  {
+    for (Stmt stmt : stmts) {
+      if (stmt instanceof VarDeclStmt)
+        declared.merge(((VarDeclStmt) stmt).varName.lexeme(), 1, Integer::sum);
+      else if (stmt instanceof AssignStmt)
+        assigned.add(((AssignStmt) stmt).lvalue.get(0).lexeme());
+      else if (stmt instanceof CondStmt) {
+        CondStmt cond = (CondStmt) stmt;
+        names(cond.ifPart.stmts, declared, assigned);
+        for (BasicIf elif : cond.elifs)
+          names(elif.stmts, declared, assigned);
+        if (cond.elseStmts != null)
+          names(cond.elseStmts, declared, assigned);
+      } else if (stmt instanceof WhileStmt)
+        names(((WhileStmt) stmt).stmts, declared, assigned);
+      else if (stmt instanceof ForStmt) {
+        assigned.add(((ForStmt) stmt).varName.lexeme());
+        names(((ForStmt) stmt).stmts, declared, assigned);
+      }
+    }
+  }
+
+  // the value of lhs op rhs (or null if it isn't computed statically)
+  private static Token fold(Token lhs, Token op, Token rhs) {
+    TokenType lhsType = lhs.type();
+    TokenType rhsType = rhs.type();
+    try {
+      if (lhsType == TokenType.INT_VAL && rhsType == TokenType.INT_VAL)
+        return foldInt(Integer.parseInt(lhs.lexeme()), op, Integer.parseInt(rhs.lexeme()));
+      if (lhsType == TokenType.DOUBLE_VAL && rhsType == TokenType.DOUBLE_VAL)
+        return foldDouble(Double.parseDouble(lhs.lexeme()), op,
+                          Double.parseDouble(rhs.lexeme()));
+    } catch (NumberFormatException e) {
+      // an out of range literal (left for the code generator)
+      return null;
+    }
+    if (isString(lhsType) && isString(rhsType))
+      return foldString(lhs.lexeme(), op, rhs.lexeme());
+    if (lhsType == TokenType.BOOL_VAL && rhsType == TokenType.BOOL_VAL)
+      return foldBool(lhs.lexeme().equals("true"), op, rhs.lexeme().equals("true"));
+    return null;
+  }
+
+  private static Token foldInt(int x, Token op, int y) {
+    switch (op.type()) {
+      case PLUS: return value(TokenType.INT_VAL, String.valueOf(x + y), op);
+      case MINUS: return value(TokenType.INT_VAL, String.valueOf(x - y), op);
+      case MULTIPLY: return value(TokenType.INT_VAL, String.valueOf(x * y), op);
+      // (division by zero is a runtime error)
+      case DIVIDE: return y == 0 ? null : value(TokenType.INT_VAL, String.valueOf(x / y), op);
+      case MODULO: return y == 0 ? null : value(TokenType.INT_VAL, String.valueOf(x % y), op);
+      case LESS_THAN: return bool(x < y, op);
+      case LESS_THAN_EQUAL: return bool(x <= y, op);
+      case GREATER_THAN: return bool(x > y, op);
+      case GREATER_THAN_EQUAL: return bool(x >= y, op);
+      case EQUAL: return bool(x == y, op);
+      case NOT_EQUAL: return bool(x != y, op);
+      default: return null;
+    }
+  }
+
+  private static Token foldDouble(double x, Token op, double y) {
+    switch (op.type()) {
+      case PLUS: return doubleValue(x + y, op);
+      case MINUS: return doubleValue(x - y, op);
+      case MULTIPLY: return doubleValue(x * y, op);
+      case DIVIDE: return doubleValue(x / y, op);
+      case LESS_THAN: return bool(x < y, op);
+      case LESS_THAN_EQUAL: return bool(x <= y, op);
+      case GREATER_THAN: return bool(x > y, op);
+      case GREATER_THAN_EQUAL: return bool(x >= y, op);
+      // (as in the VM)
+      case EQUAL: return bool(Double.compare(x, y) == 0, op);
+      case NOT_EQUAL: return bool(Double.compare(x, y) != 0, op);
+      default: return null;
+    }
+  }
+
+  private static Token foldString(String x, Token op, String y) {
+    // the code generator's handling of escape sequences isn't always
+    // reversible, so strings with escapes are left alone
+    if (x.contains("\\") || y.contains("\\"))
+      return null;
+    switch (op.type()) {
+      case PLUS: return value(TokenType.STRING_VAL, x + y, op);
+      case LESS_THAN: return bool(x.compareTo(y) < 0, op);
+      case LESS_THAN_EQUAL: return bool(x.compareTo(y) <= 0, op);
+      case GREATER_THAN: return bool(x.compareTo(y) > 0, op);
+      case GREATER_THAN_EQUAL: return bool(x.compareTo(y) >= 0, op);
+      case EQUAL: return bool(x.equals(y), op);
+      case NOT_EQUAL: return bool(!x.equals(y), op);
+      default: return null;
+    }
+  }
+
+  private static Token foldBool(boolean x, Token op, boolean y) {
+    switch (op.type()) {
+      case AND: return bool(x && y, op);
+      case OR: return bool(x || y, op);
+      default: return null;
+    }
+  }
+
+  // the negation of an int or double value token (or null)
+  private static Token negate(Token value) {
+    try {
+      if (value.type() == TokenType.INT_VAL)
+        return value(TokenType.INT_VAL, String.valueOf(-Integer.parseInt(value.lexeme())), value);
+      if (value.type() == TokenType.DOUBLE_VAL)
+        return doubleValue(-Double.parseDouble(value.lexeme()), value);
+    } catch (NumberFormatException e) {
+      // an out of range literal (left for the code generator)
+    }
+    return null;
+  }
+
+  private static boolean isString(TokenType type) {
+    return type == TokenType.STRING_VAL || type == TokenType.CHAR_VAL;
+  }
+
+  // a value token (positioned at the given token)
+  private static Token value(TokenType type, String lexeme, Token at) {
+    return new Token(type, lexeme, at.line(), at.column());
+  }
+
+  private static Token bool(boolean value, Token at) {
+    return value(TokenType.BOOL_VAL, String.valueOf(value), at);
+  }
+
+  // a double value token, or null if the value isn't finite (and so
+  // can't be written as a literal)
+  private static Token doubleValue(double value, Token at) {
+    if (Double.isNaN(value) || Double.isInfinite(value))
+      return null;
+    return value(TokenType.DOUBLE_VAL, String.valueOf(value), at);
+  }
+
+  // the type (as the static checker names it) of a value token
+  private static String typeName(Token value) {
+    switch (value.type()) {
+      case INT_VAL: return "int";
+      case DOUBLE_VAL: return "double";
+      case STRING_VAL: return "string";
+      case CHAR_VAL: return "char";
+      default: return "bool";
+    }
+  }
+
+  //----------------------------------------------------------------------
+  // VISITOR FUNCTIONS
+  //----------------------------------------------------------------------
+
+  public void visit(Program node) throws MyPLException {
+    for (TypeDecl tdecl : node.tdecls)
+      tdecl.accept(this);
+    for (FunDecl fdecl : node.fdecls)
+      fdecl.accept(this);
+  }
+
+  public void visit(TypeDecl node) throws MyPLException {
+    // field initializers are folded, but nothing is propagated
+    propagated.clear();
+    constants.clear();
+    for (VarDeclStmt vdecl : node.vdecls)
+      vdecl.accept(this);
+  }
+
+  public void visit(FunDecl node) throws MyPLException {
+    // a variable is propagated if it is declared once and never
+    // assigned (and isn't a parameter), so that every use of its name
+    // after the declaration refers to it
+    Map<String, Integer> declared = new HashMap<>();
+    Set<String> assigned = new HashSet<>();
+    names(node.stmts, declared, assigned);
+    for (FunParam param : node.params)
+      assigned.add(param.paramName.lexeme());
+    propagated.clear();
+    for (String varName : declared.keySet())
+      if (declared.get(varName) == 1 && !assigned.contains(varName))
+        propagated.add(varName);
+    constants.clear();
+    for (Stmt stmt : node.stmts)
+      stmt.accept(this);
+  }
+
+  public void visit(VarDeclStmt node) throws MyPLException {
+    node.expr.accept(this);
+    String varName = node.varName.lexeme();
+    Token value = constant(node.expr);
+    // (strings stay in their variables: a literal is no cheaper to push
+    // than a variable is to load, and BoundsAnalyzer tracks strings by
+    // variable)
+    if (value != null && value.type() != TokenType.STRING_VAL &&
+        propagated.contains(varName))
+      constants.put(varName, value);
+  }
+
+  public void visit(AssignStmt node) throws MyPLException {
+    node.expr.accept(this);
+  }
+
+  public void visit(CondStmt node) throws MyPLException {
+    node.ifPart.cond.accept(this);
+    for (Stmt stmt : node.ifPart.stmts)
+      stmt.accept(this);
+    for (BasicIf elif : node.elifs) {
+      elif.cond.accept(this);
+      for (Stmt stmt : elif.stmts)
+        stmt.accept(this);
+    }
+    if (node.elseStmts != null)
+      for (Stmt stmt : node.elseStmts)
+        stmt.accept(this);
+  }
+
+  public void visit(WhileStmt node) throws MyPLException {
+    node.cond.accept(this);
+    for (Stmt stmt : node.stmts)
+      stmt.accept(this);
+  }
+
+  public void visit(ForStmt node) throws MyPLException {
+    node.start.accept(this);
+    node.end.accept(this);
+    for (Stmt stmt : node.stmts)
+      stmt.accept(this);
+  }
+
+  public void visit(ReturnStmt node) throws MyPLException {
+    if (node.expr != null)
+      node.expr.accept(this);
+  }
+
+  public void visit(DeleteStmt node) throws MyPLException {
+    // Intentionally left blank -- nothing to do here
+  }
+
+  public void visit(CallExpr node) throws MyPLException {
+    for (Expr arg : node.args)
+      arg.accept(this);
+  }
+
+  public void visit(SimpleRValue node) throws MyPLException {
+    // Intentionally left blank -- nothing to do here
+  }
+
+  public void visit(NewRValue node) throws MyPLException {
+    // Intentionally left blank -- nothing to do here
+  }
+
+  public void visit(IDRValue node) throws MyPLException {
+    // Intentionally left blank -- replaced by the enclosing term
+  }
+
+  public void visit(NegatedRValue node) throws MyPLException {
+    node.expr.accept(this);
+  }
+
+  public void visit(Expr node) throws MyPLException {
+    node.first.accept(this);
+    if (node.op != null) {
+      node.rest.accept(this);
+      Token lhs = constant(node.first);
+      Token rhs = constant(node.rest);
+      TokenType op = node.op.type();
+      Token value = null;
+      if (lhs != null && rhs != null)
+        value = fold(lhs, node.op, rhs);
+      else if (lhs != null && lhs.type() == TokenType.BOOL_VAL &&
+               (op == TokenType.AND || op == TokenType.OR)) {
+        // false and x is false, true or x is true (without evaluating
+        // x), while true and x, and false or x, are x
+        boolean decides = lhs.lexeme().equals(op == TokenType.AND ? "false" : "true");
+        if (decides)
+          value = lhs;
+        else {
+          ComplexTerm term = new ComplexTerm();
+          term.expr = node.rest;
+          typeInfo.setExprType(term, "bool");
+          node.first = term;
+          node.op = null;
+          node.rest = null;
+        }
+      }
+      if (value != null) {
+        node.first = term(value, typeName(value));
+        node.op = null;
+        node.rest = null;
+      }
+    }
+    Token value = constant(node.first);
+    if (node.logicallyNegated && node.op == null && value != null &&
+        value.type() == TokenType.BOOL_VAL) {
+      node.first = term(bool(!value.lexeme().equals("true"), value), "bool");
+      node.logicallyNegated = false;
+    }
+  }
+
+  public void visit(SimpleTerm node) throws MyPLException {
+    node.rvalue.accept(this);
+    // uses of constant variables
+    if (node.rvalue instanceof IDRValue) {
+      List<Token> path = ((IDRValue) node.rvalue).path;
+      Token value = path.size() == 1 ? constants.get(path.get(0).lexeme()) : null;
+      if (value != null) {
+        SimpleRValue rvalue = new SimpleRValue();
+        rvalue.value = value;
+        node.rvalue = rvalue;
+      }
+    }
+    // negated constants
+    else if (node.rvalue instanceof NegatedRValue) {
+      Token value = constant(((NegatedRValue) node.rvalue).expr);
+      Token negated = value == null ? null : negate(value);
+      if (negated != null) {
+        SimpleRValue rvalue = new SimpleRValue();
+        rvalue.value = negated;
+        node.rvalue = rvalue;
+      }
+    }
+  }
+
+  public void visit(ComplexTerm node) throws MyPLException {
+    node.expr.accept(this);
+  }
+}
@@ -0,0 +1,410 @@
+/*
+ * File: ControlFlowGraph.java
+ * Date: Spring 2022
+ * Auth: Cameron S. Williamson
+ * Desc: The control-flow graph of a (generated) frame: the frame's
+ *       reachable instructions split into basic blocks, with an edge
+ *       from each block to the blocks that can run after it. The graph
+ *       also records each block's immediate dominator, its stack depth
+ *       on entry, and which local slots are live on entry to and exit
+ *       from it, and is the basis of the frame's SSA form (see SSAForm).
+ *
+ *       Optimizations can change the blocks' instructions and edges,
+ *       after which the graph is lowered back into the frame's
+ *       instructions (with the jumps pointing at the blocks' new
+ *       positions).
+ */
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+
+public class ControlFlowGraph {
+
+  // the frame the graph is for
+  private VMFrame frame;
+
+  // the blocks, in the order their instructions are laid out (the
+  // entry block first)
+  private List<BasicBlock> blocks = new ArrayList<>();
+
+  private ControlFlowGraph(VMFrame frame) {
+    this.frame = frame;
+  }
+
+  /**
+   * Build the control-flow graph of the given frame.
+   *
+   * @param program the program the frame belongs to
+   * @param frame the frame
+   * @throws MyPLException if the frame's code is invalid (see
+   * VMVerifier)
+   */
+  public static ControlFlowGraph build(VMProgram program, VMFrame frame)
+    throws MyPLException
+  {
+    ControlFlowGraph graph = new ControlFlowGraph(frame);
+    List<VMInstr> instructions = frame.instructions;
+    int[] depths = VMVerifier.depths(program, frame, VMVerifier.initialDepth(program, frame));
+    // the block starting at each instruction (and at the end, if
+    // something jumps there)
+    BasicBlock[] starts = new BasicBlock[instructions.size() + 1];
+    starts[0] = new BasicBlock(0);
+    for (int pc = 0; pc < instructions.size(); ++pc) {
+      VMInstr instr = instructions.get(pc);
+      if (isJump(instr) && starts[(Integer) instr.operand()] == null)
+        starts[(Integer) instr.operand()] = new BasicBlock(0);
+      if ((isJump(instr) || instr.opcode() == OpCode.VRET) && starts[pc + 1] == null)
+        starts[pc + 1] = new BasicBlock(0);
+    }
+    BasicBlock block = null;
+    for (int pc = 0; pc <= instructions.size(); ++pc) {
+      if (starts[pc] != null) {
+        if (block != null && falls(block))
+          block.fallthrough = starts[pc];
+        block = starts[pc];
+        block.entryDepth = Math.max(depths[pc], 0);
+        graph.blocks.add(block);
+      }
+      if (pc == instructions.size())
+        break;
+      VMInstr instr = instructions.get(pc);
+      block.instructions.add(instr);
+      if (isJump(instr))
+        block.target = starts[(Integer) instr.operand()];
+    }
+    // (a jump back to the first instruction makes it a loop header,
+    // which gets an empty block before it to enter the loop from)
+    BasicBlock entry = graph.blocks.get(0);
+    if (graph.hasEdgeTo(entry)) {
+      BasicBlock start = new BasicBlock(0);
+      start.fallthrough = entry;
+      start.entryDepth = entry.entryDepth;
+      graph.blocks.add(0, start);
+    }
+    graph.removeUnreachable();
+    graph.computeDominators();
+    graph.computeLiveness();
+    return graph;
+  }
+
+  /**
+   * Returns the graph's blocks, entry block first.
+   */
+  public List<BasicBlock> blocks() {
+    return blocks;
+  }
+
+  /**
+   * Returns the frame the graph is for.
+   */
+  public VMFrame frame() {
+    return frame;
+  }
+
+  /**
+   * Replace the frame's instructions with the instructions of the
+   * graph's blocks (in order), pointing each jump at its target
+   * block. A JMP is added after a block whose fall through block
+   * isn't the next one. (A block that falls off the end of the frame
+   * must be the last one.)
+   */
+  public void lower() {
+    List<VMInstr> instructions = new ArrayList<>();
+    int[] starts = new int[blocks.size()];
+    // the jumps to patch, and the blocks they jump to
+    List<VMInstr> jumps = new ArrayList<>();
+    List<BasicBlock> targets = new ArrayList<>();
+    for (int i = 0; i < blocks.size(); ++i) {
+      BasicBlock block = blocks.get(i);
+      starts[i] = instructions.size();
+      instructions.addAll(block.instructions);
+      if (block.target != null) {
+        jumps.add(last(block));
+        targets.add(block.target);
+      }
+      BasicBlock next = i + 1 < blocks.size() ? blocks.get(i + 1) : null;
+      if (block.fallthrough != null && block.fallthrough != next) {
+        VMInstr jmp = VMInstr.JMP(0);
+        instructions.add(jmp);
+        jumps.add(jmp);
+        targets.add(block.fallthrough);
+      }
+    }
+    for (int i = 0; i < jumps.size(); ++i)
+      jumps.get(i).updateOperand(starts[targets.get(i).id()]);
+    frame.instructions.clear();
+    frame.instructions.addAll(instructions);
+  }
+
+  /**
+   * Returns the blocks in reverse postorder (each block before the
+   * blocks it dominates).
+   */
+  public List<BasicBlock> reversePostorder() {
+    List<BasicBlock> order = new ArrayList<>();
+    Set<BasicBlock> visited = new HashSet<>();
+    // (iteratively, with each block's successors left to visit)
+    Deque<BasicBlock> path = new ArrayDeque<>();
+    Deque<Deque<BasicBlock>> pending = new ArrayDeque<>();
+    path.push(blocks.get(0));
+    pending.push(new ArrayDeque<>(blocks.get(0).successors()));
+    visited.add(blocks.get(0));
+    while (!path.isEmpty()) {
+      BasicBlock next = pending.peek().poll();
+      if (next == null) {
+        order.add(path.pop());
+        pending.pop();
+      } else if (visited.add(next)) {
+        path.push(next);
+        pending.push(new ArrayDeque<>(next.successors()));
+      }
+    }
+    Collections.reverse(order);
+    return order;
+  }
+
+  /**
+   * Returns true if block a dominates block b (every path from the
+   * entry to b goes through a).
+   */
+  public boolean dominates(BasicBlock a, BasicBlock b) {
+    for (BasicBlock block = b; block != null; block = block.dominator)
+      if (block == a)
+        return true;
+    return false;
+  }
+
+  /**
+   * Returns the blocks of the natural loop with the given header: the
+   * header and the blocks that can reach one of its back edges (the
+   * edges to it from the blocks it dominates) without going through
+   * it. The set is empty if the block isn't a loop header.
+   */
+  public Set<BasicBlock> loop(BasicBlock header) {
+    Set<BasicBlock> loop = new HashSet<>();
+    List<BasicBlock> worklist = new ArrayList<>();
+    for (BasicBlock pred : header.predecessors)
+      if (dominates(header, pred))
+        worklist.add(pred);
+    if (worklist.isEmpty())
+      return loop;
+    loop.add(header);
+    while (!worklist.isEmpty()) {
+      BasicBlock block = worklist.remove(worklist.size() - 1);
+      if (loop.add(block))
+        worklist.addAll(block.predecessors);
+    }
+    return loop;
+  }
+
+  /**
+   * Add an empty block that runs when the given loop is entered (just
+   * before its header), and return it. The header's predecessors
+   * outside the loop continue with the new block instead. (The
+   * dominators and liveness of the graph aren't updated, and the
+   * blocks are renumbered.)
+   *
+   * @param header the loop's header
+   * @param loop the loop's blocks (see loop)
+   */
+  public BasicBlock addPreheader(BasicBlock header, Set<BasicBlock> loop) {
+    BasicBlock preheader = new BasicBlock(0);
+    preheader.entryDepth = header.entryDepth;
+    preheader.fallthrough = header;
+    for (BasicBlock pred : new ArrayList<>(header.predecessors)) {
+      if (loop.contains(pred))
+        continue;
+      if (pred.fallthrough == header)
+        pred.fallthrough = preheader;
+      if (pred.target == header)
+        pred.target = preheader;
+      header.predecessors.remove(pred);
+      preheader.predecessors.add(pred);
+    }
+    header.predecessors.add(preheader);
+    blocks.add(blocks.indexOf(header), preheader);
+    for (int i = 0; i < blocks.size(); ++i)
+      blocks.get(i).setId(i);
+    return preheader;
+  }
+
+  /**
+   * Returns the blocks in each block's dominance frontier: the blocks
+   * where the block's dominance ends, indexed by block number.
+   */
+  public List<Set<BasicBlock>> dominanceFrontiers() {
+    List<Set<BasicBlock>> frontiers = new ArrayList<>();
+    for (int i = 0; i < blocks.size(); ++i)
+      frontiers.add(new HashSet<>());
+    for (BasicBlock block : blocks) {
+      if (block.predecessors.size() < 2)
+        continue;
+      for (BasicBlock pred : block.predecessors)
+        for (BasicBlock runner = pred; runner != block.dominator; runner = runner.dominator)
+          frontiers.get(runner.id()).add(block);
+    }
+    return frontiers;
+  }
+
+  public String toString() {
+    String s = "";
+    for (BasicBlock block : blocks) {
+      s += "  " + block + " (preds " + block.predecessors + ", idom " + block.dominator + ")\n";
+      for (VMInstr instr : block.instructions)
+        s += "    " + (block.target != null && instr == last(block) ?
+                       instr.opcode() + " " + block.target : instr) + "\n";
+      if (block.fallthrough != null)
+        s += "    -> " + block.fallthrough + "\n";
+    }
+    return s;
+  }
+
+  //----------------------------------------------------------------------
+  // HELPER FUNCTIONS
+  //----------------------------------------------------------------------
+
+  // true if the instruction's operand is an instruction index
+  private static boolean isJump(VMInstr instr) {
+    OpCode opcode = instr.opcode();
+    return opcode == OpCode.JMP || opcode == OpCode.JMPF ||
+      opcode == OpCode.JMPFK || opcode == OpCode.JMPTK;
+  }
+
+  // true if the instruction's operand is a local slot
+  static boolean isLocal(VMInstr instr) {
+    OpCode opcode = instr.opcode();
+    return opcode == OpCode.LOAD || opcode == OpCode.STORE || opcode == OpCode.STOREK;
+  }
+
+  // the last instruction of the block (or null)
+  static VMInstr last(BasicBlock block) {
+    List<VMInstr> instructions = block.instructions;
+    return instructions.isEmpty() ? null : instructions.get(instructions.size() - 1);
+  }
+
+  // true if the block can continue with the next one
+  private static boolean falls(BasicBlock block) {
+    VMInstr last = last(block);
+    return last == null || (last.opcode() != OpCode.JMP && last.opcode() != OpCode.VRET);
+  }
+
+  // true if any block has an edge to the given one
+  private boolean hasEdgeTo(BasicBlock block) {
+    for (BasicBlock other : blocks)
+      if (other.successors().contains(block))
+        return true;
+    return false;
+  }
+
+  // drop the blocks that can't be reached from the entry, number the
+  // remaining ones, and record their predecessors
+  private void removeUnreachable() {
+    Set<BasicBlock> reached = new HashSet<>(reversePostorder());
+    blocks.removeIf(block -> !reached.contains(block));
+    for (int i = 0; i < blocks.size(); ++i)
+      blocks.get(i).setId(i);
+    for (BasicBlock block : blocks)
+      for (BasicBlock succ : block.successors())
+        succ.predecessors.add(block);
+  }
+
+  // compute each block's immediate dominator (using the iterative
+  // algorithm of Cooper, Harvey, and Kennedy)
+  private void computeDominators() {
+    List<BasicBlock> order = reversePostorder();
+    int[] number = new int[blocks.size()];
+    for (int i = 0; i < order.size(); ++i)
+      number[order.get(i).id()] = i;
+    BasicBlock entry = blocks.get(0);
+    // (the entry starts as its own dominator, to mark it as done)
+    entry.dominator = entry;
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (BasicBlock block : order.subList(1, order.size())) {
+        BasicBlock idom = null;
+        for (BasicBlock pred : block.predecessors) {
+          if (pred.dominator == null)
+            continue;
+          if (idom == null)
+            idom = pred;
+          else {
+            // walk up from both to their nearest common dominator
+            BasicBlock a = pred;
+            BasicBlock b = idom;
+            while (a != b) {
+              while (number[a.id()] > number[b.id()])
+                a = a.dominator;
+              while (number[b.id()] > number[a.id()])
+                b = b.dominator;
+            }
+            idom = a;
+          }
+        }
+        if (block.dominator != idom) {
+          block.dominator = idom;
+          changed = true;
+        }
+      }
+    }
+    entry.dominator = null;
+  }
+
+  // compute the local slots live on entry to and exit from each block
+  private void computeLiveness() {
+    // (not frame.localCount, which is only computed once)
+    int slots = frame.argCount();
+    for (BasicBlock block : blocks)
+      for (VMInstr instr : block.instructions)
+        if (isLocal(instr))
+          slots = Math.max(slots, (Integer) instr.operand() + 1);
+    List<Set<Integer>> uses = new ArrayList<>();
+    List<Set<Integer>> defs = new ArrayList<>();
+    for (BasicBlock block : blocks) {
+      Set<Integer> used = new HashSet<>();
+      Set<Integer> defined = new HashSet<>();
+      for (VMInstr instr : block.instructions) {
+        OpCode opcode = instr.opcode();
+        int slot = isLocal(instr) ? (Integer) instr.operand() : -1;
+        if (opcode == OpCode.LOAD && !defined.contains(slot))
+          used.add(slot);
+        else if (opcode == OpCode.STORE || opcode == OpCode.STOREK)
+          defined.add(slot);
+        else if (opcode == OpCode.PARFOR) {
+          // a parfor body reads (a copy of) all the locals
+          for (int i = 0; i < slots; ++i)
+            if (!defined.contains(i))
+              used.add(i);
+        }
+      }
+      uses.add(used);
+      defs.add(defined);
+    }
+    // (iterate backwards until nothing changes)
+    List<BasicBlock> order = reversePostorder();
+    Collections.reverse(order);
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (BasicBlock block : order) {
+        Set<Integer> liveOut = new HashSet<>();
+        for (BasicBlock succ : block.successors())
+          liveOut.addAll(succ.liveIn);
+        Set<Integer> liveIn = new HashSet<>(liveOut);
+        liveIn.removeAll(defs.get(block.id()));
+        liveIn.addAll(uses.get(block.id()));
+        if (!liveIn.equals(block.liveIn) || !liveOut.equals(block.liveOut)) {
+          block.liveIn = liveIn;
+          block.liveOut = liveOut;
+          changed = true;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,261 @@
+/*
+ * File: DeadCodeEliminator.java
+ * Date: Spring 2022
+ * Auth: Cameron S. Williamson
+ * Desc: Removes the parts of a (statically checked, constant folded)
+ *       program's AST that can never run, so no code is generated for
+ *       them:
+ *
+ *       - functions that can't be reached from main through calls
+ *         (including spawned functions)
+ *       - statements after a statement that never completes: a return,
+ *         a while loop whose condition is true (MyPL has no break), or
+ *         an if statement (with an else) whose branches all never
+ *         complete
+ *       - if/elif branches whose condition is false (and the branches
+ *         after one whose condition is true), and while loops whose
+ *         condition is false
+ */
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+public class DeadCodeEliminator implements Visitor {
+
+  // the user-defined functions called by the visited code
+  private Set<String> calls = new HashSet<>();
+
+  //----------------------------------------------------------------------
+  // HELPER FUNCTIONS
+  //----------------------------------------------------------------------
+
+  // the value of the condition if it is a bool literal (or null)
+  private static Boolean literal(Expr cond) {
+    if (cond.op != null || cond.logicallyNegated || !(cond.first instanceof SimpleTerm))
+      return null;
+    RValue rvalue = ((SimpleTerm) cond.first).rvalue;
+    if (!(rvalue instanceof SimpleRValue))
+      return null;
+    Token value = ((SimpleRValue) rvalue).value;
+    if (value.type() != TokenType.BOOL_VAL)
+      return null;
+    return value.lexeme().equals("true");
+  }
+
+  // the literal true (positioned at the given literal condition)
+  private static Expr trueLiteral(Expr cond) {
+    Token at = ((SimpleRValue) ((SimpleTerm) cond.first).rvalue).value;
+    SimpleRValue rvalue = new SimpleRValue();
+    rvalue.value = new Token(TokenType.BOOL_VAL, "true", at.line(), at.column());
+    SimpleTerm term = new SimpleTerm();
+    term.rvalue = rvalue;
+    Expr expr = new Expr();
+    expr.first = term;
+    return expr;
+  }
+
+  // remove the dead statements of the block (and of the blocks nested
+  // in it), and visit the remaining ones
+  private void prune(List<Stmt> stmts) throws MyPLException {
+    List<Stmt> live = new ArrayList<>();
+    for (Stmt stmt : stmts) {
+      if (stmt instanceof CondStmt && !pruneCond((CondStmt) stmt))
+        continue;
+      if (stmt instanceof WhileStmt && Boolean.FALSE.equals(literal(((WhileStmt) stmt).cond)))
+        continue;
+      stmt.accept(this);
+      live.add(stmt);
+      if (!completes(stmt))
+        break;
+    }
+    stmts.clear();
+    stmts.addAll(live);
+  }
+
+  // drop the branches of the if statement that can't run, returns
+  // false if none are left (and so the statement can be dropped)
+  private boolean pruneCond(CondStmt node) {
+    List<BasicIf> parts = new ArrayList<>();
+    parts.add(node.ifPart);
+    parts.addAll(node.elifs);
+    List<BasicIf> live = new ArrayList<>();
+    List<Stmt> elseStmts = node.elseStmts;
+    for (BasicIf part : parts) {
+      Boolean value = literal(part.cond);
+      if (Boolean.FALSE.equals(value))
+        continue;
+      if (Boolean.TRUE.equals(value)) {
+        // the branch is always taken if reached, so the ones after it
+        // can't run
+        if (live.isEmpty()) {
+          live.add(part);
+          elseStmts = null;
+        } else
+          elseStmts = part.stmts;
+        break;
+      }
+      live.add(part);
+    }
+    if (live.isEmpty() && elseStmts == null)
+      return false;
+    if (live.isEmpty()) {
+      // only the else branch is left, which is kept as 'if true' for
+      // its block (the peephole optimizer removes the test)
+      BasicIf part = new BasicIf();
+      part.cond = trueLiteral(node.ifPart.cond);
+      part.stmts = elseStmts;
+      live.add(part);
+      elseStmts = null;
+    }
+    node.ifPart = live.get(0);
+    node.elifs = new ArrayList<>(live.subList(1, live.size()));
+    node.elseStmts = elseStmts;
+    return true;
+  }
+
+  // false if the statement (once pruned) never completes normally, so
+  // the statements after it can't run
+  private static boolean completes(Stmt stmt) {
+    if (stmt instanceof ReturnStmt)
+      return false;
+    if (stmt instanceof WhileStmt)
+      return !Boolean.TRUE.equals(literal(((WhileStmt) stmt).cond));
+    if (stmt instanceof CondStmt) {
+      CondStmt cond = (CondStmt) stmt;
+      if (cond.elseStmts == null && !Boolean.TRUE.equals(literal(cond.ifPart.cond)))
+        return true;
+      if (completes(cond.ifPart.stmts))
+        return true;
+      for (BasicIf elif : cond.elifs)
+        if (completes(elif.stmts))
+          return true;
+      return cond.elseStmts != null && completes(cond.elseStmts);
+    }
+    // (a return in a parfor body only ends the body)
+    return true;
+  }
+
+  private static boolean completes(List<Stmt> stmts) {
+    return stmts.isEmpty() || completes(stmts.get(stmts.size() - 1));
+  }
+
+  //----------------------------------------------------------------------
+  // VISITOR FUNCTIONS
+  //----------------------------------------------------------------------
+
+  public void visit(Program node) throws MyPLException {
+    Map<String, FunDecl> fdecls = new HashMap<>();
+    for (FunDecl fdecl : node.fdecls)
+      fdecls.put(fdecl.funName.lexeme(), fdecl);
+    // visit the functions reachable from main
+    Set<String> reached = new HashSet<>();
+    Deque<String> worklist = new ArrayDeque<>();
+    reached.add("main");
+    worklist.push("main");
+    while (!worklist.isEmpty()) {
+      FunDecl fdecl = fdecls.get(worklist.pop());
+      if (fdecl == null)
+        continue;
+      calls.clear();
+      fdecl.accept(this);
+      for (String funName : calls)
+        if (reached.add(funName))
+          worklist.push(funName);
+    }
+    node.fdecls.removeIf(fdecl -> !reached.contains(fdecl.funName.lexeme()));
+  }
+
+  public void visit(TypeDecl node) throws MyPLException {
+    // Intentionally left blank -- only functions are pruned
+  }
+
+  public void visit(FunDecl node) throws MyPLException {
+    prune(node.stmts);
+  }
+
+  public void visit(VarDeclStmt node) throws MyPLException {
+    node.expr.accept(this);
+  }
+
+  public void visit(AssignStmt node) throws MyPLException {
+    node.expr.accept(this);
+  }
+
+  public void visit(CondStmt node) throws MyPLException {
+    node.ifPart.cond.accept(this);
+    prune(node.ifPart.stmts);
+    for (BasicIf elif : node.elifs) {
+      elif.cond.accept(this);
+      prune(elif.stmts);
+    }
+    if (node.elseStmts != null)
+      prune(node.elseStmts);
+  }
+
+  public void visit(WhileStmt node) throws MyPLException {
+    node.cond.accept(this);
+    prune(node.stmts);
+  }
+
+  public void visit(ForStmt node) throws MyPLException {
+    node.start.accept(this);
+    node.end.accept(this);
+    prune(node.stmts);
+  }
+
+  public void visit(ReturnStmt node) throws MyPLException {
+    if (node.expr != null)
+      node.expr.accept(this);
+  }
+
+  public void visit(DeleteStmt node) throws MyPLException {
+    // Intentionally left blank -- nothing to do here
+  }
+
+  public void visit(CallExpr node) throws MyPLException {
+    for (Expr arg : node.args)
+      arg.accept(this);
+    String funName = node.funName.lexeme();
+    if (funName.equals("spawn"))
+      calls.add(StaticChecker.getSpawnedFunction(node).lexeme());
+    else if (!StaticChecker.getBuiltinFunctions().contains(funName))
+      calls.add(funName);
+  }
+
+  public void visit(SimpleRValue node) throws MyPLException {
+    // Intentionally left blank -- nothing to do here
+  }
+
+  public void visit(NewRValue node) throws MyPLException {
+    // Intentionally left blank -- nothing to do here
+  }
+
+  public void visit(IDRValue node) throws MyPLException {
+    // Intentionally left blank -- nothing to do here
+  }
+
+  public void visit(NegatedRValue node) throws MyPLException {
+    node.expr.accept(this);
+  }
+
+  public void visit(Expr node) throws MyPLException {
+    node.first.accept(this);
+    if (node.rest != null)
+      node.rest.accept(this);
+  }
+
+  public void visit(SimpleTerm node) throws MyPLException {
+    node.rvalue.accept(this);
+  }
+
+  public void visit(ComplexTerm node) throws MyPLException {
+    node.expr.accept(this);
+  }
+}
@@ -0,0 +1,272 @@
+/*
+ * File: FieldPathEliminator.java
+ * Date: Spring 2022
+ * Auth: Cameron S. Williamson
+ * Desc: Removes repeated reads of the same field path, like the
+ *       root.left in root.left.value followed by root.left.left, by
+ *       keeping the path's value in a local the first time it is read
+ *       and loading the local after that (instead of a GETFLD, which
+ *       looks up the object in the VM's heap).
+ *
+ *       A read is identified by the value of the frame's SSA form (see
+ *       SSAForm) it reads from and its field, and is available where
+ *       every path through the frame's code reads it with no change to
+ *       the field in between (an available-expression analysis over
+ *       the frame's control-flow graph). A SETFLD of field f changes
+ *       the reads of f, and a FREE, a call, a spawn, a join, or a
+ *       parfor may change any field (or delete the objects), so they
+ *       change all of them. (The fields set by another task are only
+ *       certain to be seen after joining it.)
+ *
+ *       Each available read also records the read whose value it has,
+ *       which the value of a repeated read then stands for, so the
+ *       second root.left.value is repeated when the second root.left
+ *       is. A value read before its field changes keeps its own
+ *       identity, so a later read of the same path (like old.value
+ *       after list.head = n, where old was list.head) is not repeated.
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+public class FieldPathEliminator {
+
+  // the most rounds of the analysis before giving up on a frame
+  private static final int MAX_ROUNDS = 20;
+
+  /**
+   * Remove the repeated field path reads in each of the program's
+   * (generated) frames.
+   *
+   * @param program the program to remove the reads from
+   */
+  public static void eliminate(VMProgram program) {
+    for (String name : program.functionNames()) {
+      try {
+        eliminate(program, program.get(name));
+      } catch (MyPLException e) {
+        // (left for the verifier to report)
+      }
+    }
+  }
+
+  //----------------------------------------------------------------------
+  // HELPER FUNCTIONS
+  //----------------------------------------------------------------------
+
+  // remove the frame's repeated field path reads
+  private static void eliminate(VMProgram program, VMFrame frame) throws MyPLException {
+    int reads = 0;
+    for (VMInstr instr : frame.instructions)
+      if (instr.opcode() == OpCode.GETFLD)
+        ++reads;
+    if (reads < 2)
+      return;
+    ControlFlowGraph graph = ControlFlowGraph.build(program, frame);
+    SSAForm ssa = SSAForm.build(program, graph);
+    List<BasicBlock> blocks = graph.blocks();
+    // the reads available at the end of each block, each mapped to the
+    // value holding it (null until the block is first reached), and
+    // the value each read's value stands for
+    List<Map<List<String>, String>> available = new ArrayList<>();
+    for (BasicBlock block : blocks)
+      available.add(null);
+    Map<String, String> holders = new HashMap<>();
+    boolean changed = true;
+    for (int round = 0; changed; ++round) {
+      // (what a read's value stands for changes with what is
+      // available, so give up on frames that don't settle)
+      if (round == MAX_ROUNDS)
+        return;
+      changed = false;
+      for (BasicBlock block : graph.reversePostorder()) {
+        Map<List<String>, String> out =
+          transfer(ssa, block, availableIn(block, available), holders, null, null);
+        if (!out.equals(available.get(block.id()))) {
+          available.set(block.id(), out);
+          changed = true;
+        }
+      }
+    }
+    // the repeated reads, and the read (object and field) of each
+    // GETFLD
+    Set<SSAInstr> redundant = new HashSet<>();
+    Map<SSAInstr, List<String>> keys = new HashMap<>();
+    for (BasicBlock block : blocks)
+      transfer(ssa, block, availableIn(block, available), holders, redundant, keys);
+    if (redundant.isEmpty())
+      return;
+    // the first and last instruction of each read to replace (by
+    // block), and the local for each read
+    Map<BasicBlock, Map<Integer, Integer>> replaced = new HashMap<>();
+    Map<List<String>, Integer> locals = new HashMap<>();
+    int nextSlot = slots(frame);
+    for (BasicBlock block : blocks) {
+      List<SSAInstr> code = ssa.code(block);
+      int phis = code.size() - block.instructions.size();
+      Map<Integer, Integer> starts = new HashMap<>();
+      for (int pc = 0; pc < block.instructions.size(); ++pc) {
+        SSAInstr instr = code.get(phis + pc);
+        if (!redundant.contains(instr))
+          continue;
+        int start = start(block, code, phis, pc, redundant);
+        if (start == -1)
+          continue;
+        // (a longer path read replaces the shorter ones it starts with)
+        starts.keySet().removeIf(end -> end >= start);
+        starts.put(pc, start);
+        if (!locals.containsKey(keys.get(instr)))
+          locals.put(keys.get(instr), nextSlot++);
+      }
+      replaced.put(block, starts);
+    }
+    if (locals.isEmpty())
+      return;
+    for (BasicBlock block : blocks) {
+      List<SSAInstr> code = ssa.code(block);
+      int phis = code.size() - block.instructions.size();
+      Map<Integer, Integer> starts = replaced.get(block);
+      List<VMInstr> instructions = new ArrayList<>();
+      for (int pc = 0; pc < block.instructions.size(); ++pc) {
+        SSAInstr instr = code.get(phis + pc);
+        Integer start = null;
+        for (int end : starts.keySet())
+          if (pc >= starts.get(end) && pc <= end)
+            start = starts.get(end);
+        if (start != null) {
+          // (only the read's last instruction is replaced by the load)
+          if (starts.containsKey(pc))
+            instructions.add(VMInstr.LOAD(locals.get(keys.get(instr))));
+          continue;
+        }
+        instructions.add(instr.instr);
+        // keep the read's value for the reads that repeat it
+        if (instr.instr.opcode() == OpCode.GETFLD && !redundant.contains(instr) &&
+            locals.containsKey(keys.get(instr)))
+          instructions.add(VMInstr.STOREK(locals.get(keys.get(instr))));
+      }
+      block.instructions.clear();
+      block.instructions.addAll(instructions);
+    }
+    graph.lower();
+  }
+
+  // the reads available at the start of the block: those available,
+  // and held by the same value, at the end of each of its predecessors
+  // reached so far
+  private static Map<List<String>, String> availableIn(BasicBlock block,
+                                                       List<Map<List<String>, String>> available)
+  {
+    Map<List<String>, String> in = null;
+    for (BasicBlock pred : block.predecessors) {
+      Map<List<String>, String> out = available.get(pred.id());
+      if (out == null)
+        continue;
+      if (in == null)
+        in = new HashMap<>(out);
+      else
+        in.entrySet().removeIf(e -> !e.getValue().equals(out.get(e.getKey())));
+    }
+    return in == null ? new HashMap<>() : in;
+  }
+
+  // the reads available at the end of the block given the ones at its
+  // start, recording what the value of each of the block's reads
+  // stands for in holders, and adding the block's repeated reads to
+  // redundant and the read of each GETFLD to keys (if not null)
+  private static Map<List<String>, String> transfer(SSAForm ssa, BasicBlock block,
+                                                    Map<List<String>, String> available,
+                                                    Map<String, String> holders,
+                                                    Set<SSAInstr> redundant,
+                                                    Map<SSAInstr, List<String>> keys)
+  {
+    // the objects just allocated (and only set since), which no read
+    // can lead to yet
+    Set<String> fresh = new HashSet<>();
+    for (SSAInstr instr : ssa.code(block)) {
+      OpCode opcode = instr.isPhi() ? null : instr.instr.opcode();
+      boolean initializes = opcode == OpCode.SETFLD && fresh.contains(instr.uses.get(0));
+      if (opcode == OpCode.ALLOC)
+        fresh.add(instr.def);
+      else if (opcode != OpCode.DUP && opcode != OpCode.PUSH && !initializes)
+        fresh.clear();
+      // (a new value, which the reads from or held by its old value
+      // don't apply to)
+      if (instr.def != null)
+        available.entrySet().removeIf(e -> e.getKey().get(0).equals(instr.def) ||
+                                      e.getValue().equals(instr.def));
+      if (opcode == OpCode.GETFLD) {
+        List<String> key = List.of(holder(ssa, instr.uses.get(0), holders),
+                                   (String) instr.instr.operand());
+        if (keys != null)
+          keys.put(instr, key);
+        String holder = available.get(key);
+        if (holder != null) {
+          if (redundant != null)
+            redundant.add(instr);
+          holders.put(instr.def, holder);
+        } else {
+          holders.put(instr.def, instr.def);
+          available.put(key, instr.def);
+        }
+      } else if (opcode == OpCode.SETFLD && !initializes) {
+        String field = (String) instr.instr.operand();
+        available.keySet().removeIf(key -> key.get(1).equals(field));
+      } else if (opcode == OpCode.FREE || opcode == OpCode.CALL || opcode == OpCode.SPAWN ||
+                 opcode == OpCode.JOIN || opcode == OpCode.PARFOR) {
+        available.clear();
+      }
+    }
+    return available;
+  }
+
+  // the value the given value stands for: the value it is a copy of
+  // (through stores to locals), or the value holding it if that is a
+  // repeated read
+  private static String holder(SSAForm ssa, String value, Map<String, String> holders) {
+    String original = original(ssa, value);
+    return holders.getOrDefault(original, original);
+  }
+
+  // the value the given value is a copy of (through stores to locals)
+  private static String original(SSAForm ssa, String value) {
+    SSAInstr def = ssa.definition(value);
+    while (def != null && !def.isPhi() &&
+           (def.instr.opcode() == OpCode.STORE || def.instr.opcode() == OpCode.STOREK)) {
+      value = def.uses.get(0);
+      def = ssa.definition(value);
+    }
+    return value;
+  }
+
+  // the first instruction of the redundant read ending at pc: the read's
+  // object must be loaded from a local, or read (redundantly) from
+  // another object loaded from a local (-1 if not)
+  private static int start(BasicBlock block, List<SSAInstr> code, int phis, int pc,
+                           Set<SSAInstr> redundant)
+  {
+    if (pc == 0)
+      return -1;
+    OpCode opcode = block.instructions.get(pc - 1).opcode();
+    if (opcode == OpCode.LOAD)
+      return pc - 1;
+    if (opcode == OpCode.GETFLD && redundant.contains(code.get(phis + pc - 1)))
+      return start(block, code, phis, pc - 1, redundant);
+    return -1;
+  }
+
+  // the number of local slots the frame's code uses (see
+  // Inliner.slots)
+  private static int slots(VMFrame frame) {
+    int count = frame.argCount();
+    for (VMInstr instr : frame.instructions)
+      if (ControlFlowGraph.isLocal(instr))
+        count = Math.max(count, (Integer) instr.operand() + 1);
+    return count;
+  }
+}
@@ -14,6 +14,7 @@ public class ForStmt implements Stmt {
   public Token varName = null;
   public Expr start = null;
   public boolean upto = true;
+  public boolean parallel = false;
   public Expr end = null;
   public List<Stmt> stmts = new ArrayList<>();
   
@@ -392,6 +392,13 @@ public class GoVisitor implements Visitor {
         } else if (node.funName.lexeme().equals("dtoi")) {
             stdconv = true;
             print("int(");
+        } else if (node.funName.lexeme().equals("spawn") || node.funName.lexeme().equals("join")) {
+            throw MyPLException.GOError("spawn and join are not supported in Go code");
+        } else if (node.funName.lexeme().equals("checkpoint")) {
+            throw MyPLException.GOError("checkpoint is not supported in Go code");
+        } else if (Arrays.asList("timestart", "timeend", "timedelta").contains(node.funName.lexeme())
+                && node.args.size() > 0) {
+            throw MyPLException.GOError("Named timers are not supported in Go code");
         } else if (node.funName.lexeme().equals("timestart")) {
             time = true;
             print("start ");
@@ -412,7 +419,7 @@ public class GoVisitor implements Visitor {
             return;
         } else if (node.funName.lexeme().equals("timedelta")) {
             time = true;
-            print("end.Sub(start)");
+            print("end.Sub(start).Seconds()");
             return;
         } else
             print(node.funName.lexeme() + "(");
@@ -466,8 +473,10 @@ public class GoVisitor implements Visitor {
 
     @Override
     public void visit(Expr node) throws MyPLException {
+        // (a parenthesized term already has its parentheses)
+        boolean parens = node.op != null || !(node.first instanceof ComplexTerm);
         if (node.logicallyNegated)
-            out.print("!(");
+            out.print(parens ? "!(" : "!");
         node.first.accept(this);
         if (node.op != null) {
             if (node.op.lexeme().equals("and"))
@@ -476,9 +485,15 @@ public class GoVisitor implements Visitor {
                 out.print(" || ");
             else
                 out.print(" " + node.op.lexeme() + " ");
+            // MyPL operators group to the right (a and b or c is a and (b
+            // or c)), while Go's group by precedence
+            if (node.rest.op != null)
+                out.print("(");
             node.rest.accept(this);
+            if (node.rest.op != null)
+                out.print(")");
         }
-        if (node.logicallyNegated)
+        if (node.logicallyNegated && parens)
             out.print(")");
     }
 
@@ -489,7 +504,13 @@ public class GoVisitor implements Visitor {
 
     @Override
     public void visit(ComplexTerm node) throws MyPLException {
+        // a single term doesn't need parentheses
+        boolean parens = node.expr.op != null || node.expr.logicallyNegated;
+        if (parens)
+            out.print("(");
         node.expr.accept(this);
+        if (parens)
+            out.print(")");
     }
 
 }
\ No newline at end of file
@@ -51,7 +51,6 @@ public class HW6 {
     VM vm = new VM();
     VMFrame f = new VMFrame("is_prime", 1);
     vm.add(f);
-    f.instructions.add(VMInstr.STORE(0));
     f.instructions.add(VMInstr.LOAD(0));
     f.instructions.add(VMInstr.PUSH(2));
     f.instructions.add(VMInstr.DIV());
@@ -61,7 +60,7 @@ public class HW6 {
     f.instructions.add(VMInstr.LOAD(2));
     f.instructions.add(VMInstr.LOAD(1));
     f.instructions.add(VMInstr.CMPLE());
-    f.instructions.add(VMInstr.JMPF(32)); 
+    f.instructions.add(VMInstr.JMPF(31)); 
     f.instructions.add(VMInstr.LOAD(0));
     f.instructions.add(VMInstr.LOAD(2));
     f.instructions.add(VMInstr.DIV());
@@ -73,7 +72,7 @@ public class HW6 {
     f.instructions.add(VMInstr.LOAD(4));
     f.instructions.add(VMInstr.LOAD(0));
     f.instructions.add(VMInstr.CMPEQ());
-    f.instructions.add(VMInstr.JMPF(27)); 
+    f.instructions.add(VMInstr.JMPF(26)); 
     f.instructions.add(VMInstr.LOAD(0));
     f.instructions.add(VMInstr.LOAD(4));
     f.instructions.add(VMInstr.CMPNE());
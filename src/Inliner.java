@@ -0,0 +1,202 @@
+/*
+ * File: Inliner.java
+ * Date: Spring 2022
+ * Auth: Cameron S. Williamson
+ * Desc: Replaces calls to small functions with a copy of the called
+ *       function's code. For a call f(a1, ..., an), the arguments
+ *       (already on the stack) are stored into free local slots of the
+ *       caller, and f's code follows with its locals moved to those
+ *       slots and each return turned into a jump past the copy (leaving
+ *       the return value on the stack).
+ *
+ *       A function is inlined if it has at most MAX_INSTRUCTIONS
+ *       instructions (after its own calls are inlined), can't call
+ *       itself (directly or through other functions), has no parfor
+ *       (whose body frame uses the function's local slots), and only
+ *       returns with the return value alone on its stack. Functions
+ *       are processed callees first, so inlined code can itself
+ *       contain inlined calls. The called function's frame is kept,
+ *       since it may still be called (or spawned) elsewhere.
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+
+public class Inliner {
+
+  // the most instructions a function can have to be inlined
+  private static final int MAX_INSTRUCTIONS = 32;
+
+  /**
+   * Inline the calls to small functions in each of the program's
+   * (generated) frames.
+   *
+   * @param program the program to inline calls in
+   */
+  public static void inline(VMProgram program) {
+    // the call graph
+    Map<String, Set<String>> calls = new HashMap<>();
+    for (String name : program.functionNames())
+      calls.put(name, callees(program, program.get(name)));
+    // (sorted, so the result doesn't depend on the frame order)
+    List<String> order = new ArrayList<>();
+    Set<String> visited = new HashSet<>();
+    for (String name : new TreeSet<>(program.functionNames()))
+      postorder(name, calls, visited, order);
+    Set<String> inlinable = new HashSet<>();
+    for (String name : order) {
+      VMFrame frame = program.get(name);
+      inlineCalls(program, frame, inlinable);
+      if (!isRecursive(name, calls) && canInline(program, frame))
+        inlinable.add(name);
+    }
+  }
+
+  //----------------------------------------------------------------------
+  // HELPER FUNCTIONS
+  //----------------------------------------------------------------------
+
+  // true if the instruction's operand is an instruction index
+  private static boolean isJump(VMInstr instr) {
+    OpCode opcode = instr.opcode();
+    return opcode == OpCode.JMP || opcode == OpCode.JMPF ||
+      opcode == OpCode.JMPFK || opcode == OpCode.JMPTK;
+  }
+
+  // true if the instruction's operand is a local slot
+  private static boolean isLocal(VMInstr instr) {
+    OpCode opcode = instr.opcode();
+    return opcode == OpCode.LOAD || opcode == OpCode.STORE || opcode == OpCode.STOREK;
+  }
+
+  // the number of local slots the frame's code uses (see
+  // VMFrame.localCount, which can't be used here since it is only
+  // computed once)
+  private static int slots(VMFrame frame) {
+    int count = frame.argCount();
+    for (VMInstr instr : frame.instructions)
+      if (isLocal(instr))
+        count = Math.max(count, (Integer) instr.operand() + 1);
+    return count;
+  }
+
+  // the (defined) functions the frame calls
+  private static Set<String> callees(VMProgram program, VMFrame frame) {
+    Set<String> callees = new HashSet<>();
+    for (VMInstr instr : frame.instructions)
+      if (instr.opcode() == OpCode.CALL && program.contains((String) instr.operand()))
+        callees.add((String) instr.operand());
+    return callees;
+  }
+
+  // add the functions reachable from name to order, callees first
+  private static void postorder(String name, Map<String, Set<String>> calls,
+                                Set<String> visited, List<String> order)
+  {
+    if (!visited.add(name))
+      return;
+    for (String callee : new TreeSet<>(calls.get(name)))
+      postorder(callee, calls, visited, order);
+    order.add(name);
+  }
+
+  // true if the function can call itself
+  private static boolean isRecursive(String name, Map<String, Set<String>> calls) {
+    Set<String> reached = new HashSet<>();
+    List<String> worklist = new ArrayList<>(calls.get(name));
+    while (!worklist.isEmpty()) {
+      String callee = worklist.remove(worklist.size() - 1);
+      if (callee.equals(name))
+        return true;
+      if (reached.add(callee))
+        worklist.addAll(calls.get(callee));
+    }
+    return false;
+  }
+
+  // true if the frame's code can be copied into its callers
+  private static boolean canInline(VMProgram program, VMFrame frame) {
+    List<VMInstr> instructions = frame.instructions;
+    if (instructions.size() > MAX_INSTRUCTIONS)
+      return false;
+    for (VMInstr instr : instructions)
+      if (instr.opcode() == OpCode.PARFOR)
+        return false;
+    int[] depths;
+    try {
+      depths = VMVerifier.depths(program, frame, 0);
+    } catch (MyPLException e) {
+      // (left for the verifier to report)
+      return false;
+    }
+    // every path must end in a return of a single value
+    if (depths[instructions.size()] != -1)
+      return false;
+    for (int pc = 0; pc < instructions.size(); ++pc)
+      if (instructions.get(pc).opcode() == OpCode.VRET && depths[pc] != -1 && depths[pc] != 1)
+        return false;
+    return true;
+  }
+
+  // replace the frame's calls to inlinable functions by the functions'
+  // code
+  private static void inlineCalls(VMProgram program, VMFrame frame, Set<String> inlinable) {
+    List<VMInstr> instructions = frame.instructions;
+    // (the inlined code only runs from its start to its end, so each
+    // copy can use the same slots after the caller's own)
+    int base = slots(frame);
+    List<VMInstr> inlined = new ArrayList<>();
+    // the new index of each instruction (and of the end)
+    int[] newIndex = new int[instructions.size() + 1];
+    boolean changed = false;
+    for (int i = 0; i < instructions.size(); ++i) {
+      newIndex[i] = inlined.size();
+      VMInstr instr = instructions.get(i);
+      if (instr.opcode() == OpCode.CALL && inlinable.contains(instr.operand())) {
+        copy(program.get((String) instr.operand()), base, inlined);
+        changed = true;
+      } else
+        inlined.add(instr);
+    }
+    newIndex[instructions.size()] = inlined.size();
+    if (!changed)
+      return;
+    // (only the caller's own jumps, the copies' are already in place)
+    for (VMInstr instr : instructions)
+      if (isJump(instr))
+        instr.updateOperand(newIndex[(Integer) instr.operand()]);
+    instructions.clear();
+    instructions.addAll(inlined);
+    PeepholeOptimizer.optimize(frame);
+  }
+
+  // add a copy of the callee's code to instructions, with its locals
+  // starting at slot base
+  private static void copy(VMFrame callee, int base, List<VMInstr> instructions) {
+    // the arguments are on the stack, last one on top
+    for (int i = callee.argCount() - 1; i >= 0; --i)
+      instructions.add(VMInstr.STORE(base + i));
+    int start = instructions.size();
+    int end = start + callee.instructions.size();
+    for (VMInstr instr : callee.instructions) {
+      VMInstr copy;
+      if (isLocal(instr))
+        copy = new VMInstr(instr.opcode(), base + (Integer) instr.operand());
+      else if (isJump(instr))
+        copy = new VMInstr(instr.opcode(), start + (Integer) instr.operand());
+      else if (instr.opcode() == OpCode.VRET)
+        copy = VMInstr.JMP(end);
+      else
+        copy = new VMInstr(instr.opcode(), instr.operand());
+      if (instr.comment() != null)
+        copy.addComment(instr.comment());
+      instructions.add(copy);
+    }
+  }
+}
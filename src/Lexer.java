@@ -320,6 +320,8 @@ public class Lexer {
           return new Token(TokenType.WHILE, sb.toString(), line, initialColumn);
         case "for":
           return new Token(TokenType.FOR, sb.toString(), line, initialColumn);
+        case "parfor":
+          return new Token(TokenType.PARFOR, sb.toString(), line, initialColumn);
         case "from":
           return new Token(TokenType.FROM, sb.toString(), line, initialColumn);
         case "upto":
@@ -0,0 +1,553 @@
+/*
+ * File: LoopInvariantHoister.java
+ * Date: Spring 2022
+ * Auth: Cameron S. Williamson
+ * Desc: Moves the parts of a (statically checked) program's while and
+ *       for loops that compute the same value on every pass out of the
+ *       loop. Each such loop-invariant expression is computed once into
+ *       a new variable declared just before the loop, which the loop
+ *       reads instead:
+ *
+ *         while i < length(s) { ... }     var $inv0 = length(s)
+ *                                         while i < $inv0 { ... }
+ *
+ *       The new variables are named '$inv' followed by a number (which
+ *       can't clash with MyPL names), and are never assigned.
+ *
+ *       An expression is invariant if the loop doesn't assign (or
+ *       declare) the variables it reads, it only calls pure built-in
+ *       functions (see StaticChecker.getPureBuiltinFunctions), and the
+ *       loop doesn't assign the fields it reads. A loop with a delete
+ *       statement, or a call to a user-defined function (which may
+ *       change any field), changes every field. Only operator
+ *       expressions, calls, and field paths are worth moving.
+ *
+ *       A moved expression runs before the loop even if the loop (or
+ *       the branch it is in) never runs it, and so it must not be able
+ *       to fail at runtime (e.g., with a nil operand, which is checked
+ *       with the NilAnalyzer, or a division by zero). The exception is
+ *       an expression evaluated first in a while loop's condition (or a
+ *       for loop's end value), before anything that can fail or has a
+ *       side effect, which runs exactly when the moved one would.
+ */
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+
+public class LoopInvariantHoister implements Visitor {
+
+  // the checked types of the program's expressions
+  private TypeInfo typeInfo;
+
+  // the nil analysis of the current function
+  private NilAnalyzer nilAnalyzer = null;
+
+  // the number of variables added so far (for naming)
+  private int count = 0;
+
+  // the added variables that are never nil
+  private Set<String> nonNilVars = new HashSet<>();
+
+  // the variables the current loop assigns (or declares), the fields
+  // it assigns, and whether it may change any field
+  private Set<String> assigned = new HashSet<>();
+  private Set<String> fields = new HashSet<>();
+  private boolean changesFields = false;
+
+  // the variables non-nil at the start of each pass over the loop
+  private Set<String> nonNil = new HashSet<>();
+
+  // the declarations of the variables added for the current loop
+  private List<Stmt> hoisted = new ArrayList<>();
+
+  // true if the part of the loop being visited runs first on a pass
+  // over the loop (after nothing that can fail or has side effects)
+  private boolean leading = false;
+
+  public LoopInvariantHoister(TypeInfo typeInfo) {
+    this.typeInfo = typeInfo;
+  }
+
+  //----------------------------------------------------------------------
+  // HELPER FUNCTIONS
+  //----------------------------------------------------------------------
+
+  // true if the call is to a built-in function without side effects
+  private static boolean isPure(CallExpr node) {
+    return StaticChecker.getPureBuiltinFunctions().contains(node.funName.lexeme());
+  }
+
+  // true if the call may change fields (or free objects)
+  private static boolean changesFields(CallExpr node) {
+    String funName = node.funName.lexeme();
+    return !StaticChecker.getBuiltinFunctions().contains(funName) ||
+      funName.equals("spawn") || funName.equals("join");
+  }
+
+  // add what the statements (including nested ones) change to the
+  // current loop's assigned variables and fields
+  private void scan(List<Stmt> stmts) {
+    for (Stmt stmt : stmts) {
+      if (stmt instanceof VarDeclStmt) {
+        assigned.add(((VarDeclStmt) stmt).varName.lexeme());
+        scan(((VarDeclStmt) stmt).expr);
+      } else if (stmt instanceof AssignStmt) {
+        List<Token> lvalue = ((AssignStmt) stmt).lvalue;
+        if (lvalue.size() == 1)
+          assigned.add(lvalue.get(0).lexeme());
+        else
+          fields.add(lvalue.get(lvalue.size() - 1).lexeme());
+        scan(((AssignStmt) stmt).expr);
+      } else if (stmt instanceof CondStmt) {
+        CondStmt cond = (CondStmt) stmt;
+        scan(cond.ifPart.cond);
+        scan(cond.ifPart.stmts);
+        for (BasicIf elif : cond.elifs) {
+          scan(elif.cond);
+          scan(elif.stmts);
+        }
+        if (cond.elseStmts != null)
+          scan(cond.elseStmts);
+      } else if (stmt instanceof WhileStmt) {
+        scan(((WhileStmt) stmt).cond);
+        scan(((WhileStmt) stmt).stmts);
+      } else if (stmt instanceof ForStmt) {
+        ForStmt loop = (ForStmt) stmt;
+        assigned.add(loop.varName.lexeme());
+        scan(loop.start);
+        scan(loop.end);
+        scan(loop.stmts);
+      } else if (stmt instanceof ReturnStmt) {
+        if (((ReturnStmt) stmt).expr != null)
+          scan(((ReturnStmt) stmt).expr);
+      } else if (stmt instanceof DeleteStmt)
+        changesFields = true;
+      else if (stmt instanceof CallExpr)
+        scan((CallExpr) stmt);
+    }
+  }
+
+  private void scan(Expr e) {
+    scan(e.first);
+    if (e.rest != null)
+      scan(e.rest);
+  }
+
+  private void scan(ExprTerm term) {
+    if (term instanceof ComplexTerm) {
+      scan(((ComplexTerm) term).expr);
+      return;
+    }
+    RValue rvalue = ((SimpleTerm) term).rvalue;
+    if (rvalue instanceof CallExpr)
+      scan((CallExpr) rvalue);
+    else if (rvalue instanceof NegatedRValue)
+      scan(((NegatedRValue) rvalue).expr);
+  }
+
+  private void scan(CallExpr node) {
+    for (Expr arg : node.args)
+      scan(arg);
+    if (changesFields(node))
+      changesFields = true;
+  }
+
+  // true if the expression has the same value on each pass over the
+  // current loop
+  private boolean isInvariant(Expr e) {
+    return isInvariant(e.first) && (e.rest == null || isInvariant(e.rest));
+  }
+
+  private boolean isInvariant(ExprTerm term) {
+    if (term instanceof ComplexTerm)
+      return isInvariant(((ComplexTerm) term).expr);
+    RValue rvalue = ((SimpleTerm) term).rvalue;
+    if (rvalue instanceof SimpleRValue)
+      return true;
+    if (rvalue instanceof IDRValue) {
+      List<Token> path = ((IDRValue) rvalue).path;
+      if (assigned.contains(path.get(0).lexeme()))
+        return false;
+      if (path.size() > 1 && changesFields)
+        return false;
+      for (Token field : path.subList(1, path.size()))
+        if (fields.contains(field.lexeme()))
+          return false;
+      return true;
+    }
+    if (rvalue instanceof CallExpr) {
+      CallExpr call = (CallExpr) rvalue;
+      if (!isPure(call))
+        return false;
+      for (Expr arg : call.args)
+        if (!isInvariant(arg))
+          return false;
+      return true;
+    }
+    if (rvalue instanceof NegatedRValue)
+      return isInvariant(((NegatedRValue) rvalue).expr);
+    // (each new creates a different object)
+    return false;
+  }
+
+  // true if the expression is never nil at the start of a pass over
+  // the current loop
+  private boolean isNonNil(Expr e) {
+    return e.logicallyNegated || isNonNilOperand(e);
+  }
+
+  // as isNonNil, but without the expression's logical negation
+  private boolean isNonNilOperand(Expr e) {
+    if (e.op == null)
+      return isNonNil(e.first);
+    // (and/or result in their left operand only if it isn't nil)
+    if (e.op.type() == TokenType.AND || e.op.type() == TokenType.OR)
+      return isNonNil(e.rest);
+    return true;
+  }
+
+  private boolean isNonNil(ExprTerm term) {
+    if (term instanceof ComplexTerm)
+      return isNonNil(((ComplexTerm) term).expr);
+    RValue rvalue = ((SimpleTerm) term).rvalue;
+    if (rvalue instanceof SimpleRValue)
+      return ((SimpleRValue) rvalue).value.type() != TokenType.NIL;
+    if (rvalue instanceof IDRValue) {
+      List<Token> path = ((IDRValue) rvalue).path;
+      String varName = path.get(0).lexeme();
+      return path.size() == 1 && (nonNil.contains(varName) || nonNilVars.contains(varName));
+    }
+    if (rvalue instanceof CallExpr) {
+      String funName = ((CallExpr) rvalue).funName.lexeme();
+      return StaticChecker.getBuiltinFunctions().contains(funName) && !funName.equals("join");
+    }
+    return true;
+  }
+
+  // true if evaluating the expression (at the start of a pass over the
+  // current loop) can't fail and has no side effects
+  private boolean isSafe(Expr e) {
+    if (!isSafe(e.first) || (e.rest != null && !isSafe(e.rest)))
+      return false;
+    if (e.logicallyNegated && !isNonNilOperand(e))
+      return false;
+    if (e.op == null)
+      return true;
+    switch (e.op.type()) {
+      case EQUAL: case NOT_EQUAL:
+        return true;
+      case AND: case OR:
+        return isNonNil(e.first);
+      case DIVIDE: case MODULO:
+        // (only int division by zero fails)
+        if (!"double".equals(typeInfo.exprType(e.rest)) && !isNonZeroLiteral(e.rest))
+          return false;
+        return isNonNil(e.first) && isNonNil(e.rest);
+      default:
+        return isNonNil(e.first) && isNonNil(e.rest);
+    }
+  }
+
+  private boolean isSafe(ExprTerm term) {
+    if (term instanceof ComplexTerm)
+      return isSafe(((ComplexTerm) term).expr);
+    RValue rvalue = ((SimpleTerm) term).rvalue;
+    if (rvalue instanceof SimpleRValue)
+      return true;
+    if (rvalue instanceof IDRValue)
+      return ((IDRValue) rvalue).path.size() == 1;
+    if (rvalue instanceof NegatedRValue) {
+      Expr expr = ((NegatedRValue) rvalue).expr;
+      return isSafe(expr) && isNonNil(expr);
+    }
+    if (rvalue instanceof CallExpr && isConversion((CallExpr) rvalue)) {
+      Expr arg = ((CallExpr) rvalue).args.get(0);
+      return isSafe(arg) && isNonNil(arg);
+    }
+    // other calls can fail (or have side effects), and new can run out
+    // of heap objects
+    return false;
+  }
+
+  // true if the call is to a built-in function that can't fail for a
+  // non-nil argument
+  private static boolean isConversion(CallExpr node) {
+    String funName = node.funName.lexeme();
+    return funName.equals("length") || funName.equals("itos") ||
+      funName.equals("itod") || funName.equals("dtos") || funName.equals("dtoi");
+  }
+
+  // true if the expression is a non-zero int literal
+  private static boolean isNonZeroLiteral(Expr e) {
+    if (e.op != null || e.logicallyNegated || !(e.first instanceof SimpleTerm))
+      return false;
+    RValue rvalue = ((SimpleTerm) e.first).rvalue;
+    if (!(rvalue instanceof SimpleRValue))
+      return false;
+    Token value = ((SimpleRValue) rvalue).value;
+    return value.type() == TokenType.INT_VAL && !value.lexeme().matches("0+");
+  }
+
+  // the first token of the term (for positioning added variables)
+  private static Token firstToken(ExprTerm term) {
+    if (term instanceof ComplexTerm)
+      return firstToken(((ComplexTerm) term).expr.first);
+    RValue rvalue = ((SimpleTerm) term).rvalue;
+    if (rvalue instanceof SimpleRValue)
+      return ((SimpleRValue) rvalue).value;
+    if (rvalue instanceof IDRValue)
+      return ((IDRValue) rvalue).path.get(0);
+    if (rvalue instanceof CallExpr)
+      return ((CallExpr) rvalue).funName;
+    if (rvalue instanceof NegatedRValue)
+      return firstToken(((NegatedRValue) rvalue).expr.first);
+    return ((NewRValue) rvalue).typeName;
+  }
+
+  // declare a new variable (before the current loop) holding the
+  // value of the given expression, returning a term reading it
+  private SimpleTerm declare(Expr value, String type) {
+    Token at = firstToken(value.first);
+    Token varName = new Token(TokenType.ID, "$inv" + count++, at.line(), at.column());
+    VarDeclStmt decl = new VarDeclStmt();
+    decl.varName = varName;
+    decl.expr = value;
+    hoisted.add(decl);
+    if (isNonNil(value))
+      nonNilVars.add(varName.lexeme());
+    IDRValue rvalue = new IDRValue();
+    rvalue.path.add(varName);
+    SimpleTerm term = new SimpleTerm();
+    term.rvalue = rvalue;
+    typeInfo.setExprType(term, type);
+    return term;
+  }
+
+  // move the current loop's invariant parts of the expression out of
+  // the loop, visiting its parts in evaluation order
+  private void hoist(Expr e) {
+    if (e.op != null && isInvariant(e) && (leading || isSafe(e))) {
+      // the expression becomes a read of the new variable
+      Expr value = new Expr();
+      value.first = e.first;
+      value.op = e.op;
+      value.rest = e.rest;
+      value.logicallyNegated = e.logicallyNegated;
+      String type = typeInfo.exprType(e);
+      typeInfo.setExprType(value, type);
+      e.first = declare(value, type);
+      e.op = null;
+      e.rest = null;
+      e.logicallyNegated = false;
+      return;
+    }
+    hoist(e.first);
+    if (e.rest != null) {
+      // (and/or only evaluate their right operand for some values)
+      if (e.op.type() == TokenType.AND || e.op.type() == TokenType.OR)
+        leading = false;
+      hoist(e.rest);
+    }
+    if (!isSafe(e))
+      leading = false;
+  }
+
+  private void hoist(ExprTerm term) {
+    if (term instanceof ComplexTerm) {
+      hoist(((ComplexTerm) term).expr);
+      return;
+    }
+    SimpleTerm simple = (SimpleTerm) term;
+    RValue rvalue = simple.rvalue;
+    boolean isPath = rvalue instanceof IDRValue && ((IDRValue) rvalue).path.size() > 1;
+    if ((isPath || rvalue instanceof CallExpr) && isInvariant(term) && (leading || isSafe(term))) {
+      // the term becomes a read of the new variable
+      String type = typeInfo.exprType(term);
+      SimpleTerm valueTerm = new SimpleTerm();
+      valueTerm.rvalue = rvalue;
+      typeInfo.setExprType(valueTerm, type);
+      Expr value = new Expr();
+      value.first = valueTerm;
+      typeInfo.setExprType(value, type);
+      simple.rvalue = declare(value, type).rvalue;
+      return;
+    }
+    if (rvalue instanceof CallExpr)
+      for (Expr arg : ((CallExpr) rvalue).args)
+        hoist(arg);
+    else if (rvalue instanceof NegatedRValue)
+      hoist(((NegatedRValue) rvalue).expr);
+    if (!isSafe(term))
+      leading = false;
+  }
+
+  // move the current loop's invariant expressions in the statements
+  // (including nested ones) out of the loop
+  private void hoist(List<Stmt> stmts) {
+    for (Stmt stmt : stmts) {
+      leading = false;
+      if (stmt instanceof VarDeclStmt)
+        hoist(((VarDeclStmt) stmt).expr);
+      else if (stmt instanceof AssignStmt)
+        hoist(((AssignStmt) stmt).expr);
+      else if (stmt instanceof CondStmt) {
+        CondStmt cond = (CondStmt) stmt;
+        hoist(cond.ifPart.cond);
+        hoist(cond.ifPart.stmts);
+        for (BasicIf elif : cond.elifs) {
+          hoist(elif.cond);
+          hoist(elif.stmts);
+        }
+        if (cond.elseStmts != null)
+          hoist(cond.elseStmts);
+      } else if (stmt instanceof WhileStmt) {
+        hoist(((WhileStmt) stmt).cond);
+        hoist(((WhileStmt) stmt).stmts);
+      } else if (stmt instanceof ForStmt) {
+        ForStmt loop = (ForStmt) stmt;
+        hoist(loop.start);
+        hoist(loop.end);
+        hoist(loop.stmts);
+      } else if (stmt instanceof ReturnStmt) {
+        if (((ReturnStmt) stmt).expr != null)
+          hoist(((ReturnStmt) stmt).expr);
+      } else if (stmt instanceof CallExpr)
+        for (Expr arg : ((CallExpr) stmt).args)
+          hoist(arg);
+    }
+  }
+
+  // move the loop's invariant expressions out of it, returning the
+  // declarations of the variables holding them
+  private List<Stmt> hoistFrom(Stmt loop) {
+    assigned = new HashSet<>();
+    fields = new HashSet<>();
+    changesFields = false;
+    hoisted = new ArrayList<>();
+    nonNil = nilAnalyzer.nonNilInLoop(loop);
+    if (nonNil == null)
+      return hoisted;
+    if (loop instanceof WhileStmt) {
+      WhileStmt node = (WhileStmt) loop;
+      scan(node.cond);
+      scan(node.stmts);
+      leading = true;
+      hoist(node.cond);
+      hoist(node.stmts);
+    } else {
+      ForStmt node = (ForStmt) loop;
+      assigned.add(node.varName.lexeme());
+      // (the start value is computed after the added variables)
+      scan(node.start);
+      scan(node.end);
+      scan(node.stmts);
+      // a parfor computes its end value once
+      if (!node.parallel) {
+        leading = isSafe(node.start);
+        hoist(node.end);
+      }
+      hoist(node.stmts);
+    }
+    return hoisted;
+  }
+
+  // move the invariant expressions of the block's loops (and of the
+  // loops nested in them) out of the loops, outermost loops first
+  private void block(List<Stmt> stmts) throws MyPLException {
+    List<Stmt> result = new ArrayList<>();
+    for (Stmt stmt : stmts) {
+      if (stmt instanceof WhileStmt || stmt instanceof ForStmt)
+        result.addAll(hoistFrom(stmt));
+      result.add(stmt);
+      stmt.accept(this);
+    }
+    stmts.clear();
+    stmts.addAll(result);
+  }
+
+  //----------------------------------------------------------------------
+  // VISITOR FUNCTIONS
+  //----------------------------------------------------------------------
+
+  public void visit(Program node) throws MyPLException {
+    for (FunDecl fdecl : node.fdecls)
+      fdecl.accept(this);
+  }
+
+  public void visit(TypeDecl node) throws MyPLException {
+    // Intentionally left blank -- only functions have loops
+  }
+
+  public void visit(FunDecl node) throws MyPLException {
+    nilAnalyzer = new NilAnalyzer();
+    node.accept(nilAnalyzer);
+    block(node.stmts);
+  }
+
+  public void visit(VarDeclStmt node) throws MyPLException {
+    // Intentionally left blank -- nothing to do here
+  }
+
+  public void visit(AssignStmt node) throws MyPLException {
+    // Intentionally left blank -- nothing to do here
+  }
+
+  public void visit(CondStmt node) throws MyPLException {
+    block(node.ifPart.stmts);
+    for (BasicIf elif : node.elifs)
+      block(elif.stmts);
+    if (node.elseStmts != null)
+      block(node.elseStmts);
+  }
+
+  public void visit(WhileStmt node) throws MyPLException {
+    block(node.stmts);
+  }
+
+  public void visit(ForStmt node) throws MyPLException {
+    block(node.stmts);
+  }
+
+  public void visit(ReturnStmt node) throws MyPLException {
+    // Intentionally left blank -- nothing to do here
+  }
+
+  public void visit(DeleteStmt node) throws MyPLException {
+    // Intentionally left blank -- nothing to do here
+  }
+
+  public void visit(CallExpr node) throws MyPLException {
+    // Intentionally left blank -- nothing to do here
+  }
+
+  public void visit(SimpleRValue node) throws MyPLException {
+    // Intentionally left blank -- nothing to do here
+  }
+
+  public void visit(NewRValue node) throws MyPLException {
+    // Intentionally left blank -- nothing to do here
+  }
+
+  public void visit(IDRValue node) throws MyPLException {
+    // Intentionally left blank -- nothing to do here
+  }
+
+  public void visit(NegatedRValue node) throws MyPLException {
+    // Intentionally left blank -- nothing to do here
+  }
+
+  public void visit(Expr node) throws MyPLException {
+    // Intentionally left blank -- nothing to do here
+  }
+
+  public void visit(SimpleTerm node) throws MyPLException {
+    // Intentionally left blank -- nothing to do here
+  }
+
+  public void visit(ComplexTerm node) throws MyPLException {
+    // Intentionally left blank -- nothing to do here
+  }
+}
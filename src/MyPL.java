@@ -5,11 +5,15 @@
  * Desc: Driver program for HW-7
  */
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 
 public class MyPL {
@@ -22,7 +26,11 @@ public class MyPL {
       boolean printMode = false;
       boolean checkMode = false;
       boolean outIRMode = false;
+      boolean ssaMode = false;
       boolean goMode = false;
+      boolean compileMode = false;
+      boolean resumeMode = false;
+      boolean daemonMode = false;
       int argCount = args.length;
       InputStream input = System.in;
 
@@ -43,15 +51,57 @@ public class MyPL {
         checkMode = true;
       else if (argCount > 0 && args[0].equals("--ir"))
         outIRMode = true;
+      else if (argCount > 0 && args[0].equals("--ssa"))
+        ssaMode = true;
       else if (argCount > 0 && args[0].equals("--go"))
         goMode = true;
+      else if (argCount > 0 && args[0].equals("--compile"))
+        compileMode = true;
+      else if (argCount > 0 && args[0].equals("--resume"))
+        resumeMode = true;
+      else if (argCount > 0 && args[0].equals("--daemon"))
+        daemonMode = true;
 
       // to check modes
       boolean specialMode = lexerMode || printMode || parseMode ||
-          checkMode || outIRMode || goMode;
+          checkMode || outIRMode || ssaMode || goMode || compileMode;
 
       // check if incorrect args 
-      if (argCount == 2 && !specialMode) {
+      if (argCount == 2 && !specialMode && !resumeMode && !daemonMode) {
+        displayUsageInfo();
+        System.exit(1);
+      }
+
+      // run scripts for clients until killed (on the given socket, if
+      // any)
+      if (daemonMode) {
+        Path socket = argCount == 2 ? Paths.get(args[1]) : MyPLClient.defaultSocket();
+        try (MyPLDaemon daemon = new MyPLDaemon(socket, CompileCache.defaultCache())) {
+          daemon.serve();
+        }
+        return;
+      }
+
+      // resume from a checkpoint file (instead of running a script)
+      if (resumeMode) {
+        if (argCount != 2) {
+          displayUsageInfo();
+          System.exit(1);
+        }
+        VM vm = VM.restore(args[1], System.in, System.out);
+        vm.run();
+        return;
+      }
+
+      // run a compiled program (skipping the front end)
+      if (argCount == 1 && !specialMode && args[0].endsWith(".myplc")) {
+        VM vm = new VM(VMProgram.load(args[0]), System.in, System.out);
+        vm.run();
+        return;
+      }
+
+      // compiling needs a file to name the compiled program after
+      if (compileMode && argCount != 2) {
         displayUsageInfo();
         System.exit(1);
       }
@@ -101,15 +151,24 @@ public class MyPL {
       }
       // run in intermediate-representation mode
       else if (outIRMode) {
-        ASTParser parser = new ASTParser(lexer);
-        Program program = parser.parse();
-        TypeInfo typeInfo = new TypeInfo();
-        StaticChecker checkVisitor = new StaticChecker(typeInfo);
-        program.accept(checkVisitor);
-        VM vm = new VM();
-        CodeGenerator genVisitor = new CodeGenerator(typeInfo, vm);
-        program.accept(genVisitor);
-        System.out.println(vm);
+        System.out.println(compile(input));
+      }
+      // run in SSA mode (prints the SSA form of each frame)
+      else if (ssaMode) {
+        VMProgram code = compile(input);
+        for (String name : code.functionNames()) {
+          ControlFlowGraph graph = ControlFlowGraph.build(code, code.get(name));
+          System.out.println("Frame '" + name + "'");
+          System.out.print(SSAForm.build(code, graph));
+        }
+      }
+      // run in compile mode (writes the .myplc file)
+      else if (compileMode) {
+        VMProgram code = compile(input);
+        String fileName = args[1];
+        if (fileName.endsWith(".mypl"))
+          fileName = fileName.substring(0, fileName.length() - 5);
+        code.save(fileName + ".myplc");
       }
       // Run in go code generation mode
       else if (goMode) {
@@ -121,15 +180,22 @@ public class MyPL {
         program.accept(checkVisitor);
         goVisitor.parse(program, goOutputStream);
       }
+      // run a script file, reusing its cached compiled program (if
+      // any) unless MYPL_NO_CACHE is set
+      else if (argCount == 1 && System.getenv("MYPL_NO_CACHE") == null) {
+        byte[] source = input.readAllBytes();
+        CompileCache cache = CompileCache.defaultCache();
+        VMProgram compiled = cache.get(source);
+        if (compiled == null) {
+          compiled = compile(new ByteArrayInputStream(source));
+          cache.put(source, compiled);
+        }
+        VM vm = new VM(compiled, System.in, System.out);
+        vm.run();
+      }
       // run normally
       else {
-        ASTParser parser = new ASTParser(lexer);
-        Program program = parser.parse();
-        TypeInfo typeInfo = new TypeInfo();
-        program.accept(new StaticChecker(typeInfo));
-        VM vm = new VM();
-        CodeGenerator genVisitor = new CodeGenerator(typeInfo, vm);
-        program.accept(genVisitor);
+        VM vm = new VM(compile(input), System.in, System.out);
         vm.run();
       }
     }
@@ -142,6 +208,33 @@ public class MyPL {
       System.err.println("ERROR: Unable to open file '" + args[i] + "'");
       System.exit(1);
     }
+    catch (IOException e) {
+      System.err.println("ERROR: " + e.getMessage());
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Compile the MyPL program read from the given stream: parse it,
+   * check it, run the optimization passes over its AST, and generate
+   * its VM code (see CodeGenerator for the passes over the generated
+   * code). This is the one place the passes are listed, so the
+   * driver, the daemon, and the tests all compile the same way.
+   *
+   * @param input the program's source code
+   * @return the compiled program
+   * @throws MyPLException if the program has a syntax or static error
+   */
+  public static VMProgram compile(InputStream input) throws MyPLException {
+    Program program = new ASTParser(new Lexer(input)).parse();
+    TypeInfo typeInfo = new TypeInfo();
+    program.accept(new StaticChecker(typeInfo));
+    program.accept(new ConstantFolder(typeInfo));
+    program.accept(new DeadCodeEliminator());
+    program.accept(new LoopInvariantHoister(typeInfo));
+    VM vm = new VM();
+    program.accept(new CodeGenerator(typeInfo, vm));
+    return vm.program();
   }
 
   private static void displayUsageInfo() {
@@ -152,7 +245,11 @@ public class MyPL {
     System.out.println("  --print    Pretty print the program.");
     System.out.println("  --check    Statically check program.");
     System.out.println("  --ir       Print intermediate code.");
+    System.out.println("  --ssa      Print the SSA form of the intermediate code.");
     System.out.println("  --go       Generate Go code.");
+    System.out.println("  --compile  Compile to a .myplc file (run with ./mypl file.myplc).");
+    System.out.println("  --resume   Resume from a checkpoint file.");
+    System.out.println("  --daemon   Run scripts sent by mypl-client (optional socket path).");
   }
   
 }
@@ -0,0 +1,151 @@
+/*
+ * File: MyPLClient.java
+ * Date: Spring 2022
+ * Auth: Cameron S. Williamson
+ * Desc: The client side of the MyPL daemon (see MyPLDaemon). The
+ *       client only forwards a script path and its standard input to
+ *       the daemon over a UNIX-domain socket, and copies the script's
+ *       output back, so it never loads the MyPL front end or VM.
+ *
+ *       This is the Java side of the protocol, for the daemon and its
+ *       tests. It is not a way to run scripts from the command line,
+ *       since starting a JVM for it costs more than a cold run of
+ *       mypl itself. Use the native client (client/mypl-client.c)
+ *       for that.
+ *
+ *       Protocol: the client sends the script's absolute path and a
+ *       newline, followed by the script's input (closing its side of
+ *       the connection at the end of the input). The daemon replies
+ *       with a sequence of frames, each a one byte type followed by
+ *       an int: OUT and ERR frames are followed by that many bytes of
+ *       standard output or error, and the final EXIT frame's int is
+ *       the exit status.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+
+public class MyPLClient {
+
+  // frame types
+  static final byte OUT = 1;
+  static final byte ERR = 2;
+  static final byte EXIT = 3;
+
+  /**
+   * Returns the socket path used when none is given: $MYPL_SOCKET, or
+   * /tmp/mypl-[user].sock (the same rule as the native client, so not
+   * java.io.tmpdir).
+   */
+  public static Path defaultSocket() {
+    String socket = System.getenv("MYPL_SOCKET");
+    if (socket != null && !socket.isEmpty())
+      return Paths.get(socket);
+    return Paths.get("/tmp", "mypl-" + System.getProperty("user.name") + ".sock");
+  }
+
+  /**
+   * Run a script on the daemon listening on the given socket.
+   *
+   * @param socket the daemon's socket
+   * @param script the path of the script to run
+   * @param in the script's standard input
+   * @param out the script's standard output
+   * @param err the script's standard error
+   * @return the script's exit status
+   */
+  public static int run(Path socket, String script, InputStream in,
+                        PrintStream out, PrintStream err) throws IOException
+  {
+    try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+      channel.connect(UnixDomainSocketAddress.of(socket));
+      OutputStream request = output(channel);
+      String path = Paths.get(script).toAbsolutePath().toString();
+      request.write((path + "\n").getBytes(StandardCharsets.UTF_8));
+      request.flush();
+      // forward the input in the background (the script may finish
+      // without reading all of it). This is not a lambda, since setting
+      // up the first lambda adds to the client's startup time.
+      Thread forwarder = new Thread() {
+          @Override
+          public void run() {
+            try {
+              in.transferTo(request);
+              channel.shutdownOutput();
+            } catch (IOException e) {
+              // the daemon closed the connection
+            }
+          }
+        };
+      forwarder.setDaemon(true);
+      forwarder.start();
+      DataInputStream response = new DataInputStream(
+          new BufferedInputStream(input(channel)));
+      while (true) {
+        byte type = response.readByte();
+        int n = response.readInt();
+        if (type == EXIT) {
+          out.flush();
+          return n;
+        }
+        byte[] bytes = new byte[n];
+        response.readFully(bytes);
+        PrintStream target = type == ERR ? err : out;
+        target.write(bytes);
+        target.flush();
+      }
+    } catch (EOFException e) {
+      throw new IOException("Connection to the MyPL daemon was closed");
+    }
+  }
+
+  // Streams over a socket channel. (Unlike the streams from Channels,
+  // reading doesn't block writing, which the client and daemon both do
+  // at the same time.)
+
+  static InputStream input(SocketChannel channel) {
+    return new InputStream() {
+      @Override
+      public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+      }
+
+      @Override
+      public int read(byte[] bytes, int off, int len) throws IOException {
+        if (len == 0)
+          return 0;
+        return channel.read(ByteBuffer.wrap(bytes, off, len));
+      }
+    };
+  }
+
+  static OutputStream output(SocketChannel channel) {
+    return new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] bytes, int off, int len) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, off, len);
+        while (buffer.hasRemaining())
+          channel.write(buffer);
+      }
+    };
+  }
+}
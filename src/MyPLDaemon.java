@@ -0,0 +1,196 @@
+/*
+ * File: MyPLDaemon.java
+ * Date: Spring 2022
+ * Auth: Cameron S. Williamson
+ * Desc: A resident MyPL process that runs scripts sent to it over a
+ *       UNIX-domain socket (by MyPLClient), so repeated runs of short
+ *       scripts skip JVM startup, reuse warmed up (JIT compiled) VM
+ *       code, and reuse already compiled programs. Each connection
+ *       runs one script on its own thread. The scripts can't take
+ *       checkpoints, which would write files as the daemon.
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+public class MyPLDaemon implements AutoCloseable {
+
+  // the maximum number of compiled programs kept in memory
+  private static final int MAX_PROGRAMS = 256;
+
+  // the socket the daemon listens on
+  private Path socket;
+
+  // the listening channel
+  private ServerSocketChannel server;
+
+  // runs each connection on its own thread
+  private ExecutorService executor = Executors.newCachedThreadPool();
+
+  // compiled programs by compile cache key (a hash of the source)
+  private Map<String, VMProgram> programs = new ConcurrentHashMap<>();
+
+  // the on-disk cache of compiled programs (also used for keys)
+  private CompileCache cache;
+
+  /**
+   * Create a daemon listening on the given socket path (replacing a
+   * stale socket file left by an earlier daemon).
+   *
+   * @param socket the socket path
+   * @param cache the on-disk cache of compiled programs
+   */
+  public MyPLDaemon(Path socket, CompileCache cache) throws IOException {
+    this.socket = socket;
+    this.cache = cache;
+    Files.deleteIfExists(socket);
+    server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+    server.bind(UnixDomainSocketAddress.of(socket));
+  }
+
+  /**
+   * Accept and run scripts until the daemon is closed.
+   */
+  public void serve() throws IOException {
+    try {
+      while (true) {
+        SocketChannel channel = server.accept();
+        executor.execute(() -> handle(channel));
+      }
+    } catch (ClosedChannelException e) {
+      // closed by close()
+    }
+  }
+
+  /**
+   * Stop accepting connections and remove the socket file.
+   */
+  @Override
+  public void close() throws IOException {
+    server.close();
+    executor.shutdown();
+    Files.deleteIfExists(socket);
+  }
+
+  //----------------------------------------------------------------------
+  // HELPER FUNCTIONS
+  //----------------------------------------------------------------------
+
+  // run the script requested on the given connection
+  private void handle(SocketChannel channel) {
+    try (channel) {
+      InputStream in = MyPLClient.input(channel);
+      DataOutputStream response = new DataOutputStream(
+          new BufferedOutputStream(MyPLClient.output(channel)));
+      PrintStream out = new PrintStream(new FrameOutputStream(response, MyPLClient.OUT));
+      PrintStream err = new PrintStream(new FrameOutputStream(response, MyPLClient.ERR));
+      int status = 0;
+      String path = readLine(in);
+      try {
+        VMProgram program = compile(path);
+        VM vm = new VM(program, in, out);
+        vm.setCheckpointsEnabled(false);
+        vm.run();
+      } catch (MyPLException e) {
+        err.println(e.getMessage());
+        status = 1;
+      } catch (IOException e) {
+        // (the VM's streams don't throw, so this is from reading the
+        // script)
+        err.println("ERROR: Unable to open file '" + path + "'");
+        status = 1;
+      } catch (RuntimeException e) {
+        // e.g., reading past the end of the input, which must not
+        // take the daemon down
+        err.println("ERROR: " + e);
+        status = 1;
+      }
+      out.flush();
+      synchronized (response) {
+        response.writeByte(MyPLClient.EXIT);
+        response.writeInt(status);
+        response.flush();
+      }
+    } catch (IOException e) {
+      // the client went away
+    }
+  }
+
+  // returns the compiled program for the given script, compiling it
+  // only if neither the daemon nor the compile cache has it yet
+  private VMProgram compile(String path) throws IOException, MyPLException {
+    byte[] source = Files.readAllBytes(Paths.get(path));
+    String key = cache.key(source);
+    VMProgram program = programs.get(key);
+    if (program == null) {
+      program = cache.get(source);
+      if (program == null) {
+        program = MyPL.compile(new ByteArrayInputStream(source));
+        cache.put(source, program);
+      }
+      if (programs.size() >= MAX_PROGRAMS)
+        programs.clear();
+      programs.put(key, program);
+    }
+    return program;
+  }
+
+  // read the (UTF-8) request line, without reading past it
+  private static String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    int b = in.read();
+    while (b != -1 && b != '\n') {
+      line.write(b);
+      b = in.read();
+    }
+    return line.toString(StandardCharsets.UTF_8);
+  }
+
+  // sends everything written to it as OUT or ERR frames
+  private static class FrameOutputStream extends OutputStream {
+    private DataOutputStream response;
+    private byte type;
+
+    FrameOutputStream(DataOutputStream response, byte type) {
+      this.response = response;
+      this.type = type;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int off, int len) throws IOException {
+      if (len == 0)
+        return;
+      synchronized (response) {
+        response.writeByte(type);
+        response.writeInt(len);
+        response.write(bytes, off, len);
+        response.flush();
+      }
+    }
+  }
+}
@@ -0,0 +1,353 @@
+/*
+ * File: NilAnalyzer.java
+ * Date: Spring 2022
+ * Auth: Cameron S. Williamson
+ * Desc: A flow-sensitive analysis of which values in a function can
+ *       never be nil. The analysis follows the function's statements
+ *       tracking the set of local variables known to hold a (non-nil)
+ *       value, and records for each operand of a binary operator or
+ *       negation whether it is proven non-nil. The code generator uses
+ *       the results to emit operators without runtime nil checks.
+ *
+ *       Literals, new objects, operator results, and most built-in
+ *       results are never nil. Parameters, fields, and the results of
+ *       user-defined functions may be. A condition of the form
+ *       'x != nil' (or 'x == nil') makes x non-nil in the branch where
+ *       it holds (or fails).
+ */
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+public class NilAnalyzer implements Visitor {
+
+  // the variables known to be non-nil at the current point (null if
+  // the current point can't be reached, e.g., after a return)
+  private Set<String> nonNil = new HashSet<>();
+
+  // true if the last visited expression (or term) is never nil
+  private boolean currNonNil = false;
+
+  // the operands found to be non-nil (for loops, an operand must be
+  // non-nil on every pass over the loop body)
+  private Map<ASTNode, Boolean> operands = new IdentityHashMap<>();
+
+  // the variables declared in each enclosing block
+  private Deque<Set<String>> blocks = new ArrayDeque<>();
+
+  // the variables known to be non-nil at the start of each pass over
+  // each loop
+  private Map<Stmt, Set<String>> loopStates = new IdentityHashMap<>();
+
+  /**
+   * Returns true if the given operand (an expression or expression
+   * term of a visited function) is never nil when evaluated.
+   *
+   * @param node the operand
+   */
+  public boolean isNonNil(ASTNode node) {
+    return operands.getOrDefault(node, false);
+  }
+
+  /**
+   * Returns the variables known to be non-nil at the start of every
+   * pass over the given loop (a while or for statement of a visited
+   * function), or null if the loop can't be reached.
+   *
+   * @param loop the loop
+   */
+  public Set<String> nonNilInLoop(Stmt loop) {
+    return loopStates.get(loop);
+  }
+
+  //----------------------------------------------------------------------
+  // HELPER FUNCTIONS
+  //----------------------------------------------------------------------
+
+  // analyze the statements of a block, starting from the current state
+  private void visitBlock(List<Stmt> stmts) throws MyPLException {
+    blocks.push(new HashSet<>());
+    for (Stmt stmt : stmts)
+      stmt.accept(this);
+    // a variable declared in the block may shadow one of the same name
+    // declared outside of it, so nothing more is known about the name
+    Set<String> declared = blocks.pop();
+    if (nonNil != null)
+      nonNil.removeAll(declared);
+  }
+
+  // the variables non-nil in both states (where null is unreachable)
+  private static Set<String> meet(Set<String> s1, Set<String> s2) {
+    if (s1 == null)
+      return s2 == null ? null : new HashSet<>(s2);
+    Set<String> result = new HashSet<>(s1);
+    if (s2 != null)
+      result.retainAll(s2);
+    return result;
+  }
+
+  // a copy of the given state
+  private static Set<String> copy(Set<String> s) {
+    return s == null ? null : new HashSet<>(s);
+  }
+
+  // record whether the given operand is non-nil (in the current state)
+  private void operand(ASTNode node, boolean isNonNil) {
+    if (nonNil != null)
+      operands.merge(node, isNonNil, Boolean::logicalAnd);
+  }
+
+  // set the current state to the one where the condition has the given
+  // value
+  private void assume(Expr cond, boolean value) {
+    String varName = comparedToNil(cond, value ? TokenType.NOT_EQUAL : TokenType.EQUAL);
+    if (varName != null && nonNil != null)
+      nonNil.add(varName);
+  }
+
+  // the variable x of a condition 'x op nil' or 'nil op x' (or null)
+  private static String comparedToNil(Expr cond, TokenType op) {
+    if (cond.logicallyNegated || cond.op == null || cond.op.type() != op)
+      return null;
+    Expr rest = cond.rest;
+    if (rest.op != null || rest.logicallyNegated)
+      return null;
+    String lhs = variable(cond.first);
+    String rhs = variable(rest.first);
+    if (lhs != null && isNil(rest.first))
+      return lhs;
+    if (rhs != null && isNil(cond.first))
+      return rhs;
+    return null;
+  }
+
+  // the variable the term consists of (or null)
+  private static String variable(ExprTerm term) {
+    if (!(term instanceof SimpleTerm))
+      return null;
+    RValue rvalue = ((SimpleTerm) term).rvalue;
+    if (!(rvalue instanceof IDRValue) || ((IDRValue) rvalue).path.size() != 1)
+      return null;
+    return ((IDRValue) rvalue).path.get(0).lexeme();
+  }
+
+  // true if the term is the nil literal
+  private static boolean isNil(ExprTerm term) {
+    if (!(term instanceof SimpleTerm))
+      return false;
+    RValue rvalue = ((SimpleTerm) term).rvalue;
+    return rvalue instanceof SimpleRValue &&
+      ((SimpleRValue) rvalue).value.type() == TokenType.NIL;
+  }
+
+  //----------------------------------------------------------------------
+  // VISITOR FUNCTIONS
+  //----------------------------------------------------------------------
+
+  public void visit(Program node) throws MyPLException {
+    for (FunDecl fdecl : node.fdecls)
+      fdecl.accept(this);
+  }
+
+  public void visit(TypeDecl node) throws MyPLException {
+    // Intentionally left blank -- only functions are analyzed
+  }
+
+  public void visit(FunDecl node) throws MyPLException {
+    // the parameters may be nil
+    nonNil = new HashSet<>();
+    visitBlock(node.stmts);
+  }
+
+  public void visit(VarDeclStmt node) throws MyPLException {
+    node.expr.accept(this);
+    String varName = node.varName.lexeme();
+    if (!blocks.isEmpty())
+      blocks.peek().add(varName);
+    if (nonNil == null)
+      return;
+    if (currNonNil)
+      nonNil.add(varName);
+    else
+      nonNil.remove(varName);
+  }
+
+  public void visit(AssignStmt node) throws MyPLException {
+    node.expr.accept(this);
+    // assigning a field doesn't change the variable
+    if (node.lvalue.size() != 1 || nonNil == null)
+      return;
+    String varName = node.lvalue.get(0).lexeme();
+    if (currNonNil)
+      nonNil.add(varName);
+    else
+      nonNil.remove(varName);
+  }
+
+  public void visit(CondStmt node) throws MyPLException {
+    // the state after the statement is the meet of the states after
+    // each branch (including the one where no condition holds)
+    Set<String> exit = null;
+    List<BasicIf> parts = new ArrayList<>();
+    parts.add(node.ifPart);
+    parts.addAll(node.elifs);
+    for (BasicIf part : parts) {
+      part.cond.accept(this);
+      Set<String> otherwise = copy(nonNil);
+      assume(part.cond, true);
+      visitBlock(part.stmts);
+      exit = meet(exit, nonNil);
+      nonNil = otherwise;
+      assume(part.cond, false);
+    }
+    if (node.elseStmts != null)
+      visitBlock(node.elseStmts);
+    nonNil = meet(exit, nonNil);
+  }
+
+  public void visit(WhileStmt node) throws MyPLException {
+    // rerun the loop until the state at its start stops changing
+    // (each time, it can only get smaller)
+    Set<String> start = copy(nonNil);
+    while (true) {
+      nonNil = copy(start);
+      node.cond.accept(this);
+      assume(node.cond, true);
+      visitBlock(node.stmts);
+      Set<String> next = meet(start, nonNil);
+      if (next == null || next.equals(start))
+        break;
+      start = next;
+    }
+    loopStates.put(node, copy(start));
+    // the loop ends when its condition is false
+    nonNil = start;
+    assume(node.cond, false);
+  }
+
+  public void visit(ForStmt node) throws MyPLException {
+    // a parfor's bounds are checked by the VM, and its body works on a
+    // copy of the function's variables (so after a parfor they are as
+    // they were before it)
+    String varName = node.varName.lexeme();
+    node.start.accept(this);
+    boolean startNonNil = currNonNil || node.parallel;
+    if (node.parallel)
+      node.end.accept(this);
+    Set<String> before = copy(nonNil);
+    // the loop variable is scoped to the loop
+    blocks.push(new HashSet<>());
+    blocks.peek().add(varName);
+    if (nonNil != null && startNonNil)
+      nonNil.add(varName);
+    else if (nonNil != null)
+      nonNil.remove(varName);
+    // as for while loops, but the loop variable is non-nil after each
+    // increment. The loop itself (its comparison and increment) is
+    // recorded as non-nil if the variable and end value always are.
+    Set<String> start = copy(nonNil);
+    while (true) {
+      nonNil = copy(start);
+      boolean endNonNil = true;
+      if (!node.parallel) {
+        node.end.accept(this);
+        endNonNil = currNonNil;
+      }
+      operand(node, endNonNil && nonNil != null && nonNil.contains(varName));
+      // the body only runs if the comparison succeeded
+      if (nonNil != null)
+        nonNil.add(varName);
+      visitBlock(node.stmts);
+      if (nonNil != null) {
+        operand(node, nonNil.contains(varName));
+        nonNil.add(varName);
+      }
+      Set<String> next = meet(start, nonNil);
+      if (next == null || next.equals(start))
+        break;
+      start = next;
+    }
+    loopStates.put(node, copy(start));
+    blocks.pop();
+    nonNil = node.parallel ? before : start;
+    if (nonNil != null)
+      nonNil.remove(varName);
+  }
+
+  public void visit(ReturnStmt node) throws MyPLException {
+    if (node.expr != null)
+      node.expr.accept(this);
+    nonNil = null;
+  }
+
+  public void visit(DeleteStmt node) throws MyPLException {
+    // the variable still holds the (deleted) object's id
+  }
+
+  public void visit(CallExpr node) throws MyPLException {
+    for (Expr arg : node.args)
+      arg.accept(this);
+    // the built-in functions (except join) never return nil, while
+    // other functions can
+    String funName = node.funName.lexeme();
+    currNonNil = StaticChecker.getBuiltinFunctions().contains(funName) &&
+      !funName.equals("join");
+  }
+
+  public void visit(SimpleRValue node) throws MyPLException {
+    currNonNil = node.value.type() != TokenType.NIL;
+  }
+
+  public void visit(NewRValue node) throws MyPLException {
+    currNonNil = true;
+  }
+
+  public void visit(IDRValue node) throws MyPLException {
+    // fields may be nil
+    currNonNil = node.path.size() == 1 && nonNil != null &&
+      nonNil.contains(node.path.get(0).lexeme());
+  }
+
+  public void visit(NegatedRValue node) throws MyPLException {
+    node.expr.accept(this);
+    operand(node.expr, currNonNil);
+    currNonNil = true;
+  }
+
+  public void visit(Expr node) throws MyPLException {
+    node.first.accept(this);
+    if (node.op != null && (node.op.type() == TokenType.AND || node.op.type() == TokenType.OR)) {
+      // and/or short circuit, so the right operand is only evaluated
+      // when the left one is true (for and) or false (for or), and the
+      // result is false, true, or the right operand
+      Set<String> before = copy(nonNil);
+      if (node.first instanceof ComplexTerm)
+        assume(((ComplexTerm) node.first).expr, node.op.type() == TokenType.AND);
+      node.rest.accept(this);
+      nonNil = before;
+    } else if (node.op != null) {
+      operand(node.first, currNonNil);
+      node.rest.accept(this);
+      operand(node.rest, currNonNil);
+      // operators never produce nil
+      currNonNil = true;
+    }
+    if (node.logicallyNegated)
+      currNonNil = true;
+  }
+
+  public void visit(SimpleTerm node) throws MyPLException {
+    node.rvalue.accept(this);
+  }
+
+  public void visit(ComplexTerm node) throws MyPLException {
+    node.expr.accept(this);
+  }
+}
@@ -13,6 +13,7 @@ public enum OpCode {
   POP,          // pop value off of stack
   LOAD,         // push value at memory address onto stack
   STORE,        // pop x off stack, store x at memory address
+  STOREK,       // store x (the top of the stack) at memory address, keeping x
 
   // ops
   ADD,          // pop x and y off stack, push (y + x) onto stack
@@ -31,19 +32,89 @@ public enum OpCode {
   CMPNE,        // pop x and y off stack, push (y != x)
   NEG,          // pop x, push (-x)
 
+  // typed ops (emitted when the static checker knows the operand
+  // types, so the VM doesn't check them at runtime)
+  IADD,         // pop ints x and y, push (y + x)
+  DADD,         // pop doubles x and y, push (y + x)
+  SCONCAT,      // pop strings x and y, push (y + x)
+  ISUB,         // pop ints x and y, push (y - x)
+  DSUB,         // pop doubles x and y, push (y - x)
+  IMUL,         // pop ints x and y, push (y * x)
+  DMUL,         // pop doubles x and y, push (y * x)
+  IDIV,         // pop ints x and y, push (y / x)
+  DDIV,         // pop doubles x and y, push (y / x)
+  INEG,         // pop int x, push (-x)
+  DNEG,         // pop double x, push (-x)
+  ICMPLT,       // pop ints x and y, push (y < x)
+  ICMPLE,       // pop ints x and y, push (y <= x)
+  ICMPGT,       // pop ints x and y, push (y > x)
+  ICMPGE,       // pop ints x and y, push (y >= x)
+  ICMPEQ,       // pop ints (or nil) x and y, push (y == x)
+  ICMPNE,       // pop ints (or nil) x and y, push (y != x)
+  DCMPLT,       // pop doubles x and y, push (y < x)
+  DCMPLE,       // pop doubles x and y, push (y <= x)
+  DCMPGT,       // pop doubles x and y, push (y > x)
+  DCMPGE,       // pop doubles x and y, push (y >= x)
+  DCMPEQ,       // pop doubles (or nil) x and y, push (y == x)
+  DCMPNE,       // pop doubles (or nil) x and y, push (y != x)
+  SCMPLT,       // pop strings x and y, push (y < x)
+  SCMPLE,       // pop strings x and y, push (y <= x)
+  SCMPGT,       // pop strings x and y, push (y > x)
+  SCMPGE,       // pop strings x and y, push (y >= x)
+  SCMPEQ,       // pop strings (or nil) x and y, push (y == x)
+  SCMPNE,       // pop strings (or nil) x and y, push (y != x)
+
+  // unchecked typed ops (the same as the typed ops, but emitted for
+  // operands proven to never be nil, so nil isn't checked for)
+  IADDU,        // IADD without nil checks
+  DADDU,        // DADD without nil checks
+  SCONCATU,     // SCONCAT without nil checks
+  ISUBU,        // ISUB without nil checks
+  DSUBU,        // DSUB without nil checks
+  IMULU,        // IMUL without nil checks
+  DMULU,        // DMUL without nil checks
+  IDIVU,        // IDIV without nil checks
+  DDIVU,        // DDIV without nil checks
+  INEGU,        // INEG without nil checks
+  DNEGU,        // DNEG without nil checks
+  ICMPLTU,      // ICMPLT without nil checks
+  ICMPLEU,      // ICMPLE without nil checks
+  ICMPGTU,      // ICMPGT without nil checks
+  ICMPGEU,      // ICMPGE without nil checks
+  ICMPEQU,      // ICMPEQ without nil checks
+  ICMPNEU,      // ICMPNE without nil checks
+  DCMPLTU,      // DCMPLT without nil checks
+  DCMPLEU,      // DCMPLE without nil checks
+  DCMPGTU,      // DCMPGT without nil checks
+  DCMPGEU,      // DCMPGE without nil checks
+  DCMPEQU,      // DCMPEQ without nil checks
+  DCMPNEU,      // DCMPNE without nil checks
+  SCMPLTU,      // SCMPLT without nil checks
+  SCMPLEU,      // SCMPLE without nil checks
+  SCMPGTU,      // SCMPGT without nil checks
+  SCMPGEU,      // SCMPGE without nil checks
+  SCMPEQU,      // SCMPEQ without nil checks
+  SCMPNEU,      // SCMPNE without nil checks
+
   // jump
   JMP,          // jump to given instruction
   JMPF,         // pop x off stack, if x is false jump to instruction
+  JMPFK,        // if x is false jump to instruction (keeping x), else pop x
+  JMPTK,        // if x is true jump to instruction (keeping x), else pop x
 
   // functions
-  CALL,         // calls the function f
+  CALL,         // calls f, the top argCount values become f's first locals
   VRET,         // pop x, exit from function passing back x
+  SPAWN,        // run function f as a new task, push the task handle
+  JOIN,         // pop task x, wait for x, push x's return value
+  PARFOR,       // pop x and y, run body f for y..x in parallel
 
   // built-ins
   WRITE,        // pop x, write to stdout
   READ,         // read stdin, push on stack
   LEN,          // pop (string) x, push x.length()
   GETCHR,       // pop (string) x, pop y, push x.substring(y, y+1)
+  GETCHRU,      // GETCHR for an index y known to be in bounds
   TOINT,        // pop x, push x as an integer
   TODBL,        // pop x, push x as a double
   TOSTR,        // pop x, push x.toString()
@@ -60,8 +131,11 @@ public enum OpCode {
   NOP,           // has no effect (for jumping over code segments)
 
   // Timing
-  TIMESTART, // start timer
-  TIMEEND,   // end timer, push time in seconds
-  TIMEDELTA, // push delta between timers in seconds
+  TIMESTART,    // pop (string) x, start a new timer named x
+  TIMEEND,      // pop (string) x, stop the latest timer named x
+  TIMEDELTA,    // pop (string) x, push elapsed secs of last stopped x
+
+  // Checkpoints
+  CHECKPOINT,   // pop (string) x, write the VM's state to file x
   ;
 }
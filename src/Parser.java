@@ -192,6 +192,8 @@ public class Parser {
       whileStmt();
     else if (match(TokenType.FOR))
       forStmt();
+    else if (match(TokenType.PARFOR))
+      parforStmt();
     else if (match(TokenType.RETURN))
       retStmt();
     else if (match(TokenType.DELETE))
@@ -285,6 +287,19 @@ public class Parser {
     eat(TokenType.RBRACE, "expecting '}'");
   }
 
+  private void parforStmt() throws MyPLException {
+    // <parfor_stmt> ::= PARFOR ID FROM <expr> UPTO <expr> LBRACE <stmts> RBRACE
+    eat(TokenType.PARFOR, "expecting 'parfor'");
+    eat(TokenType.ID, "expecting identifier");
+    eat(TokenType.FROM, "expecting 'from'");
+    expr();
+    eat(TokenType.UPTO, "expecting 'upto'");
+    expr();
+    eat(TokenType.LBRACE, "expecting '{'");
+    stmts();
+    eat(TokenType.RBRACE, "expecting '}'");
+  }
+
   private void callExpr() throws MyPLException {
     // <call_expr> ::= ID LPAREN <args> RPAREN 
     // eat(TokenType.ID, "expecting identifier");
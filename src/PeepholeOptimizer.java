@@ -0,0 +1,169 @@
+/*
+ * File: PeepholeOptimizer.java
+ * Date: Spring 2022
+ * Auth: Cameron S. Williamson
+ * Desc: Cleans up the code the code generator emits for a function by
+ *       rewriting short instruction sequences into shorter ones:
+ *
+ *         unreachable instrs      (removed)
+ *         NOP                     (removed)
+ *         JMP to the next instr   (removed)
+ *         PUSH/LOAD/DUP; POP      (removed)
+ *         STORE x; LOAD x         STOREK x
+ *         PUSH true; JMPF L       (removed)
+ *         PUSH false; JMPF L      JMP L
+ *
+ *       and by pointing jumps to a JMP at the JMP's target. Sequences
+ *       are only rewritten when no jump lands inside of them, and jump
+ *       targets are renumbered after instructions are removed.
+ */
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+
+public class PeepholeOptimizer {
+
+  /**
+   * Optimize the instructions of the given (generated) frame.
+   *
+   * @param frame the frame to optimize
+   */
+  public static void optimize(VMFrame frame) {
+    List<VMInstr> instructions = frame.instructions;
+    boolean changed = true;
+    while (changed) {
+      changed = threadJumps(instructions);
+      boolean[] targets = targets(instructions);
+      boolean[] removed = unreachable(instructions);
+      for (int i = 0; i < instructions.size(); ++i) {
+        if (removed[i])
+          continue;
+        VMInstr instr = instructions.get(i);
+        OpCode opcode = instr.opcode();
+        // the next instruction, if it can only be reached from this one
+        VMInstr next = null;
+        if (i + 1 < instructions.size() && !targets[i + 1])
+          next = instructions.get(i + 1);
+        if (opcode == OpCode.NOP)
+          removed[i] = true;
+        else if (opcode == OpCode.JMP && instr.operand().equals(i + 1))
+          removed[i] = true;
+        else if (next == null)
+          continue;
+        else if (next.opcode() == OpCode.POP && (opcode == OpCode.PUSH ||
+                 opcode == OpCode.LOAD || opcode == OpCode.DUP)) {
+          removed[i] = removed[i + 1] = true;
+          ++i;
+        } else if (opcode == OpCode.STORE && next.opcode() == OpCode.LOAD &&
+                   instr.operand().equals(next.operand())) {
+          instructions.set(i, VMInstr.STOREK((Integer) instr.operand()));
+          removed[i + 1] = true;
+          ++i;
+        } else if (opcode == OpCode.PUSH && next.opcode() == OpCode.JMPF &&
+                   instr.operand() instanceof Boolean) {
+          if ((Boolean) instr.operand())
+            removed[i] = true;
+          else
+            instructions.set(i, VMInstr.JMP((Integer) next.operand()));
+          removed[i + 1] = true;
+          ++i;
+        }
+      }
+      changed |= compact(instructions, removed);
+    }
+  }
+
+  //----------------------------------------------------------------------
+  // HELPER FUNCTIONS
+  //----------------------------------------------------------------------
+
+  // true if the instruction's operand is an instruction index
+  private static boolean isJump(VMInstr instr) {
+    OpCode opcode = instr.opcode();
+    return opcode == OpCode.JMP || opcode == OpCode.JMPF ||
+      opcode == OpCode.JMPFK || opcode == OpCode.JMPTK;
+  }
+
+  // which instructions are jump targets (including the end of the
+  // instructions)
+  private static boolean[] targets(List<VMInstr> instructions) {
+    boolean[] targets = new boolean[instructions.size() + 1];
+    for (VMInstr instr : instructions)
+      if (isJump(instr))
+        targets[(Integer) instr.operand()] = true;
+    return targets;
+  }
+
+  // which instructions can't be reached from the first one
+  private static boolean[] unreachable(List<VMInstr> instructions) {
+    boolean[] unreachable = new boolean[instructions.size()];
+    Arrays.fill(unreachable, true);
+    Deque<Integer> worklist = new ArrayDeque<>();
+    worklist.push(0);
+    while (!worklist.isEmpty()) {
+      int pc = worklist.pop();
+      if (pc >= instructions.size() || !unreachable[pc])
+        continue;
+      unreachable[pc] = false;
+      VMInstr instr = instructions.get(pc);
+      OpCode opcode = instr.opcode();
+      if (opcode != OpCode.JMP && opcode != OpCode.VRET)
+        worklist.push(pc + 1);
+      if (isJump(instr))
+        worklist.push((Integer) instr.operand());
+    }
+    return unreachable;
+  }
+
+  // point jumps to a JMP at the JMP's target, returns true if any jump
+  // changed
+  private static boolean threadJumps(List<VMInstr> instructions) {
+    boolean changed = false;
+    for (VMInstr instr : instructions) {
+      if (!isJump(instr))
+        continue;
+      int target = (Integer) instr.operand();
+      // (the hop limit stops at a cycle of JMPs)
+      for (int hops = 0; hops < instructions.size(); ++hops) {
+        if (target == instructions.size())
+          break;
+        VMInstr targetInstr = instructions.get(target);
+        if (targetInstr.opcode() != OpCode.JMP || targetInstr == instr)
+          break;
+        target = (Integer) targetInstr.operand();
+      }
+      if (target != (Integer) instr.operand()) {
+        instr.updateOperand(target);
+        changed = true;
+      }
+    }
+    return changed;
+  }
+
+  // drop the removed instructions, pointing jumps to a removed
+  // instruction to the next remaining one, returns true if any
+  // instruction was removed
+  private static boolean compact(List<VMInstr> instructions, boolean[] removed) {
+    // the new index of each instruction (and of the end)
+    int[] newIndex = new int[instructions.size() + 1];
+    List<VMInstr> remaining = new ArrayList<>();
+    for (int i = 0; i < instructions.size(); ++i) {
+      newIndex[i] = remaining.size();
+      if (!removed[i])
+        remaining.add(instructions.get(i));
+    }
+    newIndex[instructions.size()] = remaining.size();
+    if (remaining.size() == instructions.size())
+      return false;
+    for (VMInstr instr : remaining)
+      if (isJump(instr))
+        instr.updateOperand(newIndex[(Integer) instr.operand()]);
+    instructions.clear();
+    instructions.addAll(remaining);
+    return true;
+  }
+}
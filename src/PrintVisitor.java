@@ -188,7 +188,7 @@ public class PrintVisitor implements Visitor {
   // for i from 1 upto n {
   // }
   public void visit(ForStmt node) throws MyPLException {
-    out.print("for " + node.varName.lexeme() + " from ");
+    out.print((node.parallel ? "parfor " : "for ") + node.varName.lexeme() + " from ");
     visit(node.start);
     if (node.upto) {
       out.print(" upto ");
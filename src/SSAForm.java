@@ -0,0 +1,267 @@
+/*
+ * File: SSAForm.java
+ * Date: Spring 2022
+ * Auth: Cameron S. Williamson
+ * Desc: The static single assignment (SSA) form of a frame's
+ *       control-flow graph, where each value (a version of a local
+ *       slot, or an operand pushed on the stack) is defined by exactly
+ *       one instruction. Version n of slot k is named xk.n (version 0
+ *       is the slot's value when the frame starts) and the stack
+ *       operands are named t0, t1, and so on.
+ *
+ *       A phi is placed at the start of a block where different
+ *       versions of a (live) slot, or different stack operands, meet.
+ *       LOAD, DUP, and SWAP define no values of their own: they only
+ *       move existing values around on the stack.
+ *
+ *       The SSA form describes the graph's instructions without
+ *       changing them, so a pass can use it to decide what to change
+ *       and then lower the graph as usual.
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+public class SSAForm {
+
+  // the graph the SSA form is for
+  private ControlFlowGraph graph;
+
+  // the SSA instructions of each block (phis first), by block number
+  private List<List<SSAInstr>> code = new ArrayList<>();
+
+  // the instruction defining each value (null for the initial versions
+  // of the slots)
+  private Map<String, SSAInstr> definitions = new HashMap<>();
+
+  // the next version of each slot, and the next stack operand number
+  private Map<Integer, Integer> versions = new HashMap<>();
+  private int temps = 0;
+
+  // the stack at the end of each block when falling through, and when
+  // jumping, by block number
+  private List<List<String>> fallStacks = new ArrayList<>();
+  private List<List<String>> jumpStacks = new ArrayList<>();
+
+  private SSAForm(ControlFlowGraph graph) {
+    this.graph = graph;
+  }
+
+  /**
+   * Build the SSA form of the given graph.
+   *
+   * @param program the program the graph's frame belongs to
+   * @param graph the graph
+   * @throws MyPLException if the frame's code is invalid
+   */
+  public static SSAForm build(VMProgram program, ControlFlowGraph graph)
+    throws MyPLException
+  {
+    SSAForm ssa = new SSAForm(graph);
+    List<BasicBlock> blocks = graph.blocks();
+    for (int i = 0; i < blocks.size(); ++i) {
+      ssa.code.add(new ArrayList<>());
+      ssa.fallStacks.add(null);
+      ssa.jumpStacks.add(null);
+    }
+    ssa.placePhis();
+    // (the dominator tree, to rename the values along)
+    List<List<BasicBlock>> children = new ArrayList<>();
+    for (int i = 0; i < blocks.size(); ++i)
+      children.add(new ArrayList<>());
+    for (BasicBlock block : graph.reversePostorder())
+      if (block.dominator != null)
+        children.get(block.dominator.id()).add(block);
+    ssa.rename(program, blocks.get(0), new HashMap<>(), children);
+    return ssa;
+  }
+
+  /**
+   * Returns the graph the SSA form is for.
+   */
+  public ControlFlowGraph graph() {
+    return graph;
+  }
+
+  /**
+   * Returns the SSA instructions of the given block (phis first).
+   */
+  public List<SSAInstr> code(BasicBlock block) {
+    return code.get(block.id());
+  }
+
+  /**
+   * Returns the instruction that defines the given value (null for
+   * the values the frame starts with).
+   */
+  public SSAInstr definition(String value) {
+    return definitions.get(value);
+  }
+
+  public String toString() {
+    String s = "";
+    for (BasicBlock block : graph.blocks()) {
+      s += "  " + block + ":";
+      if (!block.predecessors.isEmpty())
+        s += "  // preds " + block.predecessors;
+      s += "\n";
+      for (SSAInstr instr : code(block))
+        s += "    " + instr + "\n";
+      if (block.fallthrough != null)
+        s += "    -> " + block.fallthrough + "\n";
+    }
+    return s;
+  }
+
+  //----------------------------------------------------------------------
+  // HELPER FUNCTIONS
+  //----------------------------------------------------------------------
+
+  // place a phi for each stack operand at each block with more than
+  // one predecessor, and a phi for each slot at the blocks in the
+  // iterated dominance frontier of the slot's stores (if the slot is
+  // live there)
+  private void placePhis() {
+    List<BasicBlock> blocks = graph.blocks();
+    List<Set<BasicBlock>> frontiers = graph.dominanceFrontiers();
+    Map<Integer, List<BasicBlock>> stores = new HashMap<>();
+    for (BasicBlock block : blocks) {
+      if (block.predecessors.size() > 1)
+        for (int i = 0; i < block.entryDepth; ++i)
+          code(block).add(new SSAInstr(block, null));
+      for (VMInstr instr : block.instructions)
+        if (instr.opcode() == OpCode.STORE || instr.opcode() == OpCode.STOREK)
+          stores.computeIfAbsent((Integer) instr.operand(), k -> new ArrayList<>()).add(block);
+    }
+    for (int slot : stores.keySet()) {
+      List<BasicBlock> worklist = new ArrayList<>(stores.get(slot));
+      boolean[] placed = new boolean[blocks.size()];
+      while (!worklist.isEmpty()) {
+        BasicBlock block = worklist.remove(worklist.size() - 1);
+        for (BasicBlock frontier : frontiers.get(block.id())) {
+          if (placed[frontier.id()] || !frontier.liveIn.contains(slot))
+            continue;
+          placed[frontier.id()] = true;
+          SSAInstr phi = new SSAInstr(frontier, null);
+          phi.slot = slot;
+          code(frontier).add(phi);
+          worklist.add(frontier);
+        }
+      }
+    }
+  }
+
+  // name the values defined in the block and the blocks it dominates,
+  // given the current version of each slot
+  private void rename(VMProgram program, BasicBlock block, Map<Integer, String> current,
+                      List<List<BasicBlock>> children)
+    throws MyPLException
+  {
+    current = new HashMap<>(current);
+    List<String> stack = new ArrayList<>();
+    List<SSAInstr> instrs = code(block);
+    if (block.predecessors.size() == 1) {
+      // (the one predecessor dominates the block, so is already done)
+      BasicBlock pred = block.predecessors.get(0);
+      stack.addAll(exitStack(pred, block));
+    } else if (block.predecessors.isEmpty()) {
+      for (int i = 0; i < block.entryDepth; ++i)
+        stack.add(define(null));
+    }
+    for (SSAInstr phi : instrs) {
+      if (phi.slot == -1) {
+        phi.def = define(phi);
+        stack.add(phi.def);
+      } else {
+        phi.def = version(phi.slot, phi);
+        current.put(phi.slot, phi.def);
+      }
+    }
+    for (VMInstr instr : block.instructions) {
+      SSAInstr ssaInstr = new SSAInstr(block, instr);
+      instrs.add(ssaInstr);
+      OpCode opcode = instr.opcode();
+      if (opcode == OpCode.LOAD) {
+        String value = current.getOrDefault((Integer) instr.operand(),
+                                            initial((Integer) instr.operand()));
+        ssaInstr.uses.add(value);
+        stack.add(value);
+      } else if (opcode == OpCode.STORE || opcode == OpCode.STOREK) {
+        String value = stack.get(stack.size() - 1);
+        if (opcode == OpCode.STORE)
+          stack.remove(stack.size() - 1);
+        ssaInstr.uses.add(value);
+        ssaInstr.def = version((Integer) instr.operand(), ssaInstr);
+        current.put((Integer) instr.operand(), ssaInstr.def);
+      } else if (opcode == OpCode.DUP) {
+        stack.add(stack.get(stack.size() - 1));
+      } else if (opcode == OpCode.SWAP) {
+        stack.add(stack.remove(stack.size() - 2));
+      } else {
+        int pops = VMVerifier.pops(program, graph.frame(), 0, instr);
+        List<String> popped = stack.subList(stack.size() - pops, stack.size());
+        ssaInstr.uses.addAll(popped);
+        if (VMVerifier.keepsOnJump(opcode))
+          jumpStacks.set(block.id(), new ArrayList<>(stack));
+        popped.clear();
+        if (VMVerifier.pushes(instr) == 1) {
+          ssaInstr.def = define(ssaInstr);
+          stack.add(ssaInstr.def);
+        }
+      }
+    }
+    fallStacks.set(block.id(), stack);
+    if (jumpStacks.get(block.id()) == null)
+      jumpStacks.set(block.id(), stack);
+    // fill in the successors' phis for this block
+    for (BasicBlock succ : block.successors()) {
+      if (succ.predecessors.size() < 2)
+        continue;
+      List<String> exitStack = exitStack(block, succ);
+      int depth = 0;
+      for (SSAInstr phi : code(succ)) {
+        if (!phi.isPhi())
+          break;
+        phi.from.add(block);
+        if (phi.slot == -1)
+          phi.uses.add(exitStack.get(depth++));
+        else
+          phi.uses.add(current.getOrDefault(phi.slot, initial(phi.slot)));
+      }
+    }
+    for (BasicBlock child : children.get(block.id()))
+      rename(program, child, current, children);
+  }
+
+  // the stack at the end of the block when it continues with succ
+  private List<String> exitStack(BasicBlock block, BasicBlock succ) {
+    if (succ == block.target)
+      return jumpStacks.get(block.id());
+    return fallStacks.get(block.id());
+  }
+
+  // the name of the slot's initial value
+  private static String initial(int slot) {
+    return "x" + slot + ".0";
+  }
+
+  // a new version of the slot, defined by the given instruction
+  private String version(int slot, SSAInstr instr) {
+    int version = versions.getOrDefault(slot, 1);
+    versions.put(slot, version + 1);
+    String value = "x" + slot + "." + version;
+    definitions.put(value, instr);
+    return value;
+  }
+
+  // a new stack operand, defined by the given instruction
+  private String define(SSAInstr instr) {
+    String value = "t" + temps++;
+    definitions.put(value, instr);
+    return value;
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * File: SSAInstr.java
+ * Date: Spring 2022
+ * Auth: Cameron S. Williamson
+ * Desc: An instruction of a frame's SSA form (see SSAForm): either one
+ *       of a block's VM instructions, with the values it uses and the
+ *       value (if any) it defines, or a phi that picks its value by the
+ *       predecessor block that was run before the phi's block.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+public class SSAInstr {
+
+  // the block the instruction is in
+  public BasicBlock block;
+
+  // the VM instruction (null for a phi)
+  public VMInstr instr;
+
+  // the value the instruction defines (null if none)
+  public String def;
+
+  // the values the instruction uses, in the order they were pushed
+  public List<String> uses = new ArrayList<>();
+
+  // for a phi, the predecessor block each of its uses comes from
+  public List<BasicBlock> from = new ArrayList<>();
+
+  // for a phi, the local slot it merges (-1 for a stack operand)
+  public int slot = -1;
+
+  public SSAInstr(BasicBlock block, VMInstr instr) {
+    this.block = block;
+    this.instr = instr;
+  }
+
+  // true if the instruction is a phi
+  public boolean isPhi() {
+    return instr == null;
+  }
+
+  public String toString() {
+    String s = def == null ? "" : def + " = ";
+    if (isPhi()) {
+      s += "phi(";
+      for (int i = 0; i < uses.size(); ++i)
+        s += (i > 0 ? ", " : "") + from.get(i) + ": " + uses.get(i);
+      return s + ")";
+    }
+    // (the slots and jump targets are shown as values and blocks)
+    if (block.target != null && instr == ControlFlowGraph.last(block))
+      s += instr.opcode() + " " + block.target;
+    else if (ControlFlowGraph.isLocal(instr))
+      s += instr.opcode();
+    else
+      s += new VMInstr(instr.opcode(), instr.operand());
+    for (int i = 0; i < uses.size(); ++i)
+      s += (i > 0 ? ", " : " ") + uses.get(i);
+    return s;
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * File: SlotAllocator.java
+ * Date: Spring 2022
+ * Auth: Cameron S. Williamson
+ * Desc: Renumbers the local slots of each frame so that locals that
+ *       are never live at the same time share a slot. The code
+ *       generator gives each variable (and each for loop variable)
+ *       its own slot, and the later passes add slots of their own, so
+ *       a function with many blocks ends up with many slots, each of
+ *       which is set to nil on every call.
+ *
+ *       Two slots interfere if one is stored to while the other is
+ *       live (may still be loaded), or if both are live when the frame
+ *       starts (like its arguments). The slots are then colored
+ *       greedily in order, with the arguments keeping their slots.
+ *
+ *       Frames with a parfor, and the parfor bodies, are left as they
+ *       are, since a body uses the slots of its enclosing frame's
+ *       variables.
+ */
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+
+public class SlotAllocator {
+
+  /**
+   * Renumber the local slots of each of the program's (generated)
+   * frames.
+   *
+   * @param program the program to renumber the slots of
+   */
+  public static void allocate(VMProgram program) {
+    Set<String> skipped = new HashSet<>();
+    for (String name : program.functionNames()) {
+      for (VMInstr instr : program.get(name).instructions) {
+        if (instr.opcode() == OpCode.PARFOR) {
+          skipped.add(name);
+          skipped.add((String) instr.operand());
+        }
+      }
+    }
+    for (String name : program.functionNames()) {
+      if (skipped.contains(name))
+        continue;
+      try {
+        allocate(program, program.get(name));
+      } catch (MyPLException e) {
+        // (left for the verifier to report)
+      }
+    }
+  }
+
+  //----------------------------------------------------------------------
+  // HELPER FUNCTIONS
+  //----------------------------------------------------------------------
+
+  // renumber the frame's local slots
+  private static void allocate(VMProgram program, VMFrame frame) throws MyPLException {
+    int slots = frame.argCount();
+    for (VMInstr instr : frame.instructions)
+      if (ControlFlowGraph.isLocal(instr))
+        slots = Math.max(slots, (Integer) instr.operand() + 1);
+    if (slots <= frame.argCount() + 1)
+      return;
+    ControlFlowGraph graph = ControlFlowGraph.build(program, frame);
+    boolean[][] interferes = new boolean[slots][slots];
+    boolean[] used = new boolean[slots];
+    // the slots live when the frame starts hold different values
+    List<Integer> initial = new ArrayList<>(graph.blocks().get(0).liveIn);
+    for (int i = 0; i < frame.argCount(); ++i)
+      if (!initial.contains(i))
+        initial.add(i);
+    for (int a : initial) {
+      used[a] = true;
+      for (int b : initial)
+        interfere(interferes, a, b);
+    }
+    // (each block backwards from the slots live at its end)
+    for (BasicBlock block : graph.blocks()) {
+      Set<Integer> live = new HashSet<>(block.liveOut);
+      for (int pc = block.instructions.size() - 1; pc >= 0; --pc) {
+        VMInstr instr = block.instructions.get(pc);
+        if (!ControlFlowGraph.isLocal(instr))
+          continue;
+        int slot = (Integer) instr.operand();
+        used[slot] = true;
+        if (instr.opcode() == OpCode.LOAD)
+          live.add(slot);
+        else {
+          for (int other : live)
+            interfere(interferes, slot, other);
+          live.remove(slot);
+        }
+      }
+    }
+    int[] colors = new int[slots];
+    boolean changed = false;
+    for (int slot = 0; slot < slots; ++slot) {
+      if (slot < frame.argCount()) {
+        colors[slot] = slot;
+        continue;
+      }
+      if (!used[slot])
+        continue;
+      int color = 0;
+      while (!canColor(interferes, colors, slot, color))
+        ++color;
+      colors[slot] = color;
+      changed = changed || color != slot;
+    }
+    if (!changed)
+      return;
+    // (the slots only used by unreachable code, which the graph leaves
+    // out, are kept)
+    for (VMInstr instr : frame.instructions)
+      if (ControlFlowGraph.isLocal(instr) && used[(Integer) instr.operand()])
+        instr.updateOperand(colors[(Integer) instr.operand()]);
+  }
+
+  // record that the two (different) slots can't share a slot
+  private static void interfere(boolean[][] interferes, int a, int b) {
+    if (a != b) {
+      interferes[a][b] = true;
+      interferes[b][a] = true;
+    }
+  }
+
+  // true if the slot can be given the color, where the slots before it
+  // are already colored
+  private static boolean canColor(boolean[][] interferes, int[] colors, int slot, int color) {
+    for (int other = 0; other < slot; ++other)
+      if (interferes[slot][other] && colors[other] == color)
+        return false;
+    return true;
+  }
+}
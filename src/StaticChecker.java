@@ -23,6 +23,9 @@ public class StaticChecker implements Visitor {
   private String currType = null;
   // the program's user-defined (record) types and function signatures
   private TypeInfo typeInfo = null;
+  // the environment of the innermost parfor loop (-1 if not in one),
+  // variables from enclosing environments are read only in the loop
+  private int parforEnv = -1;
 
   //--------------------------------------------------------------------
   // helper functions:
@@ -49,9 +52,17 @@ public class StaticChecker implements Visitor {
   }
 
   // return the build in function names
-  private List<String> getBuiltinFunctions() {
+  static List<String> getBuiltinFunctions() {
     return Arrays.asList("print", "read", "length", "get", "stoi", "stod",
-      "itos", "itod", "dtos", "dtoi", "timestart", "timeend", "timedelta");
+      "itos", "itod", "dtos", "dtoi", "timestart", "timeend", "timedelta",
+      "spawn", "join", "checkpoint");
+  }
+
+  // return the built in functions that have no side effects and whose
+  // result only depends on their arguments
+  static List<String> getPureBuiltinFunctions() {
+    return Arrays.asList("length", "get", "stoi", "stod", "itos", "itod",
+      "dtos", "dtoi");
   }
 
   // check if given token is a valid function signature return type
@@ -256,6 +267,11 @@ public class StaticChecker implements Visitor {
     complexPaths(node.lvalue);
     String lhsType = currType;
 
+    // parfor iterations run in parallel, so they may not write locals
+    // that are shared across iterations (including the loop variable)
+    if (node.lvalue.size() == 1 && symbolTable.environmentOf(varName) <= parforEnv)
+      error("cannot assign to \"" + varName + "\" in parfor", node.lvalue.get(0));
+
     if (!rhsType.equals("void") && !lhsType.equals(rhsType))
       error("expecting " + lhsType + ", found " + rhsType, node.lvalue.get(0));
 
@@ -320,6 +336,10 @@ public class StaticChecker implements Visitor {
   
 
   public void visit(ForStmt node) throws MyPLException {
+    if (node.parallel) {
+      parallelFor(node);
+      return;
+    }
     symbolTable.pushEnvironment();
     node.start.accept(this);
     if (!currType.equals("int"))
@@ -336,7 +356,32 @@ public class StaticChecker implements Visitor {
   }
   
   
+  private void parallelFor(ForStmt node) throws MyPLException {
+    symbolTable.pushEnvironment();
+    node.start.accept(this);
+    if (!currType.equals("int"))
+      error("start must be integer", node.start.op);
+    node.end.accept(this);
+    if (!currType.equals("int"))
+      error("end must be integer", node.end.op);
+    symbolTable.add(node.varName.lexeme(), "int");
+    // the body gets its own environment so that everything up to and
+    // including the loop variable's environment is shared
+    int enclosingParforEnv = parforEnv;
+    parforEnv = symbolTable.size() - 1;
+    symbolTable.pushEnvironment();
+    for (Stmt stmt : node.stmts) {
+      stmt.accept(this);
+    }
+    symbolTable.popEnvironment();
+    parforEnv = enclosingParforEnv;
+    symbolTable.popEnvironment();
+  }
+  
+  
   public void visit(ReturnStmt node) throws MyPLException {
+    if (parforEnv != -1)
+      error("cannot return from within parfor", null);
     if (node.expr != null)
       node.expr.accept(this);
     else {
@@ -367,6 +412,7 @@ public class StaticChecker implements Visitor {
       // has to have one argument, any type is allowed
       if (node.args.size() != 1)
         error("print expects one argument", node.funName);
+      node.args.get(0).accept(this);
       currType = "void";
     }
     else if (funName.equals("read")) {
@@ -453,20 +499,58 @@ public class StaticChecker implements Visitor {
       currType = "int";
     }
     else if (funName.equals("timestart")) {
-      if (node.args.size() != 0)
-        error("timestart takes no arguments", node.funName);
+      checkTimerName(node);
       currType = "void";
     }
     else if (funName.equals("timeend")) {
-      if (node.args.size() != 0)
-        error("timeend takes no arguments", node.funName);
+      checkTimerName(node);
       currType = "void";
     }
     else if (funName.equals("timedelta")) {
-      if (node.args.size() != 0)
-        error("timedelta takes no arguments", node.funName);
+      checkTimerName(node);
       currType = "double";
     }
+    else if (funName.equals("spawn")) {
+      if (node.args.size() < 1)
+        error("spawn expects a function to run", node.funName);
+      Token fun = getSpawnedFunction(node);
+      if (fun == null || !"fun".equals(symbolTable.get(fun.lexeme())))
+        error("expecting function name in spawn", getFirstToken(node.args.get(0)));
+      checkArgs(fun, node.args.subList(1, node.args.size()));
+      currType = "task<" + typeInfo.get(fun.lexeme(), "return") + ">";
+    }
+    else if (funName.equals("join")) {
+      if (node.args.size() != 1)
+        error("join expects one argument", node.funName);
+      Expr e = node.args.get(0);
+      e.accept(this);
+      if (!currType.startsWith("task<"))
+        error("expecting task in join", getFirstToken(e));
+      currType = currType.substring(5, currType.length() - 1);
+    }
+    else if (funName.equals("checkpoint")) {
+      if (node.args.size() != 1)
+        error("checkpoint expects one argument", node.funName);
+      Expr e = node.args.get(0);
+      e.accept(this);
+      if (!currType.equals("string"))
+        error("expecting string in checkpoint", getFirstToken(e));
+      currType = "void";
+    }
+  }
+
+
+  // timer built-ins take an optional (string) timer name
+  private void checkTimerName(CallExpr node) throws MyPLException {
+    String funName = node.funName.lexeme();
+    if (node.args.size() > 1)
+      error(funName + " expects at most one argument", node.funName);
+    if (node.args.size() == 1) {
+      Expr e = node.args.get(0);
+      e.accept(this);
+      if (!currType.equals("string"))
+        error("expecting string in " + funName, getFirstToken(e));
+    }
   }
 
   
@@ -478,16 +562,36 @@ public class StaticChecker implements Visitor {
     }
     if (!symbolTable.nameExists(funcName))
       error("function " + funcName + " is not defined", node.funName);
+    checkArgs(node.funName, node.args);
+    currType = typeInfo.get(funcName, "return");
+  }
+
+  // check the argument count and types for a call to the given function
+  private void checkArgs(Token funName, List<Expr> args) throws MyPLException {
+    String funcName = funName.lexeme();
     ArrayList<String> components = new ArrayList<>(typeInfo.components(funcName));
-    if (components.size() - 1 != node.args.size())
-      error("function " + funcName + " expects " + components.size() + " arguments", node.funName);
-    for (int i = 0; i < node.args.size(); i++) {
-      Expr currExpr = node.args.get(i);
+    if (components.size() - 1 != args.size())
+      error("function " + funcName + " expects " + components.size() + " arguments", funName);
+    for (int i = 0; i < args.size(); i++) {
+      Expr currExpr = args.get(i);
       currExpr.accept(this);
       if (!currType.equals(typeInfo.get(funcName, components.get(i))) && !currType.equals("void"))
-        error("expecting " + typeInfo.get(funcName, components.get(i)) + " in argument " + (i + 1) + " got " + currType, node.funName);
+        error("expecting " + typeInfo.get(funcName, components.get(i)) + " in argument " + (i + 1) + " got " + currType, funName);
     }
-    currType = typeInfo.get(funcName, "return");
+  }
+
+  /**
+   * Returns the function name given as the first argument to spawn,
+   * or null if the first argument is not a plain identifier.
+   */
+  public static Token getSpawnedFunction(CallExpr node) {
+    Expr e = node.args.get(0);
+    if (e.op != null || e.logicallyNegated || !(e.first instanceof SimpleTerm))
+      return null;
+    RValue rvalue = ((SimpleTerm) e.first).rvalue;
+    if (!(rvalue instanceof IDRValue) || ((IDRValue) rvalue).path.size() != 1)
+      return null;
+    return ((IDRValue) rvalue).path.get(0);
   }
   
 
@@ -545,6 +649,7 @@ public class StaticChecker implements Visitor {
     }
     node.first.accept(this);
     String lhsType = currType;
+    typeInfo.setExprType(node.first, lhsType);
     if (node.rest != null) {
       TokenType operator = node.op.type();
       node.rest.accept(this);
@@ -592,11 +697,16 @@ public class StaticChecker implements Visitor {
         }
         else
           currType = "bool";
+      } else if (operator == TokenType.AND || operator == TokenType.OR) {
+        if (!lhsType.equals("bool") || !rhsType.equals("bool"))
+          error("invalid operands to binary " + node.op.lexeme(), node.op);
+        currType = "bool";
       }
     }
 
     if (node.logicallyNegated && !currType.equals("bool"))
       error("boolean required for negation statement", node.op);
+    typeInfo.setExprType(node, currType);
   }
 
 
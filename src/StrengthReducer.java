@@ -0,0 +1,399 @@
+/*
+ * File: StrengthReducer.java
+ * Date: Spring 2022
+ * Auth: Cameron S. Williamson
+ * Desc: Replaces multiplications of a loop's induction variables with
+ *       additions. A (basic) induction variable is a value that
+ *       changes by the same constant step on every iteration of a
+ *       loop, like a for loop's variable or a counter i = i + 1 of a
+ *       while loop, which is found from the SSA form of the frame (see
+ *       SSAForm) as a phi at the loop's header.
+ *
+ *       For an induction variable i, each (i * c) + d in the loop (with
+ *       constant c and d, where the + d is optional and can also be
+ *       - d, d +, or d -) is replaced by a load of a new local. The
+ *       local is set to start * c + d before the loop is entered (start
+ *       is i's first value), and increased by c * step at the end of
+ *       each iteration, after the loop's last use of i. The uses of the
+ *       same (i * c) + d share one local.
+ *
+ *       Since a multiplication costs the VM as much as an addition, a
+ *       local is only added if the instructions its uses save are more
+ *       than the ones it costs to update it.
+ */
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+public class StrengthReducer {
+
+  // the number of instructions updating a reduced value costs on each
+  // iteration (LOAD, PUSH, IADDU, STORE)
+  private static final int UPDATE_COST = 4;
+
+  // how many times more often a use in an inner loop is assumed to run
+  // than one in the loop itself
+  private static final int INNER_LOOP_WEIGHT = 8;
+
+  // an induction variable of a loop
+  private static class InductionVariable {
+    // the phi defining the variable
+    SSAInstr phi;
+    // the value it starts with, and where that is on loop entry (a
+    // local slot, or -1 for the top of the stack)
+    String start;
+    int slot;
+    // the amount added on each iteration
+    int step;
+  }
+
+  // a value (i * c) + d of an induction variable i, and its uses
+  private static class Reduction {
+    InductionVariable iv;
+    int multiplier;
+    int offset;
+    // the blocks of the uses, and the first and last instruction of
+    // each use
+    List<BasicBlock> blocks = new ArrayList<>();
+    List<VMInstr> firsts = new ArrayList<>();
+    List<VMInstr> lasts = new ArrayList<>();
+    // the instructions the uses save (per iteration)
+    int saved = 0;
+  }
+
+  /**
+   * Reduce the multiplications of induction variables in each of the
+   * program's (generated) frames.
+   *
+   * @param program the program to reduce
+   */
+  public static void reduce(VMProgram program) {
+    for (String name : program.functionNames()) {
+      try {
+        reduce(program, program.get(name));
+      } catch (MyPLException e) {
+        // (left for the verifier to report)
+      }
+    }
+  }
+
+  //----------------------------------------------------------------------
+  // HELPER FUNCTIONS
+  //----------------------------------------------------------------------
+
+  // reduce the multiplications of induction variables in the frame
+  private static void reduce(VMProgram program, VMFrame frame) throws MyPLException {
+    ControlFlowGraph graph = ControlFlowGraph.build(program, frame);
+    SSAForm ssa = SSAForm.build(program, graph);
+    Map<BasicBlock, Set<BasicBlock>> loops = new LinkedHashMap<>();
+    for (BasicBlock block : graph.blocks()) {
+      Set<BasicBlock> loop = graph.loop(block);
+      if (!loop.isEmpty())
+        loops.put(block, loop);
+    }
+    // (all found before any changes, since changing a loop's code
+    // changes the SSA form of the loops around it)
+    Map<BasicBlock, List<Reduction>> reductions = new LinkedHashMap<>();
+    for (BasicBlock header : loops.keySet()) {
+      Set<BasicBlock> loop = loops.get(header);
+      if (!canUpdate(header, loop))
+        continue;
+      List<InductionVariable> ivs = new ArrayList<>();
+      for (SSAInstr phi : ssa.code(header)) {
+        if (!phi.isPhi())
+          break;
+        InductionVariable iv = inductionVariable(ssa, header, loop, phi);
+        if (iv != null)
+          ivs.add(iv);
+      }
+      if (!ivs.isEmpty())
+        reductions.put(header, findReductions(ssa, header, loop, loops, ivs));
+    }
+    int nextSlot = slots(frame);
+    boolean changed = false;
+    for (BasicBlock header : reductions.keySet()) {
+      Set<BasicBlock> loop = loops.get(header);
+      BasicBlock preheader = null;
+      for (Reduction r : reductions.get(header)) {
+        int backEdges = 0;
+        for (BasicBlock pred : header.predecessors)
+          if (loop.contains(pred))
+            ++backEdges;
+        if (r.saved <= UPDATE_COST * backEdges)
+          continue;
+        if (preheader == null)
+          preheader = graph.addPreheader(header, loop);
+        apply(r, nextSlot++, header, loop, preheader);
+        changed = true;
+      }
+    }
+    if (changed)
+      graph.lower();
+  }
+
+  // true if the loop's value updates can be added at the end of each
+  // of its back edges (which must not come from conditional jumps)
+  private static boolean canUpdate(BasicBlock header, Set<BasicBlock> loop) {
+    for (BasicBlock pred : header.predecessors) {
+      if (!loop.contains(pred))
+        continue;
+      if (pred.target == header && ControlFlowGraph.last(pred).opcode() != OpCode.JMP)
+        return false;
+      if (pred.target != header && pred.target != null)
+        return false;
+    }
+    return true;
+  }
+
+  // the induction variable defined by the phi at the loop's header (or
+  // null if it isn't one)
+  private static InductionVariable inductionVariable(SSAForm ssa, BasicBlock header,
+                                                     Set<BasicBlock> loop, SSAInstr phi)
+  {
+    String start = null;
+    String next = null;
+    for (int i = 0; i < phi.uses.size(); ++i) {
+      String value = phi.uses.get(i);
+      if (!loop.contains(phi.from.get(i))) {
+        if (start != null && !start.equals(value))
+          return null;
+        start = value;
+      } else {
+        if (next != null && !next.equals(value))
+          return null;
+        next = value;
+      }
+    }
+    if (start == null || next == null)
+      return null;
+    // next must be phi + step (or phi - step)
+    SSAInstr update = ssa.definition(original(ssa, next));
+    if (update == null || update.isPhi())
+      return null;
+    OpCode opcode = update.instr.opcode();
+    boolean add = opcode == OpCode.IADD || opcode == OpCode.IADDU;
+    boolean sub = opcode == OpCode.ISUB || opcode == OpCode.ISUBU;
+    if (!add && !sub)
+      return null;
+    String x = original(ssa, update.uses.get(0));
+    String y = original(ssa, update.uses.get(1));
+    Integer step = null;
+    if (x.equals(phi.def))
+      step = constant(ssa, y);
+    else if (add && y.equals(phi.def))
+      step = constant(ssa, x);
+    if (step == null)
+      return null;
+    InductionVariable iv = new InductionVariable();
+    iv.phi = phi;
+    iv.start = start;
+    iv.step = sub ? -step : step;
+    iv.slot = phi.slot;
+    if (phi.slot == -1) {
+      // (only the top of the stack can be used on entry, and the
+      // stack phis come first)
+      if (ssa.code(header).indexOf(phi) != header.entryDepth - 1)
+        return null;
+    }
+    // the start value can't be nil, since it is multiplied before the
+    // loop is entered (even if the loop's uses never run)
+    if (!isInt(ssa, start) && !checkedAtHeader(ssa, header, phi.def))
+      return null;
+    return iv;
+  }
+
+  // the uses of (i * c) + d of the loop's induction variables, where
+  // each use's instructions are all in one block
+  private static List<Reduction> findReductions(SSAForm ssa, BasicBlock header,
+                                                Set<BasicBlock> loop,
+                                                Map<BasicBlock, Set<BasicBlock>> loops,
+                                                List<InductionVariable> ivs)
+  {
+    Map<String, Reduction> reductions = new LinkedHashMap<>();
+    for (BasicBlock block : loop) {
+      // uses in inner loops run more often
+      int weight = 1;
+      for (BasicBlock other : loops.keySet())
+        if (other != header && loop.contains(other) && loops.get(other).contains(block))
+          weight = INNER_LOOP_WEIGHT;
+      List<SSAInstr> code = ssa.code(block);
+      // (the SSA instructions of the block's instructions follow its
+      // phis)
+      int phis = code.size() - block.instructions.size();
+      for (int pc = 2; pc < block.instructions.size(); ++pc) {
+        OpCode opcode = block.instructions.get(pc).opcode();
+        if (opcode != OpCode.IMUL && opcode != OpCode.IMULU)
+          continue;
+        SSAInstr x = code.get(phis + pc - 2);
+        SSAInstr y = code.get(phis + pc - 1);
+        InductionVariable iv = null;
+        Integer multiplier = null;
+        for (InductionVariable candidate : ivs) {
+          if (isLoadOf(ssa, x, candidate) && y.def != null) {
+            iv = candidate;
+            multiplier = constant(ssa, y.def);
+          } else if (isLoadOf(ssa, y, candidate) && x.def != null) {
+            iv = candidate;
+            multiplier = constant(ssa, x.def);
+          }
+        }
+        if (iv == null || multiplier == null)
+          continue;
+        int first = pc - 2;
+        int last = pc;
+        int offset = 0;
+        // followed by + d or - d, or preceded by d + or d - (checked
+        // in this order)
+        Integer d = pc + 2 < block.instructions.size() ?
+          constant(ssa, code.get(phis + pc + 1).def) : null;
+        OpCode after = pc + 2 < block.instructions.size() ?
+          block.instructions.get(pc + 2).opcode() : null;
+        Integer before = first > 0 ? constant(ssa, code.get(phis + first - 1).def) : null;
+        OpCode next = pc + 1 < block.instructions.size() ?
+          block.instructions.get(pc + 1).opcode() : null;
+        if (d != null && (after == OpCode.IADD || after == OpCode.IADDU)) {
+          offset = d;
+          last = pc + 2;
+        } else if (d != null && (after == OpCode.ISUB || after == OpCode.ISUBU)) {
+          offset = -d;
+          last = pc + 2;
+        } else if (before != null && (next == OpCode.IADD || next == OpCode.IADDU)) {
+          offset = before;
+          first = first - 1;
+          last = pc + 1;
+        } else if (before != null && (next == OpCode.ISUB || next == OpCode.ISUBU)) {
+          // (d - i * c is i * -c + d)
+          multiplier = -multiplier;
+          offset = before;
+          first = first - 1;
+          last = pc + 1;
+        }
+        String key = iv.phi.def + "*" + multiplier + "+" + offset;
+        Reduction r = reductions.get(key);
+        if (r == null) {
+          r = new Reduction();
+          r.iv = iv;
+          r.multiplier = multiplier;
+          r.offset = offset;
+          reductions.put(key, r);
+        }
+        r.blocks.add(block);
+        r.firsts.add(block.instructions.get(first));
+        r.lasts.add(block.instructions.get(last));
+        r.saved += (last - first) * weight;
+        pc = last + 2;
+      }
+    }
+    return new ArrayList<>(reductions.values());
+  }
+
+  // replace the reduction's uses by loads of the given slot, which is
+  // set on loop entry (in the preheader) and updated on each back edge
+  private static void apply(Reduction r, int slot, BasicBlock header, Set<BasicBlock> loop,
+                            BasicBlock preheader)
+  {
+    for (int i = 0; i < r.blocks.size(); ++i) {
+      List<VMInstr> instructions = r.blocks.get(i).instructions;
+      int first = instructions.indexOf(r.firsts.get(i));
+      int last = instructions.indexOf(r.lasts.get(i));
+      instructions.subList(first, last + 1).clear();
+      instructions.add(first, VMInstr.LOAD(slot));
+    }
+    List<VMInstr> init = preheader.instructions;
+    init.add(r.iv.slot == -1 ? VMInstr.DUP() : VMInstr.LOAD(r.iv.slot));
+    init.add(VMInstr.PUSH(r.multiplier));
+    init.add(VMInstr.IMULU());
+    if (r.offset != 0) {
+      init.add(VMInstr.PUSH(r.offset));
+      init.add(VMInstr.IADDU());
+    }
+    init.add(VMInstr.STORE(slot));
+    for (BasicBlock pred : header.predecessors) {
+      if (!loop.contains(pred))
+        continue;
+      List<VMInstr> instructions = pred.instructions;
+      // (before the jump back to the header, if any)
+      int end = pred.target == header ? instructions.size() - 1 : instructions.size();
+      instructions.addAll(end, List.of(VMInstr.LOAD(slot), VMInstr.PUSH(r.multiplier * r.iv.step),
+                                       VMInstr.IADDU(), VMInstr.STORE(slot)));
+    }
+  }
+
+  // the value the given value is a copy of (through stores to locals)
+  private static String original(SSAForm ssa, String value) {
+    SSAInstr def = ssa.definition(value);
+    while (def != null && !def.isPhi() &&
+           (def.instr.opcode() == OpCode.STORE || def.instr.opcode() == OpCode.STOREK)) {
+      value = def.uses.get(0);
+      def = ssa.definition(value);
+    }
+    return value;
+  }
+
+  // the value if it is an int constant (null otherwise)
+  private static Integer constant(SSAForm ssa, String value) {
+    if (value == null)
+      return null;
+    SSAInstr def = ssa.definition(original(ssa, value));
+    if (def == null || def.isPhi() || def.instr.opcode() != OpCode.PUSH)
+      return null;
+    Object operand = def.instr.operand();
+    return operand instanceof Integer ? (Integer) operand : null;
+  }
+
+  // true if the instruction loads (a copy of) the induction variable
+  private static boolean isLoadOf(SSAForm ssa, SSAInstr instr, InductionVariable iv) {
+    return instr.instr.opcode() == OpCode.LOAD &&
+      original(ssa, instr.uses.get(0)).equals(iv.phi.def);
+  }
+
+  // true if the value is an int (never nil)
+  private static boolean isInt(SSAForm ssa, String value) {
+    if (constant(ssa, value) != null)
+      return true;
+    SSAInstr def = ssa.definition(original(ssa, value));
+    if (def == null || def.isPhi())
+      return false;
+    switch (def.instr.opcode()) {
+      case IADD: case ISUB: case IMUL: case IDIV: case INEG: case IADDU:
+      case ISUBU: case IMULU: case IDIVU: case INEGU: case LEN:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  // true if the header uses (a copy of) the value in an int operation
+  // without nil checks, so it is never nil when the loop is entered
+  private static boolean checkedAtHeader(SSAForm ssa, BasicBlock header, String value) {
+    for (SSAInstr instr : ssa.code(header)) {
+      if (instr.isPhi())
+        continue;
+      switch (instr.instr.opcode()) {
+        case IADDU: case ISUBU: case IMULU: case IDIVU: case INEGU: case ICMPLTU:
+        case ICMPLEU: case ICMPGTU: case ICMPGEU:
+          for (String use : instr.uses)
+            if (original(ssa, use).equals(value))
+              return true;
+          break;
+        default:
+          break;
+      }
+    }
+    return false;
+  }
+
+  // the number of local slots the frame's code uses (see
+  // Inliner.slots)
+  private static int slots(VMFrame frame) {
+    int count = frame.argCount();
+    for (VMInstr instr : frame.instructions)
+      if (ControlFlowGraph.isLocal(instr))
+        count = Math.max(count, (Integer) instr.operand() + 1);
+    return count;
+  }
+}
@@ -62,6 +62,15 @@ public class SymbolTable {
     return false;
   }
 
+  // returns the index of the environment with the first binding for
+  // name (or -1 if name isn't in any environment)
+  public int environmentOf(String name) {
+    for (int i = size() - 1; i >= 0; --i) 
+      if (environments.get(i).containsKey(name))
+        return i;
+    return -1;
+  }
+
   // returns number of environments
   public int size() {
     return environments.size();
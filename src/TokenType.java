@@ -21,7 +21,7 @@ public enum TokenType {
   // data types
   INT_TYPE, DOUBLE_TYPE, CHAR_TYPE, STRING_TYPE, BOOL_TYPE, VOID_TYPE,  
   // reserved words
-  VAR, TYPE, WHILE, FOR, FROM, UPTO, DOWNTO, 
+  VAR, TYPE, WHILE, FOR, PARFOR, FROM, UPTO, DOWNTO, 
   IF, ELIF, ELSE, 
   FUN, NEW, DELETE, RETURN, NIL,
   // identifiers
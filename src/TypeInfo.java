@@ -9,6 +9,7 @@
 
 import java.util.Map;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.Set;
 
@@ -17,6 +18,9 @@ public class TypeInfo {
   // a type has a name and a set of component name-type pairs
   private Map<String,Map<String,String>> types = new HashMap<>();
 
+  // the types of expressions and expression terms (by node)
+  private Map<ASTNode,String> exprTypes = new IdentityHashMap<>();
+
   /**
    * Returns the current set of type names being stored.
    */
@@ -65,5 +69,23 @@ public class TypeInfo {
       return types.get(type).get(componentName);
     return null;
   }
+
+  /**
+   * Records the type of an expression or expression term.
+   * @param node the expression (or term)
+   * @param type the type of the expression
+   */
+  public void setExprType(ASTNode node, String type) {
+    exprTypes.put(node, type);
+  }
+
+  /**
+   * Returns the type of the given expression or expression term.
+   * @param node the expression (or term)
+   * @return the expression's type, or null if it wasn't recorded
+   */
+  public String exprType(ASTNode node) {
+    return exprTypes.get(node);
+  }
       
 }
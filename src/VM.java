@@ -10,6 +10,7 @@
  *       (to int and double).
  */
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.ArrayList;
 import java.util.List;
@@ -18,6 +19,18 @@ import java.util.Map;
 import java.util.Deque;
 import java.util.ArrayDeque;
 import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 /*----------------------------------------------------------------------
 
@@ -47,30 +60,125 @@ class VM {
   // set to true to print debugging information
   private boolean DEBUG = false;
 
-  // the VM's heap (free store) accessible via object-id
-  private Map<Integer, Map<String, Object>> heap = new HashMap<>();
+  // the maximum number of instructions a run may execute (0 for no
+  // limit), checked on back-edges and calls
+  private long maxInstructions = 0;
+
+  // the maximum number of live heap objects (0 for no limit)
+  private int maxHeapObjects = 0;
+
+  // the number of instructions the run has executed so far, counted
+  // across all of its spawned tasks and parfor chunks (each execution
+  // adds its own count on back-edges, calls, and when it finishes)
+  private AtomicLong instructionsRun = new AtomicLong(0);
+
+  // true if the checkpoint built-in may write files, and the
+  // directory they must be in (null for anywhere)
+  private boolean checkpointsEnabled = true;
+  private Path checkpointDir = null;
+
+  // the compiled program, which may be shared with other VMs
+  private VMProgram program;
+
+  // the input stream for READ (per execution)
+  private InputStream in;
+
+  // the scanner over the input stream (created on first READ)
+  private Scanner scanner = null;
+
+  // the output stream for WRITE (per execution)
+  private PrintStream out;
+
+  // the VM's heap (free store) accessible via object-id (shared by
+  // all spawned tasks, and so thread safe)
+  private Map<Integer, Map<String, Object>> heap = new ConcurrentHashMap<>();
 
   // next available object-id
-  private int objectId = 1111;
+  private AtomicInteger objectId = new AtomicInteger(1111);
+
+  // the start times (in nanoseconds) of the running timers, by timer
+  // name, where the most recently started timer is on top
+  private Map<String, Deque<Long>> timerStarts = new ConcurrentHashMap<>();
 
-  // the frames for the program (one frame per function)
-  private Map<String, VMFrame> frames = new HashMap<>();
+  // the elapsed time (in nanoseconds) of the last stopped timer, by
+  // timer name
+  private Map<String, Long> timerDeltas = new ConcurrentHashMap<>();
 
-  // the VM call stack
-  private Deque<VMFrame> frameStack = new ArrayDeque<>();
+  // the number of spawned tasks and parfor chunks still running
+  private AtomicInteger runningTasks = new AtomicInteger(0);
+
+  // the state to resume from (if the VM was restored from a
+  // checkpoint)
+  private VMCheckpoint resumeFrom = null;
+
+  // the initial size of each execution's value stack (which grows
+  // as needed)
+  private static final int INITIAL_STACK_SIZE = 256;
 
   /**
    * For representing "nil" as a value
    */
   public static String NIL_OBJ = new String("nil");
 
+  /**
+   * Create a VM with a new (empty) program that reads from standard
+   * input and writes to standard output.
+   */
+  public VM() {
+    this(new VMProgram(), System.in, System.out);
+  }
+
+  /**
+   * Create a VM to run the given program. The program is only read
+   * by the VM, and so can be shared across VMs (and threads), while
+   * each VM has its own heap, call stack, and input and output.
+   * 
+   * @param program the compiled program to run
+   * @param in the stream READ takes input from
+   * @param out the stream WRITE sends output to
+   */
+  public VM(VMProgram program, InputStream in, PrintStream out) {
+    this.program = program;
+    this.in = in;
+    this.out = out;
+  }
+
+  /**
+   * Create a VM that resumes the program saved in the given checkpoint
+   * file (see the checkpoint built-in) from where the checkpoint was
+   * taken. Running timers and unread input are not part of a
+   * checkpoint.
+   * 
+   * @param path the checkpoint file
+   * @param in the stream READ takes input from
+   * @param out the stream WRITE sends output to
+   * @return the restored VM
+   */
+  public static VM restore(String path, InputStream in, PrintStream out)
+    throws MyPLException
+  {
+    VMCheckpoint checkpoint = VMCheckpoint.read(path);
+    VM vm = new VM(checkpoint.program, in, out);
+    vm.heap = checkpoint.heap;
+    vm.objectId.set(checkpoint.nextObjectId);
+    vm.resumeFrom = checkpoint;
+    return vm;
+  }
+
   /**
    * Add a frame to the VM's list of known frames
    * 
    * @param frame the frame to add
    */
   public void add(VMFrame frame) {
-    frames.put(frame.functionName(), frame);
+    program.add(frame);
+  }
+
+  /**
+   * Returns the (compiled) program the VM runs.
+   */
+  public VMProgram program() {
+    return program;
   }
 
   /**
@@ -83,17 +191,135 @@ class VM {
     DEBUG = debug;
   }
 
+  /**
+   * Limit the number of instructions a run may execute, including
+   * the instructions of the tasks it spawns and its parfor loops. To
+   * keep the check cheap, the limit is only enforced on backward jumps
+   * and function calls, so straight-line code may run slightly past it.
+   * 
+   * @param maxInstructions the instruction budget (0 for no limit)
+   */
+  public void setInstructionBudget(long maxInstructions) {
+    this.maxInstructions = maxInstructions;
+  }
+
+  /**
+   * Limit the number of objects that can be live on the heap at once.
+   * 
+   * @param maxHeapObjects the heap object cap (0 for no limit)
+   */
+  public void setMaxHeapObjects(int maxHeapObjects) {
+    this.maxHeapObjects = maxHeapObjects;
+  }
+
+  /**
+   * Turn on/off the checkpoint built-in, which writes the VM's state
+   * to a file the program names. When off, a checkpoint is a runtime
+   * error.
+   * 
+   * @param enabled set to false to turn off checkpoints (by default
+   *                true)
+   */
+  public void setCheckpointsEnabled(boolean enabled) {
+    checkpointsEnabled = enabled;
+  }
+
+  /**
+   * Only let the checkpoint built-in write files in the given
+   * directory. Relative checkpoint paths are taken from the directory,
+   * and paths that lead out of it are a runtime error.
+   * 
+   * @param dir the checkpoint directory (null for anywhere, the
+   *            default)
+   */
+  public void setCheckpointDirectory(Path dir) {
+    checkpointDir = dir;
+  }
+
   /**
    * Run the virtual machine
    */
   public void run() throws MyPLException {
 
+    program.verify();
+
+    // continue from a checkpoint
+    if (resumeFrom != null) {
+      VMCheckpoint checkpoint = resumeFrom;
+      resumeFrom = null;
+      // the stack must hold each frame's full window
+      int stackSize = Math.max(INITIAL_STACK_SIZE, checkpoint.sp);
+      for (VMFrame frame : checkpoint.frameStack) {
+        frame.setMaxStack(program.get(frame.functionName()).maxStack());
+        stackSize = Math.max(stackSize, windowEnd(frame));
+      }
+      Object[] stack = Arrays.copyOf(checkpoint.stack, stackSize);
+      execute(checkpoint.frameStack, stack, checkpoint.sp, out);
+      return;
+    }
+
     // grab the main stack frame
-    if (!frames.containsKey("main"))
+    if (!program.contains("main"))
       throw MyPLException.VMError("No 'main' function");
-    VMFrame frame = frames.get("main").instantiate();
+    execute(program.get("main").instantiate(), new Object[0], new Object[0], out);
+  }
+
+  /**
+   * Run the given frame (and the functions it calls) until it returns.
+   * Each call to execute has its own call stack and value stack, so
+   * spawned tasks can execute concurrently on the same VM.
+   *
+   * The value stack holds every active frame's window: the frame's
+   * local variables starting at its base pointer (fp), followed by
+   * its operands. A call leaves the arguments where the caller pushed
+   * them, which makes them the callee's first local variables.
+   * 
+   * @param frame the frame to run
+   * @param locals the initial values of the frame's first locals
+   * @param operands the initial values of the frame's operand stack
+   * @param output the stream WRITE sends output to
+   * @return the value returned by the frame (or nil)
+   */
+  private Object execute(VMFrame frame, Object[] locals, Object[] operands,
+                         PrintStream output) throws MyPLException
+  {
+    // the call stack for this execution
+    Deque<VMFrame> frameStack = new ArrayDeque<>();
     frameStack.push(frame);
 
+    // the value stack for this execution, and the next free slot
+    Object[] stack = new Object[Math.max(INITIAL_STACK_SIZE, windowEnd(frame))];
+    int sp = 0;
+    frame.fp = 0;
+    for (int i = 0; i < frame.localCount(); ++i)
+      stack[sp++] = i < locals.length ? locals[i] : NIL_OBJ;
+    for (Object operand : operands)
+      stack[sp++] = operand;
+
+    return execute(frameStack, stack, sp, output);
+  }
+
+  /**
+   * Run the frames on the given call stack until they all return.
+   * 
+   * @param frameStack the call stack (with the current frame on top)
+   * @param stack the value stack holding the frames' windows
+   * @param sp the next free slot of the value stack
+   * @param output the stream WRITE sends output to
+   * @return the value returned by the bottom frame (or nil)
+   */
+  private Object execute(Deque<VMFrame> frameStack, Object[] stack, int sp,
+                         PrintStream output) throws MyPLException
+  {
+    VMFrame frame = frameStack.peek();
+
+    // the value returned by the first frame
+    Object returnResult = NIL_OBJ;
+
+    // number of instructions executed since last added to the run's
+    // count
+    long instrCount = 0;
+
     // run loop (keep going until we run out of frames or
     // instructions) note that we assume each function returns a
     // value, and so the second check below should never occur (but is
@@ -103,396 +329,997 @@ class VM {
       VMInstr instr = frame.instructions.get(frame.pc);
       // increment instruction pointer
       ++frame.pc;
+      ++instrCount;
 
       // For debugging: to turn on the following, call setDebug(true)
       // on the VM.
       if (DEBUG) {
-        System.out.println();
-        System.out.println("\t FRAME........: " + frame.functionName());
-        System.out.println("\t PC...........: " + (frame.pc - 1));
-        System.out.println("\t INSTRUCTION..: " + instr);
-        System.out.println("\t OPERAND STACK: " + frame.operandStack);
-        System.out.println("\t HEAP ........: " + heap);
+        out.println();
+        out.println("\t FRAME........: " + frame.functionName());
+        out.println("\t PC...........: " + (frame.pc - 1));
+        out.println("\t INSTRUCTION..: " + instr);
+        out.println("\t LOCALS.......: " +
+                    Arrays.asList(stack).subList(frame.fp, frame.fp + frame.localCount()));
+        out.println("\t OPERAND STACK: " +
+                    Arrays.asList(stack).subList(frame.fp + frame.localCount(), sp));
+        out.println("\t HEAP ........: " + heap);
       }
 
+      switch (instr.opcode()) {
+
       // ------------------------------------------------------------
       // Consts/Vars
       // ------------------------------------------------------------
 
-      if (instr.opcode() == OpCode.PUSH) {
-        frame.operandStack.push(instr.operand());
+      case PUSH: {
+        stack[sp++] = instr.operand();
+        break;
+      }
+
+      case POP: {
+        stack[--sp] = null;
+        break;
+      }
+
+      case LOAD: {
+        stack[sp++] = stack[frame.fp + (Integer) instr.operand()];
+        break;
       }
 
-      else if (instr.opcode() == OpCode.POP) {
-        frame.operandStack.pop();
+      case STORE: {
+        stack[frame.fp + (Integer) instr.operand()] = stack[--sp];
+        break;
       }
 
-      else if (instr.opcode() == OpCode.LOAD) {
-        frame.operandStack.push(frame.variables.get((Integer) instr.operand()));
+      case STOREK: {
+        stack[frame.fp + (Integer) instr.operand()] = stack[sp - 1];
+        break;
       }
 
-      else if (instr.opcode() == OpCode.STORE) {
-        if ((Integer) instr.operand() >= frame.variables.size())
-          frame.variables.add(frame.operandStack.pop());
+      // ------------------------------------------------------------
+      // Typed Ops (the operand types were checked statically)
+      // ------------------------------------------------------------
+
+      case IADD: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        ensureNotNil(frame, operand);
+        ensureNotNil(frame, operand2);
+        stack[sp++] = (Integer) operand2 + (Integer) operand;
+        break;
+      }
+
+      case DADD: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        ensureNotNil(frame, operand);
+        ensureNotNil(frame, operand2);
+        stack[sp++] = (Double) operand2 + (Double) operand;
+        break;
+      }
+
+      case SCONCAT: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        ensureNotNil(frame, operand);
+        ensureNotNil(frame, operand2);
+        stack[sp++] = ((String) operand2).concat((String) operand);
+        break;
+      }
+
+      case ISUB: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        ensureNotNil(frame, operand);
+        ensureNotNil(frame, operand2);
+        stack[sp++] = (Integer) operand2 - (Integer) operand;
+        break;
+      }
+
+      case DSUB: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        ensureNotNil(frame, operand);
+        ensureNotNil(frame, operand2);
+        stack[sp++] = (Double) operand2 - (Double) operand;
+        break;
+      }
+
+      case IMUL: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        ensureNotNil(frame, operand);
+        ensureNotNil(frame, operand2);
+        stack[sp++] = (Integer) operand2 * (Integer) operand;
+        break;
+      }
+
+      case DMUL: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        ensureNotNil(frame, operand);
+        ensureNotNil(frame, operand2);
+        stack[sp++] = (Double) operand2 * (Double) operand;
+        break;
+      }
+
+      case IDIV: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        ensureNotNil(frame, operand);
+        ensureNotNil(frame, operand2);
+        stack[sp++] = (Integer) operand2 / (Integer) operand;
+        break;
+      }
+
+      case DDIV: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        ensureNotNil(frame, operand);
+        ensureNotNil(frame, operand2);
+        stack[sp++] = (Double) operand2 / (Double) operand;
+        break;
+      }
+
+      case INEG: {
+        Object operand = stack[--sp];
+        ensureNotNil(frame, operand);
+        stack[sp++] = -((Integer) operand);
+        break;
+      }
+
+      case DNEG: {
+        Object operand = stack[--sp];
+        ensureNotNil(frame, operand);
+        stack[sp++] = -((Double) operand);
+        break;
+      }
+
+      case ICMPLT: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        ensureNotNil(frame, operand);
+        ensureNotNil(frame, operand2);
+        stack[sp++] = (Integer) operand2 < (Integer) operand;
+        break;
+      }
+
+      case ICMPLE: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        ensureNotNil(frame, operand);
+        ensureNotNil(frame, operand2);
+        stack[sp++] = (Integer) operand2 <= (Integer) operand;
+        break;
+      }
+
+      case ICMPGT: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        ensureNotNil(frame, operand);
+        ensureNotNil(frame, operand2);
+        stack[sp++] = (Integer) operand2 > (Integer) operand;
+        break;
+      }
+
+      case ICMPGE: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        ensureNotNil(frame, operand);
+        ensureNotNil(frame, operand2);
+        stack[sp++] = (Integer) operand2 >= (Integer) operand;
+        break;
+      }
+
+      case ICMPEQ: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        if (operand == NIL_OBJ || operand2 == NIL_OBJ)
+          stack[sp++] = operand == operand2;
         else
-          frame.variables.set((Integer) instr.operand(), frame.operandStack.pop());
+          stack[sp++] = ((Integer) operand2).intValue() == (Integer) operand;
+        break;
+      }
+
+      case ICMPNE: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        if (operand == NIL_OBJ || operand2 == NIL_OBJ)
+          stack[sp++] = operand != operand2;
+        else
+          stack[sp++] = ((Integer) operand2).intValue() != (Integer) operand;
+        break;
+      }
+
+      case DCMPLT: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        ensureNotNil(frame, operand);
+        ensureNotNil(frame, operand2);
+        stack[sp++] = (Double) operand2 < (Double) operand;
+        break;
+      }
+
+      case DCMPLE: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        ensureNotNil(frame, operand);
+        ensureNotNil(frame, operand2);
+        stack[sp++] = (Double) operand2 <= (Double) operand;
+        break;
+      }
+
+      case DCMPGT: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        ensureNotNil(frame, operand);
+        ensureNotNil(frame, operand2);
+        stack[sp++] = (Double) operand2 > (Double) operand;
+        break;
+      }
+
+      case DCMPGE: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        ensureNotNil(frame, operand);
+        ensureNotNil(frame, operand2);
+        stack[sp++] = (Double) operand2 >= (Double) operand;
+        break;
+      }
+
+      case DCMPEQ: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        if (operand == NIL_OBJ || operand2 == NIL_OBJ)
+          stack[sp++] = operand == operand2;
+        else
+          stack[sp++] = Double.compare((Double) operand2, (Double) operand) == 0;
+        break;
+      }
+
+      case DCMPNE: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        if (operand == NIL_OBJ || operand2 == NIL_OBJ)
+          stack[sp++] = operand != operand2;
+        else
+          stack[sp++] = Double.compare((Double) operand2, (Double) operand) != 0;
+        break;
+      }
+
+      case SCMPLT: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        ensureNotNil(frame, operand);
+        ensureNotNil(frame, operand2);
+        stack[sp++] = ((String) operand2).compareTo((String) operand) < 0;
+        break;
+      }
+
+      case SCMPLE: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        ensureNotNil(frame, operand);
+        ensureNotNil(frame, operand2);
+        stack[sp++] = ((String) operand2).compareTo((String) operand) <= 0;
+        break;
+      }
+
+      case SCMPGT: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        ensureNotNil(frame, operand);
+        ensureNotNil(frame, operand2);
+        stack[sp++] = ((String) operand2).compareTo((String) operand) > 0;
+        break;
+      }
+
+      case SCMPGE: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        ensureNotNil(frame, operand);
+        ensureNotNil(frame, operand2);
+        stack[sp++] = ((String) operand2).compareTo((String) operand) >= 0;
+        break;
+      }
+
+      case SCMPEQ: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        if (operand == NIL_OBJ || operand2 == NIL_OBJ)
+          stack[sp++] = operand == operand2;
+        else
+          stack[sp++] = operand2.equals(operand);
+        break;
+      }
+
+      case SCMPNE: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        if (operand == NIL_OBJ || operand2 == NIL_OBJ)
+          stack[sp++] = operand != operand2;
+        else
+          stack[sp++] = !operand2.equals(operand);
+        break;
+      }
+
+      // ------------------------------------------------------------
+      // Unchecked Typed Ops (the operands were proven to be non-nil)
+      // ------------------------------------------------------------
+
+      case IADDU: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        stack[sp++] = (Integer) operand2 + (Integer) operand;
+        break;
+      }
+
+      case DADDU: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        stack[sp++] = (Double) operand2 + (Double) operand;
+        break;
+      }
+
+      case SCONCATU: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        stack[sp++] = ((String) operand2).concat((String) operand);
+        break;
+      }
+
+      case ISUBU: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        stack[sp++] = (Integer) operand2 - (Integer) operand;
+        break;
+      }
+
+      case DSUBU: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        stack[sp++] = (Double) operand2 - (Double) operand;
+        break;
+      }
+
+      case IMULU: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        stack[sp++] = (Integer) operand2 * (Integer) operand;
+        break;
+      }
+
+      case DMULU: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        stack[sp++] = (Double) operand2 * (Double) operand;
+        break;
+      }
+
+      case IDIVU: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        stack[sp++] = (Integer) operand2 / (Integer) operand;
+        break;
+      }
+
+      case DDIVU: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        stack[sp++] = (Double) operand2 / (Double) operand;
+        break;
+      }
+
+      case INEGU: {
+        Object operand = stack[--sp];
+        stack[sp++] = -((Integer) operand);
+        break;
+      }
+
+      case DNEGU: {
+        Object operand = stack[--sp];
+        stack[sp++] = -((Double) operand);
+        break;
+      }
+
+      case ICMPLTU: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        stack[sp++] = (Integer) operand2 < (Integer) operand;
+        break;
+      }
+
+      case ICMPLEU: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        stack[sp++] = (Integer) operand2 <= (Integer) operand;
+        break;
+      }
+
+      case ICMPGTU: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        stack[sp++] = (Integer) operand2 > (Integer) operand;
+        break;
+      }
+
+      case ICMPGEU: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        stack[sp++] = (Integer) operand2 >= (Integer) operand;
+        break;
+      }
+
+      case ICMPEQU: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        stack[sp++] = ((Integer) operand2).intValue() == (Integer) operand;
+        break;
+      }
+
+      case ICMPNEU: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        stack[sp++] = ((Integer) operand2).intValue() != (Integer) operand;
+        break;
+      }
+
+      case DCMPLTU: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        stack[sp++] = (Double) operand2 < (Double) operand;
+        break;
+      }
+
+      case DCMPLEU: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        stack[sp++] = (Double) operand2 <= (Double) operand;
+        break;
+      }
+
+      case DCMPGTU: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        stack[sp++] = (Double) operand2 > (Double) operand;
+        break;
+      }
+
+      case DCMPGEU: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        stack[sp++] = (Double) operand2 >= (Double) operand;
+        break;
+      }
+
+      case DCMPEQU: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        stack[sp++] = Double.compare((Double) operand2, (Double) operand) == 0;
+        break;
+      }
+
+      case DCMPNEU: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        stack[sp++] = Double.compare((Double) operand2, (Double) operand) != 0;
+        break;
+      }
+
+      case SCMPLTU: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        stack[sp++] = ((String) operand2).compareTo((String) operand) < 0;
+        break;
+      }
+
+      case SCMPLEU: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        stack[sp++] = ((String) operand2).compareTo((String) operand) <= 0;
+        break;
+      }
+
+      case SCMPGTU: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        stack[sp++] = ((String) operand2).compareTo((String) operand) > 0;
+        break;
+      }
+
+      case SCMPGEU: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        stack[sp++] = ((String) operand2).compareTo((String) operand) >= 0;
+        break;
+      }
+
+      case SCMPEQU: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        stack[sp++] = operand2.equals(operand);
+        break;
+      }
+
+      case SCMPNEU: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        stack[sp++] = !operand2.equals(operand);
+        break;
       }
 
       // ------------------------------------------------------------
       // Ops
       // ------------------------------------------------------------
 
-      else if (instr.opcode() == OpCode.ADD) {
-        Object operand = frame.operandStack.pop();
-        Object operand2 = frame.operandStack.pop();
+      case ADD: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
         ensureNotNil(frame, operand);
         ensureNotNil(frame, operand2);
         if (operand instanceof Integer && operand2 instanceof Integer) {
-          frame.operandStack.push((Integer) operand + (Integer) operand2);
+          stack[sp++] = (Integer) operand + (Integer) operand2;
         } else if (operand instanceof Double && operand2 instanceof Double) {
-          frame.operandStack.push((Double) operand + (Double) operand2);
+          stack[sp++] = (Double) operand + (Double) operand2;
         } else if (operand instanceof String && operand2 instanceof String) {
-          frame.operandStack.push((String) operand2 + (String) operand);
+          stack[sp++] = (String) operand2 + (String) operand;
         } else {
           // throw MyPLException.VMError("Invalid operands for ADD");
         }
+        break;
       }
 
-      else if (instr.opcode() == OpCode.SUB) {
-        Object operand = frame.operandStack.pop();
-        Object operand2 = frame.operandStack.pop();
+      case SUB: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
         ensureNotNil(frame, operand);
         ensureNotNil(frame, operand2);
         if (operand instanceof Integer && operand2 instanceof Integer) {
-          frame.operandStack.push((Integer) operand2 - (Integer) operand);
+          stack[sp++] = (Integer) operand2 - (Integer) operand;
         } else if (operand instanceof Double && operand2 instanceof Double) {
-          frame.operandStack.push((Double) operand2 - (Double) operand);
+          stack[sp++] = (Double) operand2 - (Double) operand;
         } else {
           error("Invalid operands for SUB", frame);
         }
+        break;
       }
 
-      else if (instr.opcode() == OpCode.MUL) {
-        Object operand = frame.operandStack.pop();
-        Object operand2 = frame.operandStack.pop();
+      case MUL: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
         ensureNotNil(frame, operand);
         ensureNotNil(frame, operand2);
         if (operand instanceof Integer && operand2 instanceof Integer) {
-          frame.operandStack.push((Integer) operand * (Integer) operand2);
+          stack[sp++] = (Integer) operand * (Integer) operand2;
         } else if (operand instanceof Double && operand2 instanceof Double) {
-          frame.operandStack.push((Double) operand * (Double) operand2);
+          stack[sp++] = (Double) operand * (Double) operand2;
         } else {
           error("Invalid operands for MUL", frame);
         }
+        break;
       }
 
-      else if (instr.opcode() == OpCode.DIV) {
-        Object operand = frame.operandStack.pop();
-        Object operand2 = frame.operandStack.pop();
+      case DIV: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
         ensureNotNil(frame, operand);
         ensureNotNil(frame, operand2);
         if (operand instanceof Integer && operand2 instanceof Integer) {
-          frame.operandStack.push((Integer) operand2 / (Integer) operand);
+          stack[sp++] = (Integer) operand2 / (Integer) operand;
         } else if (operand instanceof Double && operand2 instanceof Double) {
-          frame.operandStack.push((Double) operand2 / (Double) operand);
+          stack[sp++] = (Double) operand2 / (Double) operand;
         } else {
           error("Invalid operands for DIV", frame);
         }
+        break;
       }
 
-      else if (instr.opcode() == OpCode.MOD) {
-        Object operand = frame.operandStack.pop();
-        Object operand2 = frame.operandStack.pop();
+      case MOD: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
         ensureNotNil(frame, operand);
         ensureNotNil(frame, operand2);
-        frame.operandStack.push((Integer) operand2 % (Integer) operand);
+        stack[sp++] = (Integer) operand2 % (Integer) operand;
+        break;
       }
 
-      else if (instr.opcode() == OpCode.AND) {
-        Object operand = frame.operandStack.pop();
-        Object operand2 = frame.operandStack.pop();
+      case AND: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
         ensureNotNil(frame, operand);
         ensureNotNil(frame, operand2);
-        frame.operandStack.push((Boolean) operand && (Boolean) operand2);
+        stack[sp++] = (Boolean) operand && (Boolean) operand2;
+        break;
       }
 
-      else if (instr.opcode() == OpCode.OR) {
-        Object operand = frame.operandStack.pop();
-        Object operand2 = frame.operandStack.pop();
+      case OR: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
         ensureNotNil(frame, operand);
         ensureNotNil(frame, operand2);
-        frame.operandStack.push((Boolean) operand || (Boolean) operand2);
+        stack[sp++] = (Boolean) operand || (Boolean) operand2;
+        break;
       }
 
-      else if (instr.opcode() == OpCode.NOT) {
-        Object operand = frame.operandStack.pop();
+      case NOT: {
+        Object operand = stack[--sp];
         ensureNotNil(frame, operand);
-        frame.operandStack.push(!(Boolean) operand);
+        stack[sp++] = !(Boolean) operand;
+        break;
       }
 
-      else if (instr.opcode() == OpCode.CMPLT) {
-        Object operand = frame.operandStack.pop();
-        Object operand2 = frame.operandStack.pop();
+      case CMPLT: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
         ensureNotNil(frame, operand);
         ensureNotNil(frame, operand2);
         if (operand instanceof Integer && operand2 instanceof Integer) {
-          frame.operandStack.push((Integer) operand2 < (Integer) operand);
+          stack[sp++] = (Integer) operand2 < (Integer) operand;
         } else if (operand instanceof Double && operand2 instanceof Double) {
-          frame.operandStack.push((Double) operand2 < (Double) operand);
+          stack[sp++] = (Double) operand2 < (Double) operand;
         } else if (operand instanceof String && operand2 instanceof String) {
-          frame.operandStack.push(((String) operand2).compareTo((String) operand) < 0);
+          stack[sp++] = ((String) operand2).compareTo((String) operand) < 0;
         } else {
           error("Invalid operands for CMPLT", frame);
         }
+        break;
       }
 
-      else if (instr.opcode() == OpCode.CMPLE) {
-        Object operand = frame.operandStack.pop();
-        Object operand2 = frame.operandStack.pop();
+      case CMPLE: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
         ensureNotNil(frame, operand);
         ensureNotNil(frame, operand2);
         if (operand instanceof Integer && operand2 instanceof Integer) {
-          frame.operandStack.push((Integer) operand2 <= (Integer) operand);
+          stack[sp++] = (Integer) operand2 <= (Integer) operand;
         } else if (operand instanceof Double && operand2 instanceof Double) {
-          frame.operandStack.push((Double) operand2 <= (Double) operand);
+          stack[sp++] = (Double) operand2 <= (Double) operand;
         } else if (operand instanceof String && operand2 instanceof String) {
-          frame.operandStack.push(((String) operand2).compareTo((String) operand) <= 0);
+          stack[sp++] = ((String) operand2).compareTo((String) operand) <= 0;
         } else {
           error("Invalid operands for CMPLE", frame);
         }
+        break;
       }
 
-      else if (instr.opcode() == OpCode.CMPGT) {
-        Object operand = frame.operandStack.pop();
-        Object operand2 = frame.operandStack.pop();
+      case CMPGT: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
         ensureNotNil(frame, operand);
         ensureNotNil(frame, operand2);
         if (operand instanceof Integer && operand2 instanceof Integer) {
-          frame.operandStack.push((Integer) operand2 > (Integer) operand);
+          stack[sp++] = (Integer) operand2 > (Integer) operand;
         } else if (operand instanceof Double && operand2 instanceof Double) {
-          frame.operandStack.push((Double) operand2 > (Double) operand);
+          stack[sp++] = (Double) operand2 > (Double) operand;
         } else if (operand instanceof String && operand2 instanceof String) {
-          frame.operandStack.push(((String) operand2).compareTo((String) operand) > 0);
+          stack[sp++] = ((String) operand2).compareTo((String) operand) > 0;
         } else {
           error("Invalid operands for CMPGT", frame);
         }
+        break;
       }
 
-      else if (instr.opcode() == OpCode.CMPGE) {
-        Object operand = frame.operandStack.pop();
-        Object operand2 = frame.operandStack.pop();
+      case CMPGE: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
         ensureNotNil(frame, operand);
         ensureNotNil(frame, operand2);
         if (operand instanceof Integer && operand2 instanceof Integer) {
-          frame.operandStack.push((Integer) operand2 >= (Integer) operand);
+          stack[sp++] = (Integer) operand2 >= (Integer) operand;
         } else if (operand instanceof Double && operand2 instanceof Double) {
-          frame.operandStack.push((Double) operand2 >= (Double) operand);
+          stack[sp++] = (Double) operand2 >= (Double) operand;
         } else if (operand instanceof String && operand2 instanceof String) {
-          frame.operandStack.push(((String) operand2).compareTo((String) operand) >= 0);
+          stack[sp++] = ((String) operand2).compareTo((String) operand) >= 0;
         } else {
           error("Invalid operands for CMPGE", frame);
         }
+        break;
       }
 
-      else if (instr.opcode() == OpCode.CMPEQ) {
-        Object operand = frame.operandStack.pop();
-        Object operand2 = frame.operandStack.pop();
+      case CMPEQ: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
         if (operand instanceof Integer && operand2 instanceof Integer) {
-          frame.operandStack.push((Integer) operand2 == (Integer) operand);
+          stack[sp++] = ((Integer) operand2).intValue() == (Integer) operand;
         } else if (operand instanceof Double && operand2 instanceof Double) {
           boolean result = Double.compare((Double) operand, (Double) operand2) == 0;
-          frame.operandStack.push(result);
+          stack[sp++] = result;
         } else if (operand instanceof String && operand2 instanceof String) {
-          frame.operandStack.push(((String) operand2).compareTo((String) operand) == 0);
+          stack[sp++] = ((String) operand2).compareTo((String) operand) == 0;
         } else {
-          frame.operandStack.push((operand == operand2));
+          stack[sp++] = (operand == operand2);
         }
+        break;
       }
 
-      else if (instr.opcode() == OpCode.CMPNE) {
-        Object operand = frame.operandStack.pop();
-        Object operand2 = frame.operandStack.pop();
+      case CMPNE: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
         if (operand instanceof Integer && operand2 instanceof Integer) {
-          frame.operandStack.push((Integer) operand2 != (Integer) operand);
+          stack[sp++] = ((Integer) operand2).intValue() != (Integer) operand;
         } else if (operand instanceof Double && operand2 instanceof Double) {
-          frame.operandStack.push(Double.compare((Double) operand2, (Double) operand) != 0);
+          stack[sp++] = Double.compare((Double) operand2, (Double) operand) != 0;
         } else if (operand instanceof String && operand2 instanceof String) {
-          frame.operandStack.push(((String) operand2).compareTo((String) operand) != 0);
+          stack[sp++] = ((String) operand2).compareTo((String) operand) != 0;
         } else {
-          frame.operandStack.push(operand != operand2);
+          stack[sp++] = operand != operand2;
         }
+        break;
       }
 
-      else if (instr.opcode() == OpCode.NEG) {
-        Object operand = frame.operandStack.pop();
+      case NEG: {
+        Object operand = stack[--sp];
         if (operand instanceof Integer)
-          frame.operandStack.push(-((Integer) operand));
+          stack[sp++] = -((Integer) operand);
         else if (operand instanceof Double)
-          frame.operandStack.push(-((Double) operand));
+          stack[sp++] = -((Double) operand);
         else
           error("Expecting integer or double for neg", frame);
+        break;
       }
 
       // ------------------------------------------------------------
       // Jumps
       // ------------------------------------------------------------
 
-      else if (instr.opcode() == OpCode.JMP) {
-        frame.pc = (int) instr.operand();
+      case JMP: {
+        int target = (int) instr.operand();
+        // only loops can run unbounded, so check the budget on back-edges
+        if (target < frame.pc)
+          instrCount = ensureWithinBudget(frame, instrCount);
+        frame.pc = target;
+        break;
       }
 
-      else if (instr.opcode() == OpCode.JMPF) {
+      case JMPF: {
         Object operand = instr.operand();
-        Object stackItem = frame.operandStack.pop();
+        Object stackItem = stack[--sp];
         if (((Boolean) stackItem).booleanValue() == false)
           frame.pc = (int) operand;
+        break;
+      }
+
+      case JMPFK: {
+        Object stackItem = stack[sp - 1];
+        ensureNotNil(frame, stackItem);
+        if (((Boolean) stackItem).booleanValue() == false)
+          frame.pc = (int) instr.operand();
+        else
+          --sp;
+        break;
+      }
+
+      case JMPTK: {
+        Object stackItem = stack[sp - 1];
+        ensureNotNil(frame, stackItem);
+        if (((Boolean) stackItem).booleanValue() == true)
+          frame.pc = (int) instr.operand();
         else
-          frame.operandStack.push(stackItem);
+          --sp;
+        break;
       }
 
       // ------------------------------------------------------------
       // Functions
       // ------------------------------------------------------------
 
-      else if (instr.opcode() == OpCode.CALL) {
+      case CALL: {
         // (1) get frame and instantiate a new copy
-        // (2) Pop argument values off stack and push into the newFrame
-        // (3) Push the new frame onto frame stack
-        // (4) Set the new frame as the current frame
-        VMFrame newFrame = frames.get(instr.operand()).instantiate();
-        for (int i = 0; i < newFrame.argCount(); i++) {
-          newFrame.operandStack.push(frame.operandStack.pop());
-        }
+        // (2) Start the new frame's window at the first argument, so
+        //     the arguments become its first local variables
+        // (3) Reserve (nil) slots for the rest of its local variables
+        // (4) Push the new frame onto frame stack and make it current
+        instrCount = ensureWithinBudget(frame, instrCount);
+        VMFrame newFrame = program.get((String) instr.operand()).instantiate();
+        newFrame.fp = sp - newFrame.argCount();
+        int localsEnd = newFrame.fp + newFrame.localCount();
+        if (windowEnd(newFrame) > stack.length)
+          stack = Arrays.copyOf(stack, 2 * windowEnd(newFrame));
+        while (sp < localsEnd)
+          stack[sp++] = NIL_OBJ;
         frameStack.push(newFrame);
         frame = newFrame;
+        break;
       }
 
-      else if (instr.opcode() == OpCode.VRET) {
+      case VRET: {
         // (1) pop return value off of stack
-        // (2) remove the frame from the current frameStack
+        // (2) remove the frame (and its window) from the stacks
         // (3) set frame to the frame on the top of the stack
         // (4) push the return value onto the operand stack of the frame
-        Object returnValue = frame.operandStack.pop();
+        Object returnValue = stack[--sp];
+        Arrays.fill(stack, frame.fp, sp, null);
+        sp = frame.fp;
         frameStack.pop();
         frame = frameStack.peek();
         if (frame != null)
-          frame.operandStack.push(returnValue);
+          stack[sp++] = returnValue;
+        else
+          returnResult = returnValue;
+        break;
+      }
+
+      case SPAWN: {
+        // same argument passing as CALL, but the new frame is run as a
+        // separate task (with its own stack) and its handle is pushed
+        VMFrame taskFrame = program.get((String) instr.operand()).instantiate();
+        sp -= taskFrame.argCount();
+        Object[] args = Arrays.copyOfRange(stack, sp, sp + taskFrame.argCount());
+        Arrays.fill(stack, sp, sp + taskFrame.argCount(), null);
+        ForkJoinTask<Object> task = ForkJoinTask.adapt(() -> {
+            try {
+              return execute(taskFrame, args, new Object[0], output);
+            } finally {
+              runningTasks.decrementAndGet();
+            }
+          });
+        runningTasks.incrementAndGet();
+        stack[sp++] = task.fork();
+        break;
+      }
+
+      case PARFOR: {
+        Object end = stack[--sp];
+        Object start = stack[--sp];
+        ensureNotNil(frame, end);
+        ensureNotNil(frame, start);
+        // (the chunks add their own counts to the run's)
+        instrCount = ensureWithinBudget(frame, instrCount);
+        Object[] frameLocals = Arrays.copyOfRange(stack, frame.fp,
+                                                  frame.fp + frame.localCount());
+        parallelFor(frame, frameLocals, (String) instr.operand(), (Integer) start,
+                    (Integer) end, output);
+        break;
+      }
+
+      case JOIN: {
+        Object task = stack[--sp];
+        ensureNotNil(frame, task);
+        stack[sp++] = join((ForkJoinTask<?>) task);
+        break;
       }
 
       // ------------------------------------------------------------
       // Built-ins
       // ------------------------------------------------------------
 
-      else if (instr.opcode() == OpCode.WRITE) {
-        System.out.print(String.valueOf(frame.operandStack.pop()));
+      case WRITE: {
+        output.print(String.valueOf(stack[--sp]));
+        break;
       }
 
-      else if (instr.opcode() == OpCode.READ) {
-        Scanner s = new Scanner(System.in);
-        frame.operandStack.push(s.nextLine());
+      case READ: {
+        synchronized (this) {
+          if (scanner == null)
+            scanner = new Scanner(in);
+          stack[sp++] = scanner.nextLine();
+        }
+        break;
       }
 
-      else if (instr.opcode() == OpCode.LEN) {
-        String str = (String) frame.operandStack.pop();
-        frame.operandStack.push(str.length());
+      case LEN: {
+        String str = (String) stack[--sp];
+        stack[sp++] = str.length();
+        break;
       }
 
-      else if (instr.opcode() == OpCode.GETCHR) {
-        String operand = (String) frame.operandStack.pop();
-        Integer operand2 = (Integer) frame.operandStack.pop();
+      case GETCHR: {
+        String operand = (String) stack[--sp];
+        Integer operand2 = (Integer) stack[--sp];
         if (operand2.intValue() < 0 || operand2.intValue() >= operand.length()) {
           error("Index out of bounds", frame);
         }
 
-        frame.operandStack.push(String.valueOf((operand).charAt(operand2)));
+        stack[sp++] = String.valueOf((operand).charAt(operand2));
+        break;
       }
 
-      else if (instr.opcode() == OpCode.TOINT) {
-        Object operand = frame.operandStack.pop();
+      case GETCHRU: {
+        String operand = (String) stack[--sp];
+        Integer operand2 = (Integer) stack[--sp];
+        stack[sp++] = String.valueOf(operand.charAt(operand2));
+        break;
+      }
+
+      case TOINT: {
+        Object operand = stack[--sp];
         if (operand instanceof String)
           try {
-            frame.operandStack.push(Integer.parseInt((String) operand));
+            stack[sp++] = Integer.parseInt((String) operand);
           } catch (NumberFormatException e) {
             error("Invalid string to int conversion", frame);
           }
         else if (operand instanceof Double)
-          frame.operandStack.push(((Double) operand).intValue());
+          stack[sp++] = ((Double) operand).intValue();
         else if (operand instanceof Integer)
-          frame.operandStack.push((Integer) operand);
+          stack[sp++] = (Integer) operand;
         else
           error("Invalid operand for TOINT", frame);
+        break;
       }
 
-      else if (instr.opcode() == OpCode.TODBL) {
-        Object operand = frame.operandStack.pop();
+      case TODBL: {
+        Object operand = stack[--sp];
         if (operand instanceof String)
           try {
-            frame.operandStack.push(Double.parseDouble((String) operand));
+            stack[sp++] = Double.parseDouble((String) operand);
           } catch (NumberFormatException e) {
             error("Invalid string to double conversion", frame);
           }
         else if (operand instanceof Double)
-          frame.operandStack.push(((Double) operand));
+          stack[sp++] = ((Double) operand);
         else if (operand instanceof Integer)
-          frame.operandStack.push(((Integer) operand).doubleValue());
+          stack[sp++] = ((Integer) operand).doubleValue();
+        break;
       }
 
-      else if (instr.opcode() == OpCode.TOSTR) {
-        Object operand = frame.operandStack.pop();
-        frame.operandStack.push(operand.toString());
+      case TOSTR: {
+        Object operand = stack[--sp];
+        stack[sp++] = operand.toString();
+        break;
       }
 
       // ------------------------------------------------------------
       // Heap related
       // ------------------------------------------------------------
 
-      else if (instr.opcode() == OpCode.ALLOC) {
-        heap.put(objectId, new HashMap<>());
-        frame.operandStack.push(objectId++);
+      case ALLOC: {
+        if (maxHeapObjects > 0 && heap.size() >= maxHeapObjects)
+          error("Heap object limit of " + maxHeapObjects + " exceeded", frame);
+        int oid = objectId.getAndIncrement();
+        heap.put(oid, new ConcurrentHashMap<>());
+        stack[sp++] = oid;
+        break;
       }
 
-      else if (instr.opcode() == OpCode.FREE) {
+      case FREE: {
         // pop the oid to
-        Object oid = frame.operandStack.pop();
+        Object oid = stack[--sp];
         ensureNotNil(frame, oid);
         // remove the object with oid from the heap
         heap.remove((int) oid);
+        break;
       }
 
-      else if (instr.opcode() == OpCode.SETFLD) {
-        Object toAdd = frame.operandStack.pop();
-        Object oid = frame.operandStack.pop();
+      case SETFLD: {
+        Object toAdd = stack[--sp];
+        Object oid = stack[--sp];
         Map<String, Object> fieldMap = heap.get((Integer) oid);
         fieldMap.put((String) instr.operand(), toAdd);
+        break;
       }
 
-      else if (instr.opcode() == OpCode.GETFLD) {
-        Integer oid = (Integer) frame.operandStack.pop();
-        if (!heap.containsKey(oid))
+      case GETFLD: {
+        Integer oid = (Integer) stack[--sp];
+        Map<String, Object> fieldMap = heap.get(oid);
+        if (fieldMap == null)
           error("Invalid object reference", frame);
-        heap.get(oid).get((String) instr.operand());
-        frame.operandStack.push(heap.get(oid).get((String) instr.operand()));
+        stack[sp++] = fieldMap.get((String) instr.operand());
+        break;
       }
 
       // ------------------------------------------------------------
       // Special instructions
       // ------------------------------------------------------------
 
-      else if (instr.opcode() == OpCode.DUP) {
-        Object operand = frame.operandStack.pop();
-        frame.operandStack.push(operand);
-        frame.operandStack.push(operand);
+      case DUP: {
+        Object operand = stack[--sp];
+        stack[sp++] = operand;
+        stack[sp++] = operand;
+        break;
       }
 
-      else if (instr.opcode() == OpCode.SWAP) {
-        Object operand = frame.operandStack.pop();
-        Object operand2 = frame.operandStack.pop();
-        frame.operandStack.push(operand);
-        frame.operandStack.push(operand2);
+      case SWAP: {
+        Object operand = stack[--sp];
+        Object operand2 = stack[--sp];
+        stack[sp++] = operand;
+        stack[sp++] = operand2;
+        break;
       }
 
-      else if (instr.opcode() == OpCode.NOP) {
+      case NOP: {
         // NOTHING HERE
+        break;
       }
 
 
@@ -500,43 +1327,74 @@ class VM {
       // Timing instructions
       // ------------------------------------------------------------
       
-      // Asks the frame to start timing.
-      else if (instr.opcode() == OpCode.TIMESTART) {
-        frame.startTime();
+      // Starts a new (possibly nested) timer with the given name.
+      case TIMESTART: {
+        Object name = stack[--sp];
+        ensureNotNil(frame, name);
+        Deque<Long> starts = timerStarts.computeIfAbsent((String) name,
+            k -> new ConcurrentLinkedDeque<>());
+        starts.push(System.nanoTime());
+        break;
       }
 
-      // Asks the frame to stop timing.
-      else if (instr.opcode() == OpCode.TIMEEND) {
-        frame.endTime();
+      // Stops the most recently started timer with the given name.
+      case TIMEEND: {
+        long endTime = System.nanoTime();
+        Object name = stack[--sp];
+        ensureNotNil(frame, name);
+        Deque<Long> starts = timerStarts.get(name);
+        Long startTime = starts == null ? null : starts.pollFirst();
+        if (startTime == null)
+          error("No running timer '" + name + "'", frame);
+        timerDeltas.put((String) name, endTime - startTime);
+        break;
       }
 
-      // Pushes the elapsed time to the stack.
-      else if (instr.opcode() == OpCode.TIMEDELTA) {
-        int timeElapsed = frame.deltaTime();
-        if (timeElapsed < 0) {
+      // Pushes the elapsed time (in seconds) of the last stopped timer
+      // with the given name to the stack.
+      case TIMEDELTA: {
+        Object name = stack[--sp];
+        ensureNotNil(frame, name);
+        Long timeElapsed = timerDeltas.get(name);
+        if (timeElapsed == null || timeElapsed < 0)
           error("Invalid time delta", frame);
-        }
-        frame.operandStack.push(frame.deltaTime());
+        stack[sp++] = timeElapsed / 1e9;
+        break;
       }
 
+      // ------------------------------------------------------------
+      // Checkpoints
+      // ------------------------------------------------------------
+
+      // Saves the VM's state so that it can be resumed (just after
+      // this instruction) by VM.restore.
+      case CHECKPOINT: {
+        Object path = stack[--sp];
+        stack[sp] = null;
+        ensureNotNil(frame, path);
+        if (runningTasks.get() > 0)
+          error("Cannot checkpoint while tasks are running", frame);
+        VMCheckpoint checkpoint = new VMCheckpoint();
+        checkpoint.program = program;
+        checkpoint.heap = heap;
+        checkpoint.nextObjectId = objectId.get();
+        checkpoint.frameStack = frameStack;
+        checkpoint.stack = stack;
+        checkpoint.sp = sp;
+        checkpoint.write(checkpointPath(frame, (String) path));
+        break;
+      }
+
+      }
     }
+    instructionsRun.addAndGet(instrCount);
+    return returnResult;
   }
 
   // to print the lists of instructions for each VM Frame
   @Override
   public String toString() {
-    String s = "";
-    for (Map.Entry<String, VMFrame> e : frames.entrySet()) {
-      String funName = e.getKey();
-      s += "Frame '" + funName + "'\n";
-      List<VMInstr> instructions = e.getValue().instructions;
-      for (int i = 0; i < instructions.size(); ++i) {
-        VMInstr instr = instructions.get(i);
-        s += "  " + i + ": " + instr + "\n";
-      }
-      // s += "\n";
-    }
-    return s;
+    return program.toString();
   }
 
   // ----------------------------------------------------------------------
@@ -552,6 +1410,97 @@ class VM {
     throw MyPLException.VMError(m);
   }
 
+  // run the iterations start to end of the given parfor body frame by
+  // splitting them into one chunk per worker thread. Each chunk gets a
+  // copy of the enclosing frame's variables and its own output buffer,
+  // and the buffers are written out in iteration order.
+  private void parallelFor(VMFrame frame, Object[] locals, String body,
+                           int start, int end, PrintStream output)
+    throws MyPLException
+  {
+    long iterations = (long) end - start + 1;
+    if (iterations <= 0)
+      return;
+    int chunks = (int) Math.min(iterations, ForkJoinPool.getCommonPoolParallelism());
+    List<ForkJoinTask<Object>> tasks = new ArrayList<>();
+    List<ByteArrayOutputStream> buffers = new ArrayList<>();
+    for (int i = 0; i < chunks; ++i) {
+      int lo = (int) (start + iterations * i / chunks);
+      int hi = (int) (start + iterations * (i + 1) / chunks - 1);
+      VMFrame chunk = program.get(body).instantiate();
+      Object[] bounds = {lo, hi};
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+      PrintStream chunkOutput = new PrintStream(buffer);
+      tasks.add(ForkJoinTask.adapt(() -> {
+          try {
+            return execute(chunk, locals, bounds, chunkOutput);
+          } finally {
+            runningTasks.decrementAndGet();
+          }
+        }));
+      buffers.add(buffer);
+    }
+    runningTasks.addAndGet(chunks);
+    for (ForkJoinTask<Object> task : tasks)
+      task.fork();
+    for (int i = 0; i < chunks; ++i) {
+      join(tasks.get(i));
+      output.print(buffers.get(i).toString());
+    }
+  }
+
+  // wait for a spawned task and return its result, passing on any
+  // runtime error raised by the task
+  private Object join(ForkJoinTask<?> task) throws MyPLException {
+    try {
+      return task.join();
+    } catch (RuntimeException e) {
+      for (Throwable t = e; t != null; t = t.getCause())
+        if (t instanceof MyPLException)
+          throw (MyPLException) t;
+      throw e;
+    }
+  }
+
+  // the end of the given frame's window on the value stack (its
+  // locals and most operands). The verifier guarantees the frame never
+  // uses more, so the stack is only grown on calls.
+  private static int windowEnd(VMFrame f) {
+    return f.fp + f.localCount() + f.maxStack();
+  }
+
+  // add the given number of instructions to the run's count, error if
+  // more than the allowed number have run (in all of the run's tasks),
+  // and return the new (zero) count of instructions not yet added
+  private long ensureWithinBudget(VMFrame f, long instrCount) throws MyPLException {
+    if (maxInstructions > 0 && instructionsRun.addAndGet(instrCount) > maxInstructions)
+      error("Instruction budget of " + maxInstructions + " exceeded", f);
+    return maxInstructions > 0 ? 0 : instrCount;
+  }
+
+  // the file to write the checkpoint with the given path to, error if
+  // checkpoints are off or the path leads out of the checkpoint
+  // directory
+  private String checkpointPath(VMFrame f, String path) throws MyPLException {
+    if (!checkpointsEnabled)
+      error("Checkpoints are disabled", f);
+    if (checkpointDir == null)
+      return path;
+    try {
+      // (the real paths, so symbolic links can't lead out either)
+      Path dir = checkpointDir.toRealPath();
+      Path file = dir.resolve(path).normalize();
+      Path parent = file.getParent();
+      if (parent != null && Files.isDirectory(parent) &&
+          parent.toRealPath().startsWith(dir) && !Files.isSymbolicLink(file))
+        return file.toString();
+    } catch (IOException e) {
+      // (no such directory)
+    }
+    error("Checkpoint '" + path + "' is outside of " + checkpointDir, f);
+    return null;
+  }
+
   // error if given value is nil
   private void ensureNotNil(VMFrame f, Object v) throws MyPLException {
     if (v == NIL_OBJ)
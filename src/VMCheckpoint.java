@@ -0,0 +1,141 @@
+/*
+ * File: VMCheckpoint.java
+ * Date: Spring 2022
+ * Auth: Cameron S. Williamson
+ * Desc: A snapshot of a running VM (its program, heap, call stack, and
+ *       value stack) that can be written to a compact binary file and
+ *       later read back, possibly by a different process, to resume
+ *       the program where the snapshot was taken. Checkpoint files
+ *       are read by memory-mapping them, so even large heap images
+ *       load without extra copying through stream buffers.
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+public class VMCheckpoint {
+
+  // identifies checkpoint files (and their format version)
+  private static final byte[] MAGIC = "MYPLCKPT".getBytes(StandardCharsets.US_ASCII);
+  private static final int VERSION = 7;
+
+  // the program being run
+  public VMProgram program;
+
+  // the heap objects by object-id
+  public Map<Integer, Map<String, Object>> heap;
+
+  // the next available object-id
+  public int nextObjectId;
+
+  // the call stack (current frame on top), with each frame's pc and fp
+  public Deque<VMFrame> frameStack;
+
+  // the value stack, and the number of values on it
+  public Object[] stack;
+  public int sp;
+
+  /**
+   * Write the checkpoint to the given file.
+   *
+   * @param path the file to write
+   */
+  public void write(String path) throws MyPLException {
+    try (DataOutputStream out = new DataOutputStream(
+           new BufferedOutputStream(new FileOutputStream(path)))) {
+      out.write(MAGIC);
+      out.writeInt(VERSION);
+      // the program
+      program.write(out);
+      // the heap
+      out.writeInt(nextObjectId);
+      out.writeInt(heap.size());
+      for (Map.Entry<Integer, Map<String, Object>> obj : heap.entrySet()) {
+        out.writeInt(obj.getKey());
+        out.writeInt(obj.getValue().size());
+        for (Map.Entry<String, Object> field : obj.getValue().entrySet()) {
+          VMProgram.writeString(out, field.getKey());
+          VMProgram.writeValue(out, field.getValue());
+        }
+      }
+      // the call stack (from the bottom frame up)
+      out.writeInt(frameStack.size());
+      Iterator<VMFrame> frames = frameStack.descendingIterator();
+      while (frames.hasNext()) {
+        VMFrame frame = frames.next();
+        VMProgram.writeString(out, frame.functionName());
+        out.writeInt(frame.pc);
+        out.writeInt(frame.fp);
+      }
+      // the value stack
+      out.writeInt(sp);
+      for (int i = 0; i < sp; ++i)
+        VMProgram.writeValue(out, stack[i]);
+    } catch (IOException e) {
+      throw MyPLException.VMError("Unable to write checkpoint '" + path + "'");
+    }
+  }
+
+  /**
+   * Read a checkpoint from the given file.
+   *
+   * @param path the file to read
+   * @return the checkpoint
+   */
+  public static VMCheckpoint read(String path) throws MyPLException {
+    ByteBuffer in = VMProgram.map(path, "checkpoint");
+    try {
+      byte[] magic = new byte[MAGIC.length];
+      in.get(magic);
+      if (!Arrays.equals(magic, MAGIC) || in.getInt() != VERSION)
+        throw MyPLException.VMError("Invalid checkpoint '" + path + "'");
+      VMCheckpoint checkpoint = new VMCheckpoint();
+      // the program
+      checkpoint.program = VMProgram.read(in);
+      // the heap
+      checkpoint.nextObjectId = in.getInt();
+      checkpoint.heap = new ConcurrentHashMap<>();
+      int objectCount = in.getInt();
+      for (int i = 0; i < objectCount; ++i) {
+        int oid = in.getInt();
+        Map<String, Object> obj = new ConcurrentHashMap<>();
+        int fieldCount = in.getInt();
+        for (int j = 0; j < fieldCount; ++j)
+          obj.put(VMProgram.readString(in), VMProgram.readValue(in));
+        checkpoint.heap.put(oid, obj);
+      }
+      // the call stack
+      checkpoint.frameStack = new ArrayDeque<>();
+      int depth = in.getInt();
+      for (int i = 0; i < depth; ++i) {
+        String funName = VMProgram.readString(in);
+        if (!checkpoint.program.contains(funName))
+          throw MyPLException.VMError("Invalid checkpoint '" + path + "'");
+        VMFrame frame = checkpoint.program.get(funName).instantiate();
+        frame.pc = in.getInt();
+        frame.fp = in.getInt();
+        checkpoint.frameStack.push(frame);
+      }
+      // the value stack
+      checkpoint.sp = in.getInt();
+      checkpoint.stack = new Object[checkpoint.sp];
+      for (int i = 0; i < checkpoint.sp; ++i)
+        checkpoint.stack[i] = VMProgram.readValue(in);
+      return checkpoint;
+    } catch (RuntimeException e) {
+      // truncated file, unknown opcode or tag, etc.
+      throw MyPLException.VMError("Invalid checkpoint '" + path + "'");
+    }
+  }
+}
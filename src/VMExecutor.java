@@ -0,0 +1,111 @@
+/*
+ * File: VMExecutor.java
+ * Date: Spring 2022
+ * Auth: Cameron S. Williamson
+ * Desc: Runs many executions of one compiled MyPL program at once,
+ *       each with its own input and output streams. Each execution
+ *       gets its own thread, which is a virtual thread when the JVM
+ *       supports them, so that executions blocked in READ are parked
+ *       cheaply instead of holding on to a platform thread.
+ */
+
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+
+public class VMExecutor implements AutoCloseable {
+
+  // the compiled program shared by every execution
+  private VMProgram program;
+
+  // runs each submitted execution on its own thread
+  private ExecutorService executor;
+
+  // true if the executor creates virtual threads
+  private boolean virtualThreads;
+
+  /**
+   * Create an executor for the given program.
+   *
+   * @param program the compiled program to run
+   */
+  public VMExecutor(VMProgram program) {
+    this.program = program;
+    // virtual threads are only available starting with Java 21, so
+    // look the factory up reflectively and otherwise fall back to
+    // one platform thread per execution
+    try {
+      Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      executor = (ExecutorService) factory.invoke(null);
+      virtualThreads = true;
+    } catch (ReflectiveOperationException e) {
+      executor = Executors.newCachedThreadPool();
+      virtualThreads = false;
+    }
+  }
+
+  /**
+   * Returns true if executions run on virtual threads.
+   */
+  public boolean usesVirtualThreads() {
+    return virtualThreads;
+  }
+
+  /**
+   * Start a new execution of the program. Runtime errors are reported
+   * through the returned future (as the cause of its
+   * ExecutionException).
+   *
+   * @param in the stream READ takes input from
+   * @param out the stream WRITE sends output to
+   * @return a future that completes when the execution finishes
+   */
+  public Future<Void> submit(InputStream in, PrintStream out) {
+    return submit(in, out, 0, 0);
+  }
+
+  /**
+   * Start a new execution of the program with limits on what it may
+   * use (see VM.setInstructionBudget and VM.setMaxHeapObjects).
+   * Exceeding a limit is a runtime error.
+   *
+   * @param in the stream READ takes input from
+   * @param out the stream WRITE sends output to
+   * @param maxInstructions the instruction budget (0 for no limit)
+   * @param maxHeapObjects the heap object cap (0 for no limit)
+   * @return a future that completes when the execution finishes
+   */
+  public Future<Void> submit(InputStream in, PrintStream out, long maxInstructions,
+                             int maxHeapObjects)
+  {
+    return executor.submit(() -> {
+      VM vm = new VM(program, in, out);
+      vm.setInstructionBudget(maxInstructions);
+      vm.setMaxHeapObjects(maxHeapObjects);
+      vm.run();
+      return null;
+    });
+  }
+
+  /**
+   * Stop accepting new executions and wait for the running ones to
+   * finish. If the calling thread is interrupted while waiting, close
+   * returns early with the thread's interrupt flag set (and the
+   * executions keep running).
+   */
+  @Override
+  public void close() {
+    executor.shutdown();
+    try {
+      while (!executor.awaitTermination(1, TimeUnit.SECONDS))
+        ;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
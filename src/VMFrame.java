@@ -7,8 +7,6 @@
 
 
 import java.util.ArrayList;
-import java.util.ArrayDeque;
-import java.util.Deque;
 import java.util.List;
 
 
@@ -16,8 +14,9 @@ import java.util.List;
 /**
  * Each VMFrame corresponds to an executable MyPL function. A frame
  *  consists of function name, an argument count, the frame's
- *  instructions, the frame's local variables, a stack (for operation
- *  operands), and a program counter.
+ *  instructions, a program counter, and a base pointer to the frame's
+ *  window (local variables followed by operands) on the VM's value
+ *  stack.
  */ 
 public class VMFrame {
 
@@ -30,19 +29,20 @@ public class VMFrame {
   // the program instructions 
   public List<VMInstr> instructions = new ArrayList<>();
 
-  // @TODO Should this be a HashMap? 
-  public List<Object> variables = new ArrayList<>();
+  // the number of local variable slots (including the arguments),
+  // computed from the instructions on first use
+  private int localCount = -1;
 
-  // the operand stack
-  public Deque<Object> operandStack = new ArrayDeque<>();
+  // the most operands the frame ever has on the value stack, computed
+  // by the verifier (see VMVerifier)
+  private int maxStack = -1;
 
   // the program counter (pc) for an active stack frame
   public int pc = 0;
 
-  // The start time in miliseconds
-  private long time_start;
-  // The end time in miliseconds
-  private long time_end;
+  // the base pointer (fp) for an active stack frame: the index of the
+  // frame's first local variable on the value stack
+  public int fp = 0;
 
   // basic constructor
   public VMFrame(String functionName, int argCount) {
@@ -59,44 +59,48 @@ public class VMFrame {
   public int argCount() {
     return argCount;
   }
+
+  // get the number of local variable slots the frame needs, which is
+  // one more than the highest LOAD/STORE/STOREK address (and at least
+  // the argument count)
+  public int localCount() {
+    if (localCount == -1) {
+      int count = argCount;
+      for (VMInstr instr : instructions) {
+        OpCode opcode = instr.opcode();
+        if (opcode == OpCode.LOAD || opcode == OpCode.STORE || opcode == OpCode.STOREK)
+          count = Math.max(count, (Integer) instr.operand() + 1);
+      }
+      localCount = count;
+    }
+    return localCount;
+  }
   
+  // get the most operands the frame has at once (-1 if the frame
+  // hasn't been verified)
+  public int maxStack() {
+    return maxStack;
+  }
+
+  // set the most operands the frame has at once
+  public void setMaxStack(int maxStack) {
+    this.maxStack = maxStack;
+  }
+
   /**
    * Creates a new frame based on the current frame (for the purpose
    * of adding a new function call to the frame stack). The new frame
    * is created so that it has the same name, argument count, and
-   * instructions as the current frame. However, the new frame has an
-   * empty operand stack, and empty variable store, and the program
-   * counter set to the first instruction.
+   * instructions as the current frame, with the program counter set
+   * to the first instruction. The instruction list is shared (not
+   * copied), and so must not be changed while running.
    * @return a new version of the current frame to add to the frame stack
    */
   public VMFrame instantiate() {
     VMFrame newFrame = new VMFrame(functionName, argCount);
-    for (VMInstr instr : instructions) 
-      newFrame.instructions.add(instr);
+    newFrame.instructions = instructions;
+    newFrame.localCount = localCount();
+    newFrame.maxStack = maxStack;
     return newFrame;
   }
-  
-  /**
-   * Starts the stack frame timer.
-   */
-  public void startTime() {
-    time_start = System.currentTimeMillis();
-  }
-
-  /**
-   * Stops the stack frame timer.
-   */
-  public void endTime() {
-    time_end = System.currentTimeMillis();
-  }
-
-  /**
-   * The time taken between the call to startTime() and the call to
-   * endTime() in milliseconds.
-   * 
-   * @returns The time elapsed in milliseconds.
-   */
-  public int deltaTime() {
-    return (int) (time_end - time_start);
-  }
 }
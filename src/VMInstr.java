@@ -81,6 +81,10 @@ public class VMInstr {
     return new VMInstr(OpCode.STORE, address);    
   }
 
+  public static VMInstr STOREK(int address) {
+    return new VMInstr(OpCode.STOREK, address);
+  }
+
   public static VMInstr ADD() {
     return new VMInstr(OpCode.ADD);
   }
@@ -140,6 +144,238 @@ public class VMInstr {
   public static VMInstr NEG() {
     return new VMInstr(OpCode.NEG);
   }
+
+  public static VMInstr IADD() {
+    return new VMInstr(OpCode.IADD);
+  }
+
+  public static VMInstr DADD() {
+    return new VMInstr(OpCode.DADD);
+  }
+
+  public static VMInstr SCONCAT() {
+    return new VMInstr(OpCode.SCONCAT);
+  }
+
+  public static VMInstr ISUB() {
+    return new VMInstr(OpCode.ISUB);
+  }
+
+  public static VMInstr DSUB() {
+    return new VMInstr(OpCode.DSUB);
+  }
+
+  public static VMInstr IMUL() {
+    return new VMInstr(OpCode.IMUL);
+  }
+
+  public static VMInstr DMUL() {
+    return new VMInstr(OpCode.DMUL);
+  }
+
+  public static VMInstr IDIV() {
+    return new VMInstr(OpCode.IDIV);
+  }
+
+  public static VMInstr DDIV() {
+    return new VMInstr(OpCode.DDIV);
+  }
+
+  public static VMInstr INEG() {
+    return new VMInstr(OpCode.INEG);
+  }
+
+  public static VMInstr DNEG() {
+    return new VMInstr(OpCode.DNEG);
+  }
+
+  public static VMInstr ICMPLT() {
+    return new VMInstr(OpCode.ICMPLT);
+  }
+
+  public static VMInstr ICMPLE() {
+    return new VMInstr(OpCode.ICMPLE);
+  }
+
+  public static VMInstr ICMPGT() {
+    return new VMInstr(OpCode.ICMPGT);
+  }
+
+  public static VMInstr ICMPGE() {
+    return new VMInstr(OpCode.ICMPGE);
+  }
+
+  public static VMInstr ICMPEQ() {
+    return new VMInstr(OpCode.ICMPEQ);
+  }
+
+  public static VMInstr ICMPNE() {
+    return new VMInstr(OpCode.ICMPNE);
+  }
+
+  public static VMInstr DCMPLT() {
+    return new VMInstr(OpCode.DCMPLT);
+  }
+
+  public static VMInstr DCMPLE() {
+    return new VMInstr(OpCode.DCMPLE);
+  }
+
+  public static VMInstr DCMPGT() {
+    return new VMInstr(OpCode.DCMPGT);
+  }
+
+  public static VMInstr DCMPGE() {
+    return new VMInstr(OpCode.DCMPGE);
+  }
+
+  public static VMInstr DCMPEQ() {
+    return new VMInstr(OpCode.DCMPEQ);
+  }
+
+  public static VMInstr DCMPNE() {
+    return new VMInstr(OpCode.DCMPNE);
+  }
+
+  public static VMInstr SCMPLT() {
+    return new VMInstr(OpCode.SCMPLT);
+  }
+
+  public static VMInstr SCMPLE() {
+    return new VMInstr(OpCode.SCMPLE);
+  }
+
+  public static VMInstr SCMPGT() {
+    return new VMInstr(OpCode.SCMPGT);
+  }
+
+  public static VMInstr SCMPGE() {
+    return new VMInstr(OpCode.SCMPGE);
+  }
+
+  public static VMInstr SCMPEQ() {
+    return new VMInstr(OpCode.SCMPEQ);
+  }
+
+  public static VMInstr SCMPNE() {
+    return new VMInstr(OpCode.SCMPNE);
+  }
+
+  public static VMInstr IADDU() {
+    return new VMInstr(OpCode.IADDU);
+  }
+
+  public static VMInstr DADDU() {
+    return new VMInstr(OpCode.DADDU);
+  }
+
+  public static VMInstr SCONCATU() {
+    return new VMInstr(OpCode.SCONCATU);
+  }
+
+  public static VMInstr ISUBU() {
+    return new VMInstr(OpCode.ISUBU);
+  }
+
+  public static VMInstr DSUBU() {
+    return new VMInstr(OpCode.DSUBU);
+  }
+
+  public static VMInstr IMULU() {
+    return new VMInstr(OpCode.IMULU);
+  }
+
+  public static VMInstr DMULU() {
+    return new VMInstr(OpCode.DMULU);
+  }
+
+  public static VMInstr IDIVU() {
+    return new VMInstr(OpCode.IDIVU);
+  }
+
+  public static VMInstr DDIVU() {
+    return new VMInstr(OpCode.DDIVU);
+  }
+
+  public static VMInstr INEGU() {
+    return new VMInstr(OpCode.INEGU);
+  }
+
+  public static VMInstr DNEGU() {
+    return new VMInstr(OpCode.DNEGU);
+  }
+
+  public static VMInstr ICMPLTU() {
+    return new VMInstr(OpCode.ICMPLTU);
+  }
+
+  public static VMInstr ICMPLEU() {
+    return new VMInstr(OpCode.ICMPLEU);
+  }
+
+  public static VMInstr ICMPGTU() {
+    return new VMInstr(OpCode.ICMPGTU);
+  }
+
+  public static VMInstr ICMPGEU() {
+    return new VMInstr(OpCode.ICMPGEU);
+  }
+
+  public static VMInstr ICMPEQU() {
+    return new VMInstr(OpCode.ICMPEQU);
+  }
+
+  public static VMInstr ICMPNEU() {
+    return new VMInstr(OpCode.ICMPNEU);
+  }
+
+  public static VMInstr DCMPLTU() {
+    return new VMInstr(OpCode.DCMPLTU);
+  }
+
+  public static VMInstr DCMPLEU() {
+    return new VMInstr(OpCode.DCMPLEU);
+  }
+
+  public static VMInstr DCMPGTU() {
+    return new VMInstr(OpCode.DCMPGTU);
+  }
+
+  public static VMInstr DCMPGEU() {
+    return new VMInstr(OpCode.DCMPGEU);
+  }
+
+  public static VMInstr DCMPEQU() {
+    return new VMInstr(OpCode.DCMPEQU);
+  }
+
+  public static VMInstr DCMPNEU() {
+    return new VMInstr(OpCode.DCMPNEU);
+  }
+
+  public static VMInstr SCMPLTU() {
+    return new VMInstr(OpCode.SCMPLTU);
+  }
+
+  public static VMInstr SCMPLEU() {
+    return new VMInstr(OpCode.SCMPLEU);
+  }
+
+  public static VMInstr SCMPGTU() {
+    return new VMInstr(OpCode.SCMPGTU);
+  }
+
+  public static VMInstr SCMPGEU() {
+    return new VMInstr(OpCode.SCMPGEU);
+  }
+
+  public static VMInstr SCMPEQU() {
+    return new VMInstr(OpCode.SCMPEQU);
+  }
+
+  public static VMInstr SCMPNEU() {
+    return new VMInstr(OpCode.SCMPNEU);
+  }
   
   public static VMInstr JMP(int address) {
     return new VMInstr(OpCode.JMP, address);
@@ -149,6 +385,14 @@ public class VMInstr {
     return new VMInstr(OpCode.JMPF, address);
   }
 
+  public static VMInstr JMPFK(int address) {
+    return new VMInstr(OpCode.JMPFK, address);
+  }
+
+  public static VMInstr JMPTK(int address) {
+    return new VMInstr(OpCode.JMPTK, address);
+  }
+
   public static VMInstr CALL(String funName) {
     return new VMInstr(OpCode.CALL, funName);    
   }
@@ -157,6 +401,18 @@ public class VMInstr {
     return new VMInstr(OpCode.VRET);
   }
   
+  public static VMInstr SPAWN(String funName) {
+    return new VMInstr(OpCode.SPAWN, funName);
+  }
+
+  public static VMInstr JOIN() {
+    return new VMInstr(OpCode.JOIN);
+  }
+
+  public static VMInstr PARFOR(String bodyName) {
+    return new VMInstr(OpCode.PARFOR, bodyName);
+  }
+  
   public static VMInstr WRITE() {
     return new VMInstr(OpCode.WRITE);
   }
@@ -173,6 +429,10 @@ public class VMInstr {
     return new VMInstr(OpCode.GETCHR);
   }
 
+  public static VMInstr GETCHRU() {
+    return new VMInstr(OpCode.GETCHRU);
+  }
+
   public static VMInstr TOINT() {
     return new VMInstr(OpCode.TOINT);
   }
@@ -224,5 +484,8 @@ public class VMInstr {
   public static VMInstr TIMEDELTA() {
     return new VMInstr(OpCode.TIMEDELTA);
   }
+
+  public static VMInstr CHECKPOINT() {
+    return new VMInstr(OpCode.CHECKPOINT);
+  }
 }
-  
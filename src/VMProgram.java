@@ -0,0 +1,319 @@
+/*
+ * File: VMProgram.java
+ * Date: Spring 2022
+ * Auth: Cameron S. Williamson
+ * Desc: The compiled form of a MyPL program (one VMFrame per
+ *       function). A program is built once by the code generator and
+ *       is then only read by the VM, so a single program can be shared
+ *       by any number of VM executions, including concurrent ones.
+ *       Programs can be saved to (and loaded from) a compact binary
+ *       .myplc file, so that the front end can be skipped.
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+public class VMProgram {
+
+  // identifies compiled program files (and their format version)
+  private static final byte[] MAGIC = "MYPLC".getBytes(StandardCharsets.US_ASCII);
+  private static final int VERSION = 6;
+
+  // value tags
+  private static final byte NIL = 0;
+  private static final byte INT = 1;
+  private static final byte DOUBLE = 2;
+  private static final byte BOOL = 3;
+  private static final byte STRING = 4;
+  private static final byte NONE = 5;
+  private static final byte LIST = 6;
+
+  // the frames for the program (one frame per function)
+  private Map<String, VMFrame> frames = new HashMap<>();
+
+  // true once the frames have been verified (see VMVerifier)
+  private boolean verified = false;
+
+  /**
+   * Add a frame to the program's list of known frames. Frames must
+   * not be added (or changed) once the program is being run.
+   *
+   * @param frame the frame to add
+   */
+  public void add(VMFrame frame) {
+    frames.put(frame.functionName(), frame);
+    verified = false;
+  }
+
+  /**
+   * Verify the program's code (once, the first time the program is
+   * run), which also computes the max stack depth of each frame.
+   */
+  public synchronized void verify() throws MyPLException {
+    if (!verified) {
+      VMVerifier.verify(this);
+      verified = true;
+    }
+  }
+
+  /**
+   * Returns the frame for the given function.
+   *
+   * @param functionName the name of the function
+   * @return the function's frame, or null if there is no such function
+   */
+  public VMFrame get(String functionName) {
+    return frames.get(functionName);
+  }
+
+  /**
+   * Returns true if the program has a frame for the given function.
+   *
+   * @param functionName the name of the function
+   */
+  public boolean contains(String functionName) {
+    return frames.containsKey(functionName);
+  }
+
+  /**
+   * Returns the names of the program's functions.
+   */
+  public Collection<String> functionNames() {
+    return frames.keySet();
+  }
+
+  /**
+   * Save the program to the given (.myplc) file.
+   *
+   * @param path the file to write
+   */
+  public void save(String path) throws MyPLException {
+    try (DataOutputStream out = new DataOutputStream(
+           new BufferedOutputStream(new FileOutputStream(path)))) {
+      save(out);
+    } catch (IOException e) {
+      throw MyPLException.VMError("Unable to write program '" + path + "'");
+    }
+  }
+
+  /**
+   * Load a program from the given (.myplc) file, which is read by
+   * memory-mapping it.
+   *
+   * @param path the file to read
+   * @return the program
+   */
+  public static VMProgram load(String path) throws MyPLException {
+    return load(map(path, "program"), path);
+  }
+
+  // write the program as in a .myplc file (to a file that may hold
+  // other data too, see CompileCache)
+  void save(DataOutputStream out) throws IOException, MyPLException {
+    out.write(MAGIC);
+    out.writeInt(VERSION);
+    write(out);
+  }
+
+  // read a program written by save(out), where path names the file
+  // for errors
+  static VMProgram load(ByteBuffer in, String path) throws MyPLException {
+    try {
+      byte[] magic = new byte[MAGIC.length];
+      in.get(magic);
+      if (!Arrays.equals(magic, MAGIC) || in.getInt() != VERSION)
+        throw MyPLException.VMError("Invalid program '" + path + "'");
+      return read(in);
+    } catch (RuntimeException e) {
+      // truncated file, unknown opcode or tag, etc.
+      throw MyPLException.VMError("Invalid program '" + path + "'");
+    }
+  }
+
+  /**
+   * Write the program's encoding: a constant pool holding each
+   * distinct operand once, followed by each frame's instructions as
+   * an opcode and a constant pool index (-1 for no operand).
+   *
+   * @param out the stream to write to
+   */
+  public void write(DataOutputStream out) throws IOException, MyPLException {
+    List<Object> pool = new ArrayList<>();
+    Map<Object, Integer> poolIndexes = new HashMap<>();
+    for (VMFrame frame : frames.values()) {
+      constant(pool, poolIndexes, frame.functionName());
+      for (VMInstr instr : frame.instructions)
+        if (instr.operand() != null)
+          constant(pool, poolIndexes, instr.operand());
+    }
+    out.writeInt(pool.size());
+    for (Object value : pool)
+      writeValue(out, value);
+    out.writeInt(frames.size());
+    for (VMFrame frame : frames.values()) {
+      out.writeInt(constant(pool, poolIndexes, frame.functionName()));
+      out.writeInt(frame.argCount());
+      out.writeInt(frame.instructions.size());
+      for (VMInstr instr : frame.instructions) {
+        out.writeByte(instr.opcode().ordinal());
+        Object operand = instr.operand();
+        out.writeInt(operand == null ? -1 : constant(pool, poolIndexes, operand));
+      }
+    }
+  }
+
+  /**
+   * Read a program written by write.
+   *
+   * @param in the buffer to read from
+   * @return the program
+   */
+  public static VMProgram read(ByteBuffer in) {
+    Object[] pool = new Object[in.getInt()];
+    for (int i = 0; i < pool.length; ++i)
+      pool[i] = readValue(in);
+    VMProgram program = new VMProgram();
+    int frameCount = in.getInt();
+    for (int i = 0; i < frameCount; ++i) {
+      VMFrame frame = new VMFrame((String) pool[in.getInt()], in.getInt());
+      int instrCount = in.getInt();
+      for (int j = 0; j < instrCount; ++j) {
+        OpCode opcode = OpCode.values()[in.get()];
+        int operand = in.getInt();
+        frame.instructions.add(new VMInstr(opcode, operand == -1 ? null : pool[operand]));
+      }
+      program.add(frame);
+    }
+    return program;
+  }
+
+  // to print the lists of instructions for each VM Frame
+  @Override
+  public String toString() {
+    String s = "";
+    for (Map.Entry<String, VMFrame> e : frames.entrySet()) {
+      String funName = e.getKey();
+      s += "Frame '" + funName + "'\n";
+      List<VMInstr> instructions = e.getValue().instructions;
+      for (int i = 0; i < instructions.size(); ++i) {
+        VMInstr instr = instructions.get(i);
+        s += "  " + i + ": " + instr + "\n";
+      }
+    }
+    return s;
+  }
+
+  //----------------------------------------------------------------------
+  // HELPER FUNCTIONS
+  //----------------------------------------------------------------------
+
+  // returns the constant pool index of the given value, adding it to
+  // the pool if needed (values of different types, e.g., 1 and 1.0,
+  // and nil and "nil", are kept apart)
+  private static int constant(List<Object> pool, Map<Object, Integer> poolIndexes,
+                              Object value)
+  {
+    Object key = value == VM.NIL_OBJ ? VM.class : Arrays.asList(value.getClass(), value);
+    Integer index = poolIndexes.get(key);
+    if (index == null) {
+      index = pool.size();
+      pool.add(value);
+      poolIndexes.put(key, index);
+    }
+    return index;
+  }
+
+  // map the given file into memory for reading
+  static ByteBuffer map(String path, String kind) throws MyPLException {
+    try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } catch (IOException e) {
+      throw MyPLException.VMError("Unable to read " + kind + " '" + path + "'");
+    }
+  }
+
+  static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  static String readString(ByteBuffer in) {
+    byte[] bytes = new byte[in.getInt()];
+    in.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  // write a tagged value (operands, variables, and object fields,
+  // where lists only occur as ALLOC operands)
+  static void writeValue(DataOutputStream out, Object value)
+    throws IOException, MyPLException
+  {
+    if (value == null)
+      out.writeByte(NONE);
+    else if (value == VM.NIL_OBJ)
+      out.writeByte(NIL);
+    else if (value instanceof Integer) {
+      out.writeByte(INT);
+      out.writeInt((Integer) value);
+    }
+    else if (value instanceof Double) {
+      out.writeByte(DOUBLE);
+      out.writeDouble((Double) value);
+    }
+    else if (value instanceof Boolean) {
+      out.writeByte(BOOL);
+      out.writeBoolean((Boolean) value);
+    }
+    else if (value instanceof String) {
+      out.writeByte(STRING);
+      writeString(out, (String) value);
+    }
+    else if (value instanceof List) {
+      out.writeByte(LIST);
+      out.writeInt(((List<?>) value).size());
+      for (Object element : (List<?>) value)
+        writeValue(out, element);
+    }
+    else
+      throw MyPLException.VMError("Cannot save a task handle");
+  }
+
+  static Object readValue(ByteBuffer in) {
+    byte tag = in.get();
+    if (tag == NONE)
+      return null;
+    else if (tag == NIL)
+      return VM.NIL_OBJ;
+    else if (tag == INT)
+      return in.getInt();
+    else if (tag == DOUBLE)
+      return in.getDouble();
+    else if (tag == BOOL)
+      return in.get() != 0;
+    else if (tag == STRING)
+      return readString(in);
+    else if (tag == LIST) {
+      int size = in.getInt();
+      List<Object> list = new ArrayList<>();
+      for (int i = 0; i < size; ++i)
+        list.add(readValue(in));
+      return list;
+    }
+    throw new IllegalArgumentException("unknown value tag " + tag);
+  }
+}
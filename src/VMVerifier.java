@@ -0,0 +1,210 @@
+/*
+ * File: VMVerifier.java
+ * Date: Spring 2022
+ * Auth: Cameron S. Williamson
+ * Desc: Checks the code of a MyPL program before the VM runs it. For
+ *       each frame, the verifier follows every path through the
+ *       instructions tracking the number of operands on the value
+ *       stack, and checks that no instruction pops more operands than
+ *       there are, that every jump lands on an instruction (or the end
+ *       of the frame), that all paths reaching an instruction agree on
+ *       the number of operands, and that all called functions exist.
+ *       It also records each frame's maximum number of operands, so
+ *       the VM can size its value stack once per call instead of
+ *       checking it on every instruction.
+ */
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+
+public class VMVerifier {
+
+  /**
+   * Verify each frame of the given program, setting its max stack.
+   *
+   * @param program the program to verify
+   * @throws MyPLException if any frame's code is invalid
+   */
+  public static void verify(VMProgram program) throws MyPLException {
+    Set<String> parforBodies = parforBodies(program);
+    for (String name : program.functionNames()) {
+      VMFrame frame = program.get(name);
+      int initialDepth = parforBodies.contains(name) ? 2 : 0;
+      frame.setMaxStack(verify(program, frame, initialDepth));
+    }
+  }
+
+  /**
+   * Returns the number of operands on the stack when the given frame
+   * starts running.
+   *
+   * @param program the program the frame belongs to
+   * @param frame the frame
+   */
+  static int initialDepth(VMProgram program, VMFrame frame) {
+    return parforBodies(program).contains(frame.functionName()) ? 2 : 0;
+  }
+
+  //----------------------------------------------------------------------
+  // HELPER FUNCTIONS
+  //----------------------------------------------------------------------
+
+  // the names of the program's parfor body frames, which start with
+  // the chunk's first and last value as operands (see VM.parallelFor)
+  private static Set<String> parforBodies(VMProgram program) {
+    Set<String> parforBodies = new HashSet<>();
+    for (String name : program.functionNames())
+      for (VMInstr instr : program.get(name).instructions)
+        if (instr.opcode() == OpCode.PARFOR)
+          parforBodies.add((String) instr.operand());
+    return parforBodies;
+  }
+
+  // verify the given frame, returning its max stack depth
+  private static int verify(VMProgram program, VMFrame frame, int initialDepth)
+    throws MyPLException
+  {
+    List<VMInstr> instructions = frame.instructions;
+    int[] depths = depths(program, frame, initialDepth);
+    int maxDepth = initialDepth;
+    for (int pc = 0; pc < instructions.size(); ++pc) {
+      if (depths[pc] == -1)
+        continue;
+      VMInstr instr = instructions.get(pc);
+      int depth = depths[pc] - pops(program, frame, pc, instr) + pushes(instr);
+      maxDepth = Math.max(maxDepth, depth);
+    }
+    return maxDepth;
+  }
+
+  /**
+   * Verify the given frame, returning the stack depth on entry to each
+   * of its instructions (-1 if the instruction can't be reached),
+   * where the last entry is for falling off the end of the frame.
+   *
+   * @param program the program the frame belongs to
+   * @param frame the frame to verify
+   * @param initialDepth the stack depth on entry to the frame
+   * @throws MyPLException if the frame's code is invalid
+   */
+  static int[] depths(VMProgram program, VMFrame frame, int initialDepth)
+    throws MyPLException
+  {
+    List<VMInstr> instructions = frame.instructions;
+    // the stack depth on entry to each instruction (-1 if not reached
+    // yet)
+    int[] depths = new int[instructions.size() + 1];
+    Arrays.fill(depths, -1);
+    depths[0] = initialDepth;
+    Deque<Integer> worklist = new ArrayDeque<>();
+    worklist.push(0);
+    while (!worklist.isEmpty()) {
+      int pc = worklist.pop();
+      if (pc == instructions.size())
+        continue;
+      VMInstr instr = instructions.get(pc);
+      int pops = pops(program, frame, pc, instr);
+      if (depths[pc] < pops)
+        error("Stack underflow", frame, pc);
+      int depth = depths[pc] - pops + pushes(instr);
+      // the instructions that can run next
+      OpCode opcode = instr.opcode();
+      if (opcode != OpCode.VRET && opcode != OpCode.JMP)
+        reach(frame, pc, pc + 1, depth, depths, worklist);
+      if (opcode == OpCode.JMP || opcode == OpCode.JMPF || keepsOnJump(opcode)) {
+        if (!(instr.operand() instanceof Integer))
+          error("Invalid jump target", frame, pc);
+        // (the keeping jumps only pop their operand if they don't jump)
+        int jumpDepth = keepsOnJump(opcode) ? depth + 1 : depth;
+        reach(frame, pc, (Integer) instr.operand(), jumpDepth, depths, worklist);
+      }
+    }
+    return depths;
+  }
+
+  // record that target is reached from pc with the given stack depth
+  private static void reach(VMFrame frame, int pc, int target, int depth,
+                            int[] depths, Deque<Integer> worklist)
+    throws MyPLException
+  {
+    if (target < 0 || target >= depths.length)
+      error("Jump target " + target + " out of range", frame, pc);
+    if (depths[target] == -1) {
+      depths[target] = depth;
+      worklist.push(target);
+    } else if (depths[target] != depth)
+      error("Stack depth " + depth + " differs from " + depths[target] +
+            " at jump target " + target, frame, pc);
+  }
+
+  // true if the instruction is a jump that keeps its operand
+  static boolean keepsOnJump(OpCode opcode) {
+    return opcode == OpCode.JMPFK || opcode == OpCode.JMPTK;
+  }
+
+  // the number of operands the instruction pops
+  static int pops(VMProgram program, VMFrame frame, int pc, VMInstr instr)
+    throws MyPLException
+  {
+    switch (instr.opcode()) {
+      case PUSH: case LOAD: case READ: case ALLOC: case JMP: case NOP:
+        return 0;
+      case CALL: case SPAWN:
+        return callee(program, frame, pc, instr).argCount();
+      case PARFOR:
+        callee(program, frame, pc, instr);
+        return 2;
+      case ADD: case SUB: case MUL: case DIV: case MOD: case AND: case OR:
+      case CMPLT: case CMPLE: case CMPGT: case CMPGE: case CMPEQ: case CMPNE:
+      case IADD: case DADD: case SCONCAT: case ISUB: case DSUB: case IMUL:
+      case DMUL: case IDIV: case DDIV: case ICMPLT: case ICMPLE: case ICMPGT:
+      case ICMPGE: case ICMPEQ: case ICMPNE: case DCMPLT: case DCMPLE:
+      case DCMPGT: case DCMPGE: case DCMPEQ: case DCMPNE: case SCMPLT:
+      case SCMPLE: case SCMPGT: case SCMPGE: case SCMPEQ: case SCMPNE:
+      case IADDU: case DADDU: case SCONCATU: case ISUBU: case DSUBU:
+      case IMULU: case DMULU: case IDIVU: case DDIVU: case ICMPLTU:
+      case ICMPLEU: case ICMPGTU: case ICMPGEU: case ICMPEQU: case ICMPNEU:
+      case DCMPLTU: case DCMPLEU: case DCMPGTU: case DCMPGEU: case DCMPEQU:
+      case DCMPNEU: case SCMPLTU: case SCMPLEU: case SCMPGTU: case SCMPGEU:
+      case SCMPEQU: case SCMPNEU:
+      case GETCHR: case GETCHRU: case SETFLD: case SWAP:
+        return 2;
+      default:
+        return 1;
+    }
+  }
+
+  // the number of operands the instruction pushes
+  static int pushes(VMInstr instr) {
+    switch (instr.opcode()) {
+      case POP: case STORE: case JMP: case JMPF: case JMPFK: case JMPTK:
+      case VRET: case PARFOR: case WRITE: case FREE: case SETFLD: case NOP:
+      case TIMESTART: case TIMEEND: case CHECKPOINT:
+        return 0;
+      case DUP: case SWAP:
+        return 2;
+      default:
+        return 1;
+    }
+  }
+
+  // the frame of the function called by the instruction
+  private static VMFrame callee(VMProgram program, VMFrame frame, int pc, VMInstr instr)
+    throws MyPLException
+  {
+    Object funName = instr.operand();
+    if (!(funName instanceof String) || !program.contains((String) funName))
+      error("Undefined function '" + funName + "'", frame, pc);
+    return program.get((String) funName);
+  }
+
+  private static void error(String m, VMFrame f, int pc) throws MyPLException {
+    m += " (in " + f.functionName() + " at " + pc + ": " + f.instructions.get(pc) + ")";
+    throw MyPLException.VMError(m);
+  }
+}
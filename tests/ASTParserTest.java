@@ -6,6 +6,7 @@
  */
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import org.junit.Test;
 import java.io.ByteArrayInputStream;
@@ -379,5 +380,36 @@ public class ASTParserTest {
     } catch (MyPLException e) {
       assertEquals("PARSE_ERROR: expecting '=', found '}' at line 3, column 1", e.getMessage());
     }
-  } 
+  }
+
+  @Test
+  public void parforStmt() throws Exception {
+    String s = buildString("fun void main() {",
+        "  parfor i from 1 upto n {",
+        "    print(i)",
+        "  }",
+        "}");
+    ASTParser parser = buildParser(s);
+    Program prog = parser.parse();
+    ForStmt forStmt = (ForStmt) prog.fdecls.get(0).stmts.get(0);
+    assertTrue(forStmt.parallel);
+    assertTrue(forStmt.upto);
+    assertEquals("i", forStmt.varName.lexeme());
+    assertEquals(1, forStmt.stmts.size());
+  }
+
+  @Test
+  public void parforDowntoNotAllowed() throws Exception {
+    String s = buildString("fun void main() {",
+        "  parfor i from 10 downto 1 {",
+        "  }",
+        "}");
+    ASTParser parser = buildParser(s);
+    try {
+      parser.parse();
+      fail("syntax error not detected");
+    } catch (MyPLException e) {
+      assertEquals("PARSE_ERROR: expecting 'upto', found 'downto' at line 2, column 20", e.getMessage());
+    }
+  }
 }
@@ -8,6 +8,8 @@
 
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import org.junit.Test;
 import org.junit.Before;
@@ -15,8 +17,20 @@ import org.junit.After;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.InputStream;
 import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 public class CodeGeneratorTest {
@@ -42,14 +56,15 @@ public class CodeGeneratorTest {
   
   private static VM buildVM(String s) throws Exception {
     InputStream in = new ByteArrayInputStream(s.getBytes("UTF-8"));
-    ASTParser parser = new ASTParser(new Lexer(in));
-    Program program = parser.parse();
-    TypeInfo  typeInfo = new TypeInfo();
-    program.accept(new StaticChecker(typeInfo));
-    VM vm = new VM();
-    CodeGenerator genVisitor = new CodeGenerator(typeInfo, vm);
-    program.accept(genVisitor);
-    return vm;
+    return new VM(MyPL.compile(in), System.in, System.out);
+  }
+
+  // the opcodes of the given function's instructions
+  private static List<OpCode> opcodes(VM vm, String funName) {
+    List<OpCode> opcodes = new ArrayList<>();
+    for (VMInstr instr : vm.program().get(funName).instructions)
+      opcodes.add(instr.opcode());
+    return opcodes;
   }
 
   private static String buildString(String... args) {
@@ -190,7 +205,688 @@ public class CodeGeneratorTest {
     vm.run();
     assertEquals("-1 -12 -1.25", output.toString());
   } 
-    
+
+  @Test
+  public void typedArithmetic() throws Exception {
+    String s = buildString
+      ("fun void main() {",
+       "  var a = 0",
+       "  var b = 0.0",
+       "  var c = 'x'",
+       "  a = 7",
+       "  b = 1.5",
+       "  c = 'a'",
+       "  var x = (a * 3) - (neg a / 2)",
+       "  var y = b + (3.0 * neg (b / 3.0))",
+       "  var z = c + \"bc\"",
+       "  print(x)", 
+       "  print(' ')", 
+       "  print(y)",
+       "  print(' ')",
+       "  print(z)",
+       "}");
+    VM vm = buildVM(s);
+    vm.run();
+    assertEquals("24 0.0 abc", output.toString());
+    List<OpCode> opcodes = opcodes(vm, "main");
+    // (a, b, and c are assigned twice, so they aren't constant folded,
+    // but are never nil, so no nil checks are needed)
+    assertTrue(opcodes.containsAll(List.of(OpCode.IMULU, OpCode.ISUBU, OpCode.INEGU,
+                                           OpCode.IDIVU, OpCode.DADDU, OpCode.DMULU,
+                                           OpCode.DNEGU, OpCode.SCONCATU)));
+    assertFalse(opcodes.contains(OpCode.ADD) || opcodes.contains(OpCode.MUL));
+  }
+
+  @Test
+  public void typedComparisons() throws Exception {
+    String s = buildString
+      ("fun void main() {",
+       "  var int x = 0",
+       "  var int y = nil",
+       "  var d = 0.0",
+       "  var s = \"\"",
+       "  x = 1000",
+       "  d = 2.5",
+       "  s = \"ab\"",
+       "  print(x == 1000)",
+       "  print(' ')",
+       "  print(y != x)",
+       "  print(' ')",
+       "  print(y == nil)",
+       "  print(' ')",
+       "  print(d <= 1.0)",
+       "  print(' ')",
+       "  print(s < \"b\")",
+       "}");
+    VM vm = buildVM(s);
+    vm.run();
+    assertEquals("true true true false true", output.toString());
+    List<OpCode> opcodes = opcodes(vm, "main");
+    assertTrue(opcodes.containsAll(List.of(OpCode.ICMPEQU, OpCode.ICMPNE, OpCode.CMPEQ,
+                                           OpCode.DCMPLEU, OpCode.SCMPLTU)));
+  }
+
+  @Test
+  public void constantsFolded() throws Exception {
+    String s = buildString
+      ("fun void main() {",
+       "  var secs = 60 * 60 * 24",
+       "  var half = neg 0.5",
+       "  var done = not ((secs > 1000) and (half < 0.0))",
+       "  print(secs * 2)",
+       "  print(' ')",
+       "  print(half * 4.0)",
+       "  print(' ')",
+       "  print(done or ((\"a\" + 'b') == \"ab\"))",
+       "}");
+    VM vm = buildVM(s);
+    vm.run();
+    assertEquals("172800 -2.0 true", output.toString());
+    List<OpCode> opcodes = opcodes(vm, "main");
+    assertEquals(List.of(OpCode.PUSH, OpCode.STORE, OpCode.PUSH, OpCode.STORE, OpCode.PUSH,
+                         OpCode.STORE, OpCode.PUSH, OpCode.WRITE, OpCode.PUSH, OpCode.WRITE,
+                         OpCode.PUSH, OpCode.WRITE, OpCode.PUSH, OpCode.WRITE, OpCode.PUSH,
+                         OpCode.WRITE, OpCode.PUSH, OpCode.VRET), opcodes);
+  }
+
+  @Test
+  public void constantsNotFoldedWhenUnsafe() throws Exception {
+    String s = buildString
+      ("fun int f(int n) {",
+       "  var x = 1",
+       "  if n > 0 {",
+       "    x = 2",
+       "  }",
+       "  var y = 3",
+       "  return (x + y) / (y - 3)",
+       "}",
+       "fun void main() {",
+       "  print(f(1))",
+       "}");
+    VM vm = buildVM(s);
+    // x is assigned, and dividing by zero stays a runtime error
+    assertTrue(opcodes(vm, "f").containsAll(List.of(OpCode.IADDU, OpCode.IDIVU)));
+    assertFalse(opcodes(vm, "f").contains(OpCode.ISUBU));
+    try {
+      vm.run();
+      fail("runtime error not detected");
+    } catch (ArithmeticException e) {
+      // the VM doesn't catch division by zero
+    }
+  }
+
+  @Test
+  public void unreachableFunctionsRemoved() throws Exception {
+    String s = buildString
+      ("fun int f(int x) {",
+       "  return x + 1",
+       "}",
+       "fun int g(int x) {",
+       "  return h(x)",
+       "}",
+       "fun int h(int x) {",
+       "  return g(x)",
+       "}",
+       "fun int k(int x) {",
+       "  return f(x) * 2",
+       "}",
+       "fun void main() {",
+       "  var t = spawn(k, 1)",
+       "  print(join(t))",
+       "  if false {",
+       "    print(g(1))",
+       "  }",
+       "}");
+    VM vm = buildVM(s);
+    vm.run();
+    assertEquals("4", output.toString());
+    assertTrue(vm.program().contains("f") && vm.program().contains("k"));
+    assertFalse(vm.program().contains("g") || vm.program().contains("h"));
+  }
+
+  @Test
+  public void unreachableStatementsRemoved() throws Exception {
+    String s = buildString
+      ("fun int f(int x) {",
+       "  if x > 0 {",
+       "    return 1",
+       "  } else {",
+       "    return 2",
+       "  }",
+       "  print(\"dead\")",
+       "}",
+       "fun void main() {",
+       "  while false {",
+       "    print(\"dead\")",
+       "  }",
+       "  if false {",
+       "    print(\"dead\")",
+       "  } elif f(1) == 1 {",
+       "    print(\"a\")",
+       "  } elif true {",
+       "    print(\"b\")",
+       "  } else {",
+       "    print(\"dead\")",
+       "  }",
+       "  var i = 0",
+       "  while true {",
+       "    i = i + 1",
+       "    if i == 3 {",
+       "      return",
+       "    }",
+       "  }",
+       "  print(\"dead\")",
+       "}");
+    VM vm = buildVM(s);
+    vm.run();
+    assertEquals("a", output.toString());
+    for (String funName : List.of("f", "main"))
+      for (VMInstr instr : vm.program().get(funName).instructions)
+        assertFalse("dead".equals(instr.operand()));
+    assertEquals(2, Collections.frequency(opcodes(vm, "main"), OpCode.WRITE));
+  }
+
+  @Test
+  public void nilChecksKeptForNilableOperands() throws Exception {
+    String s = buildString
+      ("fun int f(int x) {",
+       "  var y = x + 1",
+       "  return y * 2",
+       "}",
+       "fun void main() {",
+       "  print(f(1))",
+       "  var int z = 3",
+       "  if z > 2 {",
+       "    z = nil",
+       "  }",
+       "  print(f(2) - 1)",
+       "  print(z == nil)",
+       "  f(z)",
+       "}");
+    VM vm = buildVM(s);
+    try {
+      vm.run();
+      fail("runtime error not detected");
+    } catch(MyPLException e) {
+      assertTrue(e.getMessage().startsWith("VM_ERROR: Nil reference"));
+    }
+    assertEquals("45true", output.toString());
+    // parameters may be nil, local y can't be
+    assertEquals(List.of(OpCode.LOAD, OpCode.PUSH, OpCode.IADD, OpCode.STOREK,
+                         OpCode.PUSH, OpCode.IMULU, OpCode.VRET), opcodes(vm, "f"));
+    // results of functions may be nil, z might be nil after the if
+    List<OpCode> opcodes = opcodes(vm, "main");
+    assertTrue(opcodes.contains(OpCode.ICMPGTU));
+    assertTrue(opcodes.contains(OpCode.ISUB));
+    assertFalse(opcodes.contains(OpCode.ISUBU));
+  }
+
+  @Test
+  public void nilChecksRemovedAfterNilTest() throws Exception {
+    String s = buildString
+      ("fun int f(int x) {",
+       "  if x == nil {",
+       "    return 0",
+       "  }",
+       "  var total = 0",
+       "  while x > 0 {",
+       "    total = total + x",
+       "    x = x - 1",
+       "  }",
+       "  for i from 1 upto total {",
+       "    x = x + i",
+       "  }",
+       "  return x",
+       "}",
+       "fun void main() {",
+       "  print(f(nil))",
+       "  print(' ')",
+       "  print(f(4))",
+       "}");
+    VM vm = buildVM(s);
+    vm.run();
+    assertEquals("0 55", output.toString());
+    List<OpCode> opcodes = opcodes(vm, "f");
+    assertTrue(opcodes.containsAll(List.of(OpCode.ICMPGTU, OpCode.IADDU, OpCode.ISUBU,
+                                           OpCode.ICMPLEU)));
+    assertFalse(opcodes.contains(OpCode.IADD) || opcodes.contains(OpCode.ICMPLE));
+  }
+
+  @Test
+  public void peepholeCleansUpGeneratedCode() throws Exception {
+    String s = buildString
+      ("fun void main() {",
+       "  var n = 0",
+       "  while true {",
+       "    n = n + 1",
+       "    if n > 2 {",
+       "      for i from 1 upto n {",
+       "        if i == 2 {",
+       "          print(i)",
+       "        } else {",
+       "          length(\"abc\")",
+       "        }",
+       "      }",
+       "      return",
+       "    }",
+       "  }",
+       "}");
+    VM vm = buildVM(s);
+    vm.run();
+    assertEquals("2", output.toString());
+    List<VMInstr> instructions = vm.program().get("main").instructions;
+    for (int i = 0; i < instructions.size(); ++i) {
+      VMInstr instr = instructions.get(i);
+      assertFalse(instr.opcode() == OpCode.NOP);
+      if (instr.opcode() == OpCode.JMP || instr.opcode() == OpCode.JMPF) {
+        int target = (Integer) instr.operand();
+        assertFalse(target == i + 1);
+        assertFalse(instructions.get(target).opcode() == OpCode.JMP);
+      }
+      // no PUSH; POP, STORE x; LOAD x, or PUSH true; JMPF
+      if (i > 0 && instr.opcode() == OpCode.POP)
+        assertFalse(instructions.get(i - 1).opcode() == OpCode.PUSH);
+      if (i > 0 && instr.opcode() == OpCode.JMPF)
+        assertFalse(instructions.get(i - 1).opcode() == OpCode.PUSH);
+    }
+    assertTrue(opcodes(vm, "main").contains(OpCode.STOREK));
+  }
+
+  @Test
+  public void storeKeepCountsAsLocal() throws Exception {
+    String s = buildString
+      ("fun int f(int x) {",
+       "  var y = x + 1",
+       "  return y * 2",
+       "}",
+       "fun void main() {",
+       "  print(f(1))",
+       "}");
+    VM vm = buildVM(s);
+    vm.run();
+    assertEquals("4", output.toString());
+    // y is only ever written by a STOREK
+    assertEquals(2, vm.program().get("f").localCount());
+  }
+
+  @Test
+  public void boundsChecksRemovedInStringLoops() throws Exception {
+    String s = buildString
+      ("fun void main() {",
+       "  var s = \"abc\"",
+       "  for i from 0 upto length(s) - 1 {",
+       "    print(get(i, s))",
+       "  }",
+       "  for i from length(s) - 1 downto 0 {",
+       "    print(get(i, s))",
+       "  }",
+       "}");
+    VM vm = buildVM(s);
+    vm.run();
+    assertEquals("abccba", output.toString());
+    List<OpCode> opcodes = opcodes(vm, "main");
+    assertTrue(opcodes.contains(OpCode.GETCHRU));
+    assertFalse(opcodes.contains(OpCode.GETCHR));
+  }
+
+  @Test
+  public void boundsChecksKeptOutsideOfRange() throws Exception {
+    String s = buildString
+      ("fun void main() {",
+       "  var s = \"abc\"",
+       "  for i from 0 upto length(s) {",
+       "    if i < length(s) {",
+       "      print(get(i, s))",
+       "    }",
+       "  }",
+       "  for i from 0 upto length(s) - 1 {",
+       "    print(get(i, s))",
+       "    s = \"x\"",
+       "  }",
+       "}");
+    VM vm = buildVM(s);
+    vm.run();
+    assertEquals("abca", output.toString());
+    List<OpCode> opcodes = opcodes(vm, "main");
+    assertTrue(opcodes.contains(OpCode.GETCHR));
+    assertFalse(opcodes.contains(OpCode.GETCHRU));
+  }
+
+  @Test
+  public void smallFunctionsInlined() throws Exception {
+    String s = buildString
+      ("fun int sign(int x) {",
+       "  if x < 0 {",
+       "    return neg 1",
+       "  }",
+       "  return 1",
+       "}",
+       "fun int twice(int x) {",
+       "  var y = sign(x)",
+       "  return y * (x + x)",
+       "}",
+       "fun void main() {",
+       "  for i from 0 upto 2 {",
+       "    print(twice(i - 1))",
+       "    print(\" \")",
+       "  }",
+       "}");
+    VM vm = buildVM(s);
+    vm.run();
+    assertEquals("2 0 2 ", output.toString());
+    assertFalse(opcodes(vm, "main").contains(OpCode.CALL));
+    assertFalse(opcodes(vm, "twice").contains(OpCode.CALL));
+  }
+
+  @Test
+  public void loopInvariantsHoisted() throws Exception {
+    String s = buildString
+      ("type T {",
+       "  var int x = 3",
+       "}",
+       "fun void main() {",
+       "  var s = \"hello\"",
+       "  var t = new T",
+       "  var n = 0",
+       "  var i = 0",
+       "  n = 4",
+       "  while i < length(s) {",
+       "    print((n * 2) + t.x + i)",
+       "    print(\" \")",
+       "    i = i + 1",
+       "  }",
+       "}");
+    VM vm = buildVM(s);
+    vm.run();
+    assertEquals("11 12 13 14 15 ", output.toString());
+    // length(s) and n * 2 are computed once, before the loop
+    List<OpCode> opcodes = opcodes(vm, "main");
+    assertEquals(1, Collections.frequency(opcodes, OpCode.LEN));
+    assertEquals(1, Collections.frequency(opcodes, OpCode.IMULU));
+    assertTrue(opcodes.indexOf(OpCode.IMULU) < opcodes.indexOf(OpCode.JMPF));
+  }
+
+  @Test
+  public void loopInvariantsKeptWhenUnsafe() throws Exception {
+    String s = buildString
+      ("type T {",
+       "  var int x = 0",
+       "}",
+       "fun void main() {",
+       "  var T t = nil",
+       "  var d = 0",
+       "  var i = 0",
+       "  d = 0",
+       "  while i < 0 {",
+       "    print(t.x + (10 / d))",
+       "  }",
+       "  t = new T",
+       "  for j from 1 upto 3 {",
+       "    print(t.x)",
+       "    t.x = t.x + j",
+       "  }",
+       "}");
+    VM vm = buildVM(s);
+    vm.run();
+    assertEquals("013", output.toString());
+  }
+
+  @Test
+  public void inductionVariablesStrengthReduced() throws Exception {
+    String s = buildString
+      ("fun void main() {",
+       "  var s = \"abcdefghijklmnopqrstuvwxyz0123456789\"",
+       "  for i from 0 upto 5 {",
+       "    print(get((i * 3) + 1, s))",
+       "    print(get((i * 3) + 1, s))",
+       "  }",
+       "  var j = 6",
+       "  while j > 0 {",
+       "    print(get(35 - (j * 2), s))",
+       "    print(get(35 - (j * 2), s))",
+       "    j = j - 1",
+       "  }",
+       "}");
+    VM vm = buildVM(s);
+    vm.run();
+    assertEquals("bbeehhkknnqqxxzz11335577", output.toString());
+    // each multiplication is done once, before its loop
+    List<OpCode> opcodes = opcodes(vm, "main");
+    assertEquals(2, Collections.frequency(opcodes, OpCode.IMULU));
+    assertTrue(opcodes.indexOf(OpCode.IMULU) < opcodes.indexOf(OpCode.JMPF));
+  }
+
+  @Test
+  public void inductionVariablesKeptWhenUnprofitable() throws Exception {
+    String s = buildString
+      ("fun void main() {",
+       "  for i from 3 downto 1 {",
+       "    print((i * 3) + 1)",
+       "  }",
+       "}");
+    VM vm = buildVM(s);
+    vm.run();
+    assertEquals("1074", output.toString());
+    List<OpCode> opcodes = opcodes(vm, "main");
+    assertTrue(opcodes.indexOf(OpCode.IMULU) > opcodes.indexOf(OpCode.JMPF));
+  }
+
+  @Test
+  public void repeatedFieldPathsReadOnce() throws Exception {
+    String s = buildString
+      ("type Node {",
+       "  var int value = 0",
+       "  var Node left = nil",
+       "}",
+       "fun void main() {",
+       "  var root = new Node",
+       "  root.left = new Node",
+       "  root.left.left = new Node",
+       "  root.left.value = 5",
+       "  print(root.left.value)",
+       "  print(root.left.left.value)",
+       "  root.left.left.value = root.left.value + 1",
+       "  print(root.left.left.value)",
+       "}");
+    VM vm = buildVM(s);
+    vm.run();
+    assertEquals("506", output.toString());
+    // root.left is read again after each root.left = ..., and
+    // root.left.left.value after it is set
+    assertEquals(6, Collections.frequency(opcodes(vm, "main"), OpCode.GETFLD));
+  }
+
+  @Test
+  public void fieldPathsReadAgainAfterChanges() throws Exception {
+    String s = buildString
+      ("type Node {",
+       "  var int value = 0",
+       "  var Node next = nil",
+       "}",
+       "fun void bump(Node n, int k) {",
+       "  if k > 0 {",
+       "    n.value = n.value + 1",
+       "    bump(n, k - 1)",
+       "  }",
+       "}",
+       "fun void main() {",
+       "  var a = new Node",
+       "  a.next = new Node",
+       "  print(a.next.value)",
+       "  bump(a.next, 2)",
+       "  print(a.next.value)",
+       "  if a.next.value > 1 {",
+       "    a.next.value = 7",
+       "  }",
+       "  print(a.next.value)",
+       "  a.next = new Node",
+       "  print(a.next.value)",
+       "}");
+    VM vm = buildVM(s);
+    vm.run();
+    assertEquals("0270", output.toString());
+  }
+
+  @Test
+  public void fieldPathValuesKeptAcrossChanges() throws Exception {
+    String s = buildString
+      ("type Node {",
+       "  var int value = 0",
+       "  var Node left = nil",
+       "}",
+       "fun void main() {",
+       "  var p = new Node",
+       "  p.left = new Node",
+       "  p.left.value = 5",
+       "  var q = p.left",
+       "  p.left = new Node",
+       "  p.left.value = 9",
+       "  print(p.left.value) print(\" \") print(q.value) print(\" \")",
+       "  var list = new Node",
+       "  for i from 1 upto 3 {",
+       "    var n = new Node",
+       "    n.value = i",
+       "    var old = list.left",
+       "    n.left = old",
+       "    list.left = n",
+       "    print(list.left.value)",
+       "    if old != nil {",
+       "      print(old.value)",
+       "    }",
+       "  }",
+       "}");
+    VM vm = buildVM(s);
+    vm.run();
+    // (q and old still hold the nodes read before the changes)
+    assertEquals("9 5 12132", output.toString());
+  }
+
+  @Test
+  public void slotsSharedByDisjointLocals() throws Exception {
+    String s = buildString
+      ("fun int f(int n) {",
+       "  var total = 0",
+       "  for i from 1 upto n {",
+       "    var a = i * 2",
+       "    total = total + a",
+       "  }",
+       "  for j from 1 upto n {",
+       "    var b = j + 3",
+       "    total = total + b",
+       "  }",
+       "  var k = 0",
+       "  while k < n {",
+       "    var c = k - 1",
+       "    total = total + c",
+       "    k = k + 1",
+       "  }",
+       "  return total",
+       "}",
+       "fun void main() {",
+       "  print(f(3))",
+       "  print(\" \")",
+       "  print(f(0))",
+       "}");
+    VM vm = buildVM(s);
+    vm.run();
+    assertEquals("27 0", output.toString());
+    // n, total, and a loop variable and its local at a time
+    assertEquals(4, vm.program().get("f").localCount());
+  }
+
+  @Test
+  public void recursiveFunctionsNotInlined() throws Exception {
+    String s = buildString
+      ("fun int f(int n) {",
+       "  if n <= 0 {",
+       "    return 0",
+       "  }",
+       "  return 1 + g(n - 1)",
+       "}",
+       "fun int g(int n) {",
+       "  return f(n)",
+       "}",
+       "fun void main() {",
+       "  print(f(3))",
+       "}");
+    VM vm = buildVM(s);
+    vm.run();
+    assertEquals("3", output.toString());
+    assertTrue(opcodes(vm, "main").contains(OpCode.CALL));
+    assertTrue(opcodes(vm, "f").contains(OpCode.CALL));
+  }
+
+  @Test
+  public void controlFlowGraphLowersToSameCode() throws Exception {
+    String s = buildString
+      ("fun int f(int n) {",
+       "  var s = 0",
+       "  var i = 0",
+       "  while i < n {",
+       "    if ((i % 2) == 0) and (i > 3) {",
+       "      s = s + i",
+       "    }",
+       "    i = i + 1",
+       "  }",
+       "  return s",
+       "}",
+       "fun void main() {",
+       "  for j from 0 upto 3 {",
+       "    print(f(j * 4))",
+       "    print(\" \")",
+       "  }",
+       "}");
+    VM vm = buildVM(s);
+    VMProgram program = vm.program();
+    for (String name : program.functionNames()) {
+      VMFrame frame = program.get(name);
+      String before = frame.instructions.toString();
+      ControlFlowGraph.build(program, frame).lower();
+      assertEquals(before, frame.instructions.toString());
+    }
+    vm.run();
+    assertEquals("0 0 10 28 ", output.toString());
+  }
+
+  @Test
+  public void ssaFormDefinesEachValueOnce() throws Exception {
+    String s = buildString
+      ("fun int f(int n) {",
+       "  var s = 0",
+       "  var i = 0",
+       "  while i < n {",
+       "    if (i > 3) or (n > 5) {",
+       "      s = s + i",
+       "    }",
+       "    i = i + 1",
+       "  }",
+       "  return s",
+       "}",
+       "fun void main() {",
+       "  print(f(8))",
+       "}");
+    VMProgram program = buildVM(s).program();
+    ControlFlowGraph graph = ControlFlowGraph.build(program, program.get("f"));
+    SSAForm ssa = SSAForm.build(program, graph);
+    Set<String> defs = new HashSet<>();
+    Set<Integer> phiSlots = new HashSet<>();
+    for (BasicBlock block : graph.blocks()) {
+      for (SSAInstr instr : ssa.code(block)) {
+        if (instr.def != null)
+          assertTrue(defs.add(instr.def));
+        if (instr.isPhi()) {
+          assertEquals(block.predecessors.size(), instr.uses.size());
+          phiSlots.add(instr.slot);
+        }
+        for (String use : instr.uses)
+          assertTrue(use.endsWith(".0") || ssa.definition(use) != null);
+      }
+    }
+    // s and i (slots 1 and 2) merge at the loop header, and the or at
+    // the branch
+    assertEquals(new HashSet<>(Arrays.asList(-1, 1, 2)), phiSlots);
+  }
+
   //------------------------------------------------------------
   // Basic Function Calls
   //------------------------------------------------------------
@@ -289,6 +985,24 @@ public class CodeGeneratorTest {
     assertEquals("a 8 3 2.5 4 1.25", output.toString());
   }
 
+  @Test
+  public void nestedTimers() throws Exception {
+    String s = buildString
+      ("fun void main() {",
+       "  timestart(\"outer\")",
+       "  timestart()",
+       "  timeend()",
+       "  timeend(\"outer\")",
+       "  var inner = timedelta()",
+       "  var outer = timedelta(\"outer\")",
+       "  print(inner >= 0.0) print(' ')",
+       "  print(outer >= inner)",
+       "}");
+    VM vm = buildVM(s);
+    vm.run();
+    assertEquals("true true", output.toString());
+  }
+
   //------------------------------------------------------------
   // Boolean Expressions
   //------------------------------------------------------------
@@ -352,7 +1066,32 @@ public class CodeGeneratorTest {
        "}");
     VM vm = buildVM(s);
     vm.run();
-    assertEquals("true", output.toString());
+    assertEquals("true", output.toString());
+  }
+
+  @Test
+  public void booleanOperatorsShortCircuit() throws Exception {
+    String s = buildString
+      ("type Node {",
+       "  var int value = 0",
+       "}",
+       "fun bool check(bool b) {",
+       "  print('c')",
+       "  return b",
+       "}",
+       "fun void main() {",
+       "  var Node ptr = nil",
+       "  print((ptr != nil) and (ptr.value > 0))",
+       "  print(check(false) and check(true))",
+       "  print(check(true) or check(false))",
+       "  print(check(true) and check(false) or check(true))",
+       "}");
+    VM vm = buildVM(s);
+    vm.run();
+    assertEquals("falsecfalsectrueccctrue", output.toString());
+    List<OpCode> opcodes = opcodes(vm, "main");
+    assertTrue(opcodes.containsAll(List.of(OpCode.JMPFK, OpCode.JMPTK)));
+    assertFalse(opcodes.contains(OpCode.AND) || opcodes.contains(OpCode.OR));
   }
 
   @Test
@@ -604,6 +1343,33 @@ public class CodeGeneratorTest {
     vm.run();
     assertEquals("90", output.toString());
   }
+
+  @Test
+  public void loopsKeepStackBalanced() throws Exception {
+    String s = buildString
+      ("fun int f(int x) {",
+       "  return x",
+       "}",
+       "fun void main() {",
+       "  var n = 0",
+       "  for i from 1 upto 1000 {",
+       "    f(i)",
+       "    if (i % 2) == 0 {",
+       "      n = n + 1",
+       "    }",
+       "  }",
+       "  while n > 0 {",
+       "    f(n)",
+       "    n = n - 1",
+       "  }",
+       "  print(n)",
+       "}");
+    VM vm = buildVM(s);
+    vm.run();
+    assertEquals("0", output.toString());
+    // loop conditions and unused call results are popped
+    assertEquals(2, vm.program().get("main").maxStack());
+  }
   
   //------------------------------------------------------------
   // If-Then-Else Statements
@@ -819,6 +1585,345 @@ public class CodeGeneratorTest {
     assertEquals("0truenil 11123true", output.toString());
   }
   
+  //------------------------------------------------------------
+  // Shared Programs
+  //------------------------------------------------------------
+
+  @Test
+  public void concurrentRunsOfSharedProgram() throws Exception {
+    String s = buildString
+      ("type Node {",
+       "  var int value = 0",
+       "  var Node next = nil",
+       "}",
+       "fun int sum(Node head) {",
+       "  var total = 0",
+       "  while head != nil {",
+       "    total = total + head.value",
+       "    head = head.next",
+       "  }",
+       "  return total",
+       "}",
+       "fun void main() {",
+       "  var n = stoi(read())",
+       "  var Node head = nil",
+       "  for i from 1 upto n {",
+       "    var node = new Node",
+       "    node.value = i",
+       "    node.next = head",
+       "    head = node",
+       "  }",
+       "  print(itos(n) + \":\" + itos(sum(head)))",
+       "}");
+    VMProgram program = buildVM(s).program();
+    int runs = 200;
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+    List<Future<String>> results = new ArrayList<>();
+    for (int i = 0; i < runs; ++i) {
+      final int n = i;
+      results.add(pool.submit(() -> {
+        InputStream in = new ByteArrayInputStream((n + "\n").getBytes("UTF-8"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        VM vm = new VM(program, in, new PrintStream(out));
+        vm.run();
+        return out.toString();
+      }));
+    }
+    for (int i = 0; i < runs; ++i)
+      assertEquals(i + ":" + (i * (i + 1) / 2), results.get(i).get());
+    pool.shutdown();
+    assertEquals("", output.toString());
+  }
+
+  //------------------------------------------------------------
+  // Tasks
+  //------------------------------------------------------------
+
+  @Test
+  public void spawnAndJoin() throws Exception {
+    String s = buildString
+      ("fun int add(int x, int y) {",
+       "  return x + y",
+       "}",
+       "fun void main() {",
+       "  var t1 = spawn(add, 1, 2)",
+       "  var t2 = spawn(add, 10, 20)",
+       "  print(join(t2) - join(t1))",
+       "}");
+    VM vm = buildVM(s);
+    vm.run();
+    assertEquals("27", output.toString());
+  }
+
+  @Test
+  public void recursiveSpawn() throws Exception {
+    String s = buildString
+      ("fun int fib(int n) {",
+       "  if n < 2 {",
+       "    return n",
+       "  }",
+       "  if n < 10 {",
+       "    return fib(n - 1) + fib(n - 2)",
+       "  }",
+       "  var left = spawn(fib, n - 1)",
+       "  var right = fib(n - 2)",
+       "  return join(left) + right",
+       "}",
+       "fun void main() {",
+       "  print(fib(18))",
+       "}");
+    VM vm = buildVM(s);
+    vm.run();
+    assertEquals("2584", output.toString());
+  }
+
+  @Test
+  public void spawnedTasksShareHeap() throws Exception {
+    String s = buildString
+      ("type Counter {",
+       "  var int value = 0",
+       "}",
+       "fun Counter make(int v) {",
+       "  var c = new Counter",
+       "  c.value = v",
+       "  return c",
+       "}",
+       "fun void main() {",
+       "  var t1 = spawn(make, 3)",
+       "  var t2 = spawn(make, 4)",
+       "  var c1 = join(t1)",
+       "  var c2 = join(t2)",
+       "  print(c1.value + c2.value)",
+       "}");
+    VM vm = buildVM(s);
+    vm.run();
+    assertEquals("7", output.toString());
+  }
+
+  @Test
+  public void spawnedTasksShareBudget() throws Exception {
+    String s = buildString
+      ("fun int spin(int n) {",
+       "  var k = 0",
+       "  while k < n {",
+       "    k = k + 1",
+       "  }",
+       "  return k",
+       "}",
+       "fun void main() {",
+       "  var t1 = spawn(spin, 3000)",
+       "  var t2 = spawn(spin, 3000)",
+       "  var t3 = spawn(spin, 3000)",
+       "  var t4 = spawn(spin, 3000)",
+       "  print(join(t1) + join(t2) + join(t3) + join(t4))",
+       "}");
+    // (each task alone fits in the budget, but not all four)
+    VM vm = buildVM(s);
+    vm.setInstructionBudget(30000);
+    try {
+      vm.run();
+      fail("runtime error not detected");
+    } catch(MyPLException e) {
+      assertTrue(e.getMessage().contains("Instruction budget"));
+    }
+  }
+
+  @Test
+  public void parforOutputInOrder() throws Exception {
+    String s = buildString
+      ("fun bool is_prime(int n) {",
+       "  var m = n / 2",
+       "  var v = 2",
+       "  while v <= m {",
+       "    if n == (n / v) * v {",
+       "      return false",
+       "    }",
+       "    v = v + 1",
+       "  }",
+       "  return true",
+       "}",
+       "fun void main() {",
+       "  var lo = 2",
+       "  parfor i from lo upto 60 {",
+       "    if is_prime(i) {",
+       "      print(itos(i) + \" \")",
+       "    }",
+       "  }",
+       "  print(lo)",
+       "}");
+    VM vm = buildVM(s);
+    vm.run();
+    assertEquals("2 3 5 7 11 13 17 19 23 29 31 37 41 43 47 53 59 2", output.toString());
+  }
+
+  @Test
+  public void parforSharesBudget() throws Exception {
+    String s = buildString
+      ("fun int spin(int n) {",
+       "  var k = 0",
+       "  while k < n {",
+       "    k = k + 1",
+       "  }",
+       "  return k",
+       "}",
+       "fun void main() {",
+       "  print(spin(3000))",
+       "  parfor i from 1 upto 4 {",
+       "    print(spin(750))",
+       "  }",
+       "}");
+    // (main and the parfor each fit in the budget, but not together)
+    VM vm = buildVM(s);
+    vm.setInstructionBudget(30000);
+    try {
+      vm.run();
+      fail("runtime error not detected");
+    } catch(MyPLException e) {
+      assertTrue(e.getMessage().contains("Instruction budget"));
+    }
+  }
+
+  @Test
+  public void parforWritesHeap() throws Exception {
+    String s = buildString
+      ("type Node {",
+       "  var int value = 0",
+       "  var Node next = nil",
+       "}",
+       "fun void main() {",
+       "  var Node head = nil",
+       "  for i from 1 upto 5 {",
+       "    var node = new Node",
+       "    node.next = head",
+       "    head = node",
+       "  }",
+       "  var empty = 0",
+       "  parfor i from 1 upto empty {",
+       "    print(\"never\")",
+       "  }",
+       "  parfor i from 1 upto 1 {",
+       "    var ptr = head",
+       "    var k = 1",
+       "    while ptr != nil {",
+       "      ptr.value = k * k",
+       "      ptr = ptr.next",
+       "      k = k + 1",
+       "    }",
+       "  }",
+       "  var ptr = head",
+       "  while ptr != nil {",
+       "    print(ptr.value) print(' ')",
+       "    ptr = ptr.next",
+       "  }",
+       "}");
+    VM vm = buildVM(s);
+    vm.run();
+    assertEquals("1 4 9 16 25 ", output.toString());
+  }
+
+  //------------------------------------------------------------
+  // Compiled programs
+  //------------------------------------------------------------
+
+  @Test
+  public void savedProgramRuns() throws Exception {
+    File file = File.createTempFile("mypl", ".myplc");
+    file.deleteOnExit();
+    String s = buildString
+      ("type T {",
+       "  var s = \"nil\"",
+       "  var T next = nil",
+       "  var d = 1.0",
+       "}",
+       "fun int fac(int n) {",
+       "  if n <= 1 {",
+       "    return 1",
+       "  }",
+       "  return n * fac(n - 1)",
+       "}",
+       "fun void main() {",
+       "  var t = new T",
+       "  print(itos(fac(5)) + \" \" + t.s + \" \")",
+       "  print(t.next == nil)",
+       "  print(\" \" + dtos(t.d * 1.5))",
+       "}");
+    VMProgram program = buildVM(s).program();
+    program.save(file.getPath());
+    VMProgram loaded = VMProgram.load(file.getPath());
+    assertEquals(program.toString(), loaded.toString());
+    new VM(loaded, System.in, System.out).run();
+    assertEquals("120 nil true 1.5", output.toString());
+  }
+
+  //------------------------------------------------------------
+  // Checkpoints
+  //------------------------------------------------------------
+
+  @Test
+  public void checkpointAndResume() throws Exception {
+    File file = File.createTempFile("mypl", ".ckpt");
+    file.deleteOnExit();
+    String s = buildString
+      ("type Node {",
+       "  var double value = 0.0",
+       "  var string name = \"\"",
+       "  var Node next = nil",
+       "}",
+       "fun Node build(int n) {",
+       "  var Node head = nil",
+       "  for i from 1 upto n {",
+       "    var node = new Node",
+       "    node.value = itod(i) / 2.0",
+       "    node.name = \"n\" + itos(i)",
+       "    node.next = head",
+       "    head = node",
+       "  }",
+       "  print(\"built \")",
+       "  checkpoint(\"" + file.getPath() + "\")",
+       "  return head",
+       "}",
+       "fun void main() {",
+       "  var ok = true",
+       "  var head = build(3)",
+       "  while head != nil {",
+       "    print(head.name + \"=\" + dtos(head.value) + \" \")",
+       "    head = head.next",
+       "  }",
+       "  print(ok)",
+       "}");
+    VM vm = buildVM(s);
+    vm.run();
+    assertEquals("built n3=1.5 n2=1.0 n1=0.5 true", output.toString());
+    // resume in a new VM (with its own output)
+    ByteArrayOutputStream resumed = new ByteArrayOutputStream();
+    VM restored = VM.restore(file.getPath(), System.in, new PrintStream(resumed));
+    restored.run();
+    assertEquals("n3=1.5 n2=1.0 n1=0.5 true", resumed.toString());
+  }
+
+  @Test
+  public void resumeKeepsAllocatingNewObjects() throws Exception {
+    File file = File.createTempFile("mypl", ".ckpt");
+    file.deleteOnExit();
+    String s = buildString
+      ("type T {",
+       "  var int x = 0",
+       "}",
+       "fun void main() {",
+       "  var t1 = new T",
+       "  t1.x = 1",
+       "  checkpoint(\"" + file.getPath() + "\")",
+       "  var t2 = new T",
+       "  t2.x = 2",
+       "  print(t1.x + t2.x)",
+       "  print(t1 != t2)",
+       "}");
+    buildVM(s).run();
+    ByteArrayOutputStream resumed = new ByteArrayOutputStream();
+    VM.restore(file.getPath(), System.in, new PrintStream(resumed)).run();
+    assertEquals("3true", resumed.toString());
+  }
+
   //------------------------------------------------------------
   // Runtime errors
   //------------------------------------------------------------
@@ -891,6 +1996,149 @@ public class CodeGeneratorTest {
     }
   }
 
+  @Test
+  public void timeendWithoutTimestart() throws Exception {
+    String s = buildString
+      ("fun void main() {",
+       "  timestart(\"a\")",
+       "  timeend(\"b\")",
+       "}");
+    VM vm = buildVM(s);
+    try {
+      vm.run();
+      fail("runtime error not detected");
+    } catch(MyPLException e) {
+      // to test message: assertEquals("...", e.getMessage());
+      // to print message: stdout.println(e.toString());
+    }
+  }
+
+  @Test
+  public void errorInSpawnedTask() throws Exception {
+    String s = buildString
+      ("fun int f(string s) {",
+       "  return stoi(s)",
+       "}",
+       "fun void main() {",
+       "  var t = spawn(f, \"bar\")",
+       "  print(join(t))",
+       "}");
+    VM vm = buildVM(s);
+    try {
+      vm.run();
+      fail("runtime error not detected");
+    } catch(MyPLException e) {
+      // to test message: assertEquals("...", e.getMessage());
+      // to print message: stdout.println(e.toString());
+    }
+  }
+
+  @Test
+  public void checkpointWithRunningTask() throws Exception {
+    File file = File.createTempFile("mypl", ".ckpt");
+    file.deleteOnExit();
+    String s = buildString
+      ("fun int f() {",
+       "  checkpoint(\"" + file.getPath() + "\")",
+       "  return 1",
+       "}",
+       "fun void main() {",
+       "  print(join(spawn(f)))",
+       "}");
+    VM vm = buildVM(s);
+    try {
+      vm.run();
+      fail("runtime error not detected");
+    } catch(MyPLException e) {
+      // to test message: assertEquals("...", e.getMessage());
+      // to print message: stdout.println(e.toString());
+    }
+  }
+
+  @Test
+  public void checkpointsDisabled() throws Exception {
+    File file = File.createTempFile("mypl", ".ckpt");
+    file.delete();
+    String s = buildString
+      ("fun void main() {",
+       "  checkpoint(\"" + file.getPath() + "\")",
+       "}");
+    VM vm = buildVM(s);
+    vm.setCheckpointsEnabled(false);
+    try {
+      vm.run();
+      fail("runtime error not detected");
+    } catch(MyPLException e) {
+      assertFalse(file.exists());
+    }
+  }
+
+  @Test
+  public void checkpointOutsideDirectory() throws Exception {
+    Path dir = Files.createTempDirectory("mypl-ckpt");
+    String s = buildString
+      ("fun void main() {",
+       "  checkpoint(\"../escaped.ckpt\")",
+       "}");
+    VM vm = buildVM(s);
+    vm.setCheckpointDirectory(dir);
+    try {
+      vm.run();
+      fail("runtime error not detected");
+    } catch(MyPLException e) {
+      assertFalse(Files.exists(dir.resolveSibling("escaped.ckpt")));
+    } finally {
+      Files.delete(dir);
+    }
+  }
+
+  @Test
+  public void checkpointInDirectory() throws Exception {
+    Path dir = Files.createTempDirectory("mypl-ckpt");
+    String s = buildString
+      ("fun void main() {",
+       "  checkpoint(\"state.ckpt\")",
+       "  print(\"done\")",
+       "}");
+    VM vm = buildVM(s);
+    vm.setCheckpointDirectory(dir);
+    vm.run();
+    Path file = dir.resolve("state.ckpt");
+    assertTrue(Files.exists(file));
+    Files.delete(file);
+    Files.delete(dir);
+    assertEquals("done", output.toString());
+  }
+
+  @Test
+  public void invalidCheckpointFile() throws Exception {
+    File file = File.createTempFile("mypl", ".ckpt");
+    file.deleteOnExit();
+    try {
+      VM.restore(file.getPath(), System.in, System.out);
+      fail("runtime error not detected");
+    } catch(MyPLException e) {
+      // to test message: assertEquals("...", e.getMessage());
+      // to print message: stdout.println(e.toString());
+    }
+  }
+
+  @Test
+  public void invalidProgramFile() throws Exception {
+    File file = File.createTempFile("mypl", ".myplc");
+    file.deleteOnExit();
+    try (PrintStream out = new PrintStream(file)) {
+      out.print("MYPLC not really a program");
+    }
+    try {
+      VMProgram.load(file.getPath());
+      fail("runtime error not detected");
+    } catch(MyPLException e) {
+      // to test message: assertEquals("...", e.getMessage());
+      // to print message: stdout.println(e.toString());
+    }
+  }
+
   @Test
   public void invalidHeapAccess() throws Exception {
     String s = buildString
@@ -0,0 +1,145 @@
+/*
+ * File: CompileCacheTest.java
+ * Date: Spring 2022
+ * Auth: Cameron S. Williamson
+ * Desc: Tests for the on-disk cache of compiled MyPL programs.
+ */
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import org.junit.Before;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+
+public class CompileCacheTest {
+
+  private Path dir;
+
+  @Before
+  public void createCacheDir() throws Exception {
+    dir = Files.createTempDirectory("mypl-cache");
+  }
+
+  @After
+  public void removeCacheDir() throws Exception {
+    try (Stream<Path> files = Files.walk(dir)) {
+      files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+    }
+  }
+
+  //------------------------------------------------------------
+  // HELPER FUNCTIONS
+  //------------------------------------------------------------
+
+  private static VMProgram compile(String s) throws Exception {
+    InputStream in = new ByteArrayInputStream(s.getBytes("UTF-8"));
+    return MyPL.compile(in);
+  }
+
+  private static String run(VMProgram program) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new VM(program, System.in, new PrintStream(out)).run();
+    return out.toString();
+  }
+
+  private static String source(int i) {
+    return "fun void main() {\n  print(" + i + ")\n}\n";
+  }
+
+  // the file of the cache entry for the given source
+  private Path entryFile(CompileCache cache, byte[] source) {
+    return dir.resolve("v2").resolve(cache.key(source) + ".myplc");
+  }
+
+  private int entryCount() throws Exception {
+    try (Stream<Path> files = Files.walk(dir)) {
+      return (int) files.filter(p -> p.toString().endsWith(".myplc")).count();
+    }
+  }
+
+  //------------------------------------------------------------
+  // Cache tests
+  //------------------------------------------------------------
+
+  @Test
+  public void missThenHit() throws Exception {
+    CompileCache cache = new CompileCache(dir, 1024 * 1024);
+    byte[] source = source(42).getBytes("UTF-8");
+    assertNull(cache.get(source));
+    cache.put(source, compile(source(42)));
+    VMProgram cached = cache.get(source);
+    assertNotNull(cached);
+    assertEquals("42", run(cached));
+  }
+
+  @Test
+  public void keysDependOnSource() throws Exception {
+    CompileCache cache = new CompileCache(dir, 1024 * 1024);
+    byte[] s1 = source(1).getBytes("UTF-8");
+    byte[] s2 = source(2).getBytes("UTF-8");
+    assertEquals(cache.key(s1), cache.key(s1.clone()));
+    assertNotEquals(cache.key(s1), cache.key(s2));
+    cache.put(s1, compile(source(1)));
+    assertNull(cache.get(s2));
+  }
+
+  @Test
+  public void entryForOtherSourceIsAMiss() throws Exception {
+    // (as if the two sources' keys collided)
+    CompileCache cache = new CompileCache(dir, 1024 * 1024);
+    byte[] s1 = source(1).getBytes("UTF-8");
+    byte[] s2 = source(2).getBytes("UTF-8");
+    cache.put(s1, compile(source(1)));
+    Files.move(entryFile(cache, s1), entryFile(cache, s2));
+    assertNull(cache.get(s2));
+  }
+
+  @Test
+  public void damagedEntryIsAMiss() throws Exception {
+    CompileCache cache = new CompileCache(dir, 1024 * 1024);
+    byte[] source = source(7).getBytes("UTF-8");
+    cache.put(source, compile(source(7)));
+    Files.write(entryFile(cache, source), "garbage".getBytes("UTF-8"));
+    assertNull(cache.get(source));
+    assertEquals(0, entryCount());
+  }
+
+  @Test
+  public void leastRecentlyUsedEntriesEvicted() throws Exception {
+    // find the size of one entry, and allow for three
+    CompileCache probe = new CompileCache(dir, Long.MAX_VALUE);
+    byte[] s0 = source(0).getBytes("UTF-8");
+    probe.put(s0, compile(source(0)));
+    long entrySize = entryFile(probe, s0).toFile().length();
+    CompileCache cache = new CompileCache(dir, 3 * entrySize);
+    long time = System.currentTimeMillis() - 100000;
+    entryFile(cache, s0).toFile().setLastModified(time);
+    for (int i = 1; i <= 2; ++i) {
+      byte[] source = source(i).getBytes("UTF-8");
+      cache.put(source, compile(source(i)));
+      entryFile(cache, source).toFile().setLastModified(time + 10000 * i);
+    }
+    assertEquals(3, entryCount());
+    // using entry 0 makes entry 1 the least recently used
+    assertNotNull(cache.get(s0));
+    cache.put(source(3).getBytes("UTF-8"), compile(source(3)));
+    assertEquals(3, entryCount());
+    assertNull(cache.get(source(1).getBytes("UTF-8")));
+    assertNotNull(cache.get(source(2).getBytes("UTF-8")));
+    assertNotNull(cache.get(source(3).getBytes("UTF-8")));
+    assertNotNull(cache.get(s0));
+  }
+}
@@ -255,7 +255,7 @@ public class GoVisitorTest {
                 "func main() {",
                 "\tstart := time.Now()",
                 "\tend := time.Now()",
-                "\tend.Sub(start)",
+                "\tend.Sub(start).Seconds()",
                 "}");
         assertEquals(expected, buildVisitor(s));
     }
@@ -355,6 +355,22 @@ public class GoVisitorTest {
         assertEquals(expected, buildVisitor(s));
     }
 
+    @Test
+    public void ifWithGroupedOperators() throws Exception {
+        String s = buildString("fun void main() {",
+                "if (true or false) and not false or true {",
+                "var x = 1",
+                "}",
+                "}");
+        String expected = buildString("package main",
+                "func main() {",
+                "\tif (true || false) && !(false || true) {",
+                "\t\tx := 1",
+                "\t}",
+                "}");
+        assertEquals(expected, buildVisitor(s));
+    }
+
     // --------------------
     // While Loops
     // --------------------
@@ -163,13 +163,13 @@ public class LexerTest {
       TokenType.INT_TYPE, TokenType.DOUBLE_TYPE, TokenType.CHAR_TYPE,
       TokenType.STRING_TYPE, TokenType.BOOL_TYPE, TokenType.VOID_TYPE,
       TokenType.VAR, TokenType.TYPE, TokenType.WHILE, TokenType.FOR,
-      TokenType.FROM, TokenType.UPTO, TokenType.DOWNTO,
+      TokenType.PARFOR, TokenType.FROM, TokenType.UPTO, TokenType.DOWNTO,
       TokenType.IF, TokenType.ELIF, TokenType.ELSE, TokenType.FUN,
       TokenType.NEW, TokenType.DELETE, TokenType.RETURN,
       TokenType.NIL};
     String[] words = {
       "and", "or", "not", "neg", "int", "double", "char", "string",
-      "bool", "void", "var", "type", "while", "for", "from", "upto",
+      "bool", "void", "var", "type", "while", "for", "parfor", "from", "upto",
       "downto", "if", "elif", "else", "fun", "new", "delete",
       "return", "nil"};
     String s = "";
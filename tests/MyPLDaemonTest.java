@@ -0,0 +1,233 @@
+/*
+ * File: MyPLDaemonTest.java
+ * Date: Spring 2022
+ * Auth: Cameron S. Williamson
+ * Desc: Tests for running scripts on the MyPL daemon through the
+ *       client, including a small latency comparison with running
+ *       the same script from scratch in-process.
+ */
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+
+public class MyPLDaemonTest {
+
+  private Path dir;
+  private Path cacheDir;
+  private Path socket;
+  private MyPLDaemon daemon;
+  private Thread server;
+
+  @Before
+  public void startDaemon() throws Exception {
+    dir = Files.createTempDirectory("mypl-daemon");
+    cacheDir = Files.createTempDirectory("mypl-cache");
+    socket = dir.resolve("mypl.sock");
+    daemon = new MyPLDaemon(socket, new CompileCache(cacheDir, 1024 * 1024));
+    server = new Thread(() -> {
+        try {
+          daemon.serve();
+        } catch (Exception e) {
+          // stopped
+        }
+      });
+    server.start();
+  }
+
+  @After
+  public void stopDaemon() throws Exception {
+    daemon.close();
+    server.join();
+    for (Path p : Files.list(dir).toArray(Path[]::new))
+      Files.delete(p);
+    Files.delete(dir);
+    try (Stream<Path> files = Files.walk(cacheDir)) {
+      files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+    }
+  }
+
+  //------------------------------------------------------------
+  // HELPER FUNCTIONS
+  //------------------------------------------------------------
+
+  private static String buildString(String... args) {
+    String str = "";
+    for (String s : args)
+      str += s + "\n";
+    return str;
+  }
+
+  private Path script(String name, String source) throws Exception {
+    return Files.write(dir.resolve(name), source.getBytes("UTF-8"));
+  }
+
+  private static InputStream input(String s) throws Exception {
+    return new ByteArrayInputStream(s.getBytes("UTF-8"));
+  }
+
+  private static String echoProgram() {
+    return buildString
+      ("fun void main() {",
+       "  var line = read()",
+       "  while line != \"quit\" {",
+       "    print(\"> \" + line + \"\\n\")",
+       "    line = read()",
+       "  }",
+       "}");
+  }
+
+  //------------------------------------------------------------
+  // Daemon tests
+  //------------------------------------------------------------
+
+  @Test
+  public void runScriptWithInput() throws Exception {
+    Path p = script("echo.mypl", echoProgram());
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    int status = MyPLClient.run(socket, p.toString(), input("a\nb\nquit\n"),
+                                new PrintStream(out), new PrintStream(err));
+    assertEquals(0, status);
+    assertEquals("> a\n> b\n", out.toString());
+    assertEquals("", err.toString());
+  }
+
+  @Test
+  public void programsCachedInGivenCache() throws Exception {
+    Path p = script("echo.mypl", echoProgram());
+    MyPLClient.run(socket, p.toString(), input("quit\n"),
+                   new PrintStream(new ByteArrayOutputStream()), System.err);
+    byte[] source = Files.readAllBytes(p);
+    CompileCache cache = new CompileCache(cacheDir, 1024 * 1024);
+    assertNotNull(cache.get(source));
+  }
+
+  @Test
+  public void runtimeErrorReported() throws Exception {
+    Path p = script("bad.mypl", buildString
+      ("fun void main() {",
+       "  print(\"start \")",
+       "  var x = stoi(\"abc\")",
+       "}"));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    int status = MyPLClient.run(socket, p.toString(), input(""),
+                                new PrintStream(out), new PrintStream(err));
+    assertEquals(1, status);
+    assertEquals("start ", out.toString());
+    assertTrue(err.toString().startsWith("VM_ERROR:"));
+  }
+
+  @Test
+  public void staticErrorReported() throws Exception {
+    Path p = script("bad.mypl", buildString
+      ("fun void main() {",
+       "  var int x = \"abc\"",
+       "}"));
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    int status = MyPLClient.run(socket, p.toString(), input(""),
+                                new PrintStream(new ByteArrayOutputStream()),
+                                new PrintStream(err));
+    assertEquals(1, status);
+    assertTrue(err.toString().startsWith("STATIC_ERROR:"));
+  }
+
+  @Test
+  public void checkpointsDisabled() throws Exception {
+    Path file = dir.resolve("state.ckpt");
+    Path p = script("ckpt.mypl", buildString
+      ("fun void main() {",
+       "  checkpoint(\"" + file + "\")",
+       "}"));
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    int status = MyPLClient.run(socket, p.toString(), input(""),
+                                new PrintStream(new ByteArrayOutputStream()),
+                                new PrintStream(err));
+    assertEquals(1, status);
+    assertTrue(err.toString().startsWith("VM_ERROR:"));
+    assertFalse(Files.exists(file));
+  }
+
+  @Test
+  public void missingScriptReported() throws Exception {
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    int status = MyPLClient.run(socket, dir.resolve("none.mypl").toString(), input(""),
+                                new PrintStream(new ByteArrayOutputStream()),
+                                new PrintStream(err));
+    assertEquals(1, status);
+    assertTrue(err.toString().startsWith("ERROR: Unable to open file"));
+  }
+
+  @Test
+  public void concurrentClients() throws Exception {
+    Path p = script("echo.mypl", echoProgram());
+    ExecutorService clients = Executors.newFixedThreadPool(8);
+    List<Future<String>> results = new ArrayList<>();
+    for (int i = 0; i < 32; ++i) {
+      String line = "client " + i;
+      results.add(clients.submit(() -> {
+          ByteArrayOutputStream out = new ByteArrayOutputStream();
+          MyPLClient.run(socket, p.toString(), input(line + "\nquit\n"),
+                         new PrintStream(out), System.err);
+          return out.toString();
+        }));
+    }
+    for (int i = 0; i < 32; ++i)
+      assertEquals("> client " + i + "\n", results.get(i).get());
+    clients.shutdown();
+  }
+
+  //------------------------------------------------------------
+  // Latency
+  //------------------------------------------------------------
+
+  @Test
+  public void latencyComparedToColdRuns() throws Exception {
+    Path p = script("echo.mypl", echoProgram());
+    Path in = Files.write(dir.resolve("input.txt"), "x\nquit\n".getBytes("UTF-8"));
+    PrintStream sink = new PrintStream(new ByteArrayOutputStream());
+    // a new JVM per run (without the compile cache)
+    String java = System.getProperty("java.home") + "/bin/java";
+    ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                                                "MyPL", p.toString());
+    builder.environment().put("MYPL_NO_CACHE", "1");
+    builder.redirectInput(in.toFile());
+    builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+    int coldRuns = 5;
+    long start = System.nanoTime();
+    for (int i = 0; i < coldRuns; ++i)
+      assertEquals(0, builder.start().waitFor());
+    long cold = System.nanoTime() - start;
+    // through the daemon (after a few warm up runs)
+    int runs = 200;
+    for (int i = 0; i < 20; ++i)
+      MyPLClient.run(socket, p.toString(), input("x\nquit\n"), sink, System.err);
+    start = System.nanoTime();
+    for (int i = 0; i < runs; ++i)
+      MyPLClient.run(socket, p.toString(), input("x\nquit\n"), sink, System.err);
+    long daemonRuns = System.nanoTime() - start;
+    System.out.printf("MyPL latency: cold CLI %.2f ms per run, daemon %.2f ms per run%n",
+                      cold / 1e6 / coldRuns, daemonRuns / 1e6 / runs);
+  }
+}
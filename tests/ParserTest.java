@@ -284,4 +284,15 @@ public class ParserTest {
       assertEquals("PARSE_ERROR: expecting '=', found '}' at line 3, column 1", e.getMessage());
     }
   }
+
+  @Test
+  public void parforStmt() throws Exception {
+    String s = buildString("fun void main() {",
+        "  parfor i from 1 upto n {",
+        "    print(i)",
+        "  }",
+        "}");
+    Parser parser = buildParser(s);
+    parser.parse();
+  }
 }
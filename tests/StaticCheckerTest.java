@@ -481,6 +481,19 @@ public class StaticCheckerTest {
     }
   }
 
+  @Test
+  public void invalidBoolOperatorExpression() throws Exception {
+    String s = buildString("fun void main() {",
+        "  var x = true and 1",
+        "}");
+    try {
+      buildParser(s).parse().accept(buildChecker());
+      fail("error not detected");
+    } catch (MyPLException ex) {
+      assertTrue(ex.getMessage().startsWith("STATIC_ERROR:"));
+    }
+  }
+
   // ------------------------------------------------------------
   // IF, WHILE, FOR CASES
   // ------------------------------------------------------------
@@ -890,6 +903,208 @@ public class StaticCheckerTest {
     }
   }
 
+  @Test
+  public void namedTimerCalls() throws Exception {
+    String s = buildString("fun void main() {",
+        "  timestart(\"outer\")",
+        "  timestart()",
+        "  timeend()",
+        "  timeend(\"outer\")",
+        "  var double x = timedelta(\"outer\")",
+        "  var double y = timedelta()",
+        "}");
+    buildParser(s).parse().accept(buildChecker());
+  }
+
+  @Test
+  public void invalidTimerNameCall() throws Exception {
+    String s = buildString("fun void main() {",
+        "  timestart(1)",
+        "}");
+    try {
+      buildParser(s).parse().accept(buildChecker());
+      fail("error not detected");
+    } catch (MyPLException ex) {
+      assertTrue(ex.getMessage().startsWith("STATIC_ERROR:"));
+    }
+  }
+
+  @Test
+  public void invalidTimedeltaAssignment() throws Exception {
+    String s = buildString("fun void main() {",
+        "  var int x = timedelta()",
+        "}");
+    try {
+      buildParser(s).parse().accept(buildChecker());
+      fail("error not detected");
+    } catch (MyPLException ex) {
+      assertTrue(ex.getMessage().startsWith("STATIC_ERROR:"));
+    }
+  }
+
+  @Test
+  public void spawnAndJoinCalls() throws Exception {
+    String s = buildString("fun int f(int x, string y) {",
+        "  return x",
+        "}",
+        "fun void main() {",
+        "  var t = spawn(f, 1, \"a\")",
+        "  var int x = join(t)",
+        "}");
+    buildParser(s).parse().accept(buildChecker());
+  }
+
+  @Test
+  public void invalidSpawnFunction() throws Exception {
+    String s = buildString("fun void main() {",
+        "  var x = 1",
+        "  var t = spawn(x)",
+        "}");
+    try {
+      buildParser(s).parse().accept(buildChecker());
+      fail("error not detected");
+    } catch (MyPLException ex) {
+      assertTrue(ex.getMessage().startsWith("STATIC_ERROR:"));
+    }
+  }
+
+  @Test
+  public void invalidSpawnArgs() throws Exception {
+    String s = buildString("fun int f(int x) {",
+        "  return x",
+        "}",
+        "fun void main() {",
+        "  var t = spawn(f, \"a\")",
+        "}");
+    try {
+      buildParser(s).parse().accept(buildChecker());
+      fail("error not detected");
+    } catch (MyPLException ex) {
+      assertTrue(ex.getMessage().startsWith("STATIC_ERROR:"));
+    }
+  }
+
+  @Test
+  public void invalidJoinArg() throws Exception {
+    String s = buildString("fun void main() {",
+        "  var x = join(1)",
+        "}");
+    try {
+      buildParser(s).parse().accept(buildChecker());
+      fail("error not detected");
+    } catch (MyPLException ex) {
+      assertTrue(ex.getMessage().startsWith("STATIC_ERROR:"));
+    }
+  }
+
+  @Test
+  public void invalidJoinAssignment() throws Exception {
+    String s = buildString("fun int f() {",
+        "  return 1",
+        "}",
+        "fun void main() {",
+        "  var string x = join(spawn(f))",
+        "}");
+    try {
+      buildParser(s).parse().accept(buildChecker());
+      fail("error not detected");
+    } catch (MyPLException ex) {
+      assertTrue(ex.getMessage().startsWith("STATIC_ERROR:"));
+    }
+  }
+
+  @Test
+  public void checkpointCall() throws Exception {
+    String s = buildString("fun void main() {",
+        "  var path = \"state.ckpt\"",
+        "  checkpoint(path)",
+        "}");
+    buildParser(s).parse().accept(buildChecker());
+  }
+
+  @Test
+  public void invalidCheckpointArg() throws Exception {
+    String s = buildString("fun void main() {",
+        "  checkpoint(1)",
+        "}");
+    try {
+      buildParser(s).parse().accept(buildChecker());
+      fail("error not detected");
+    } catch (MyPLException ex) {
+      assertTrue(ex.getMessage().startsWith("STATIC_ERROR:"));
+    }
+  }
+
+  @Test
+  public void parforWithLocalWrites() throws Exception {
+    String s = buildString("type T {",
+        "  var int x = 0",
+        "}",
+        "fun void main() {",
+        "  var t = new T",
+        "  var n = 10",
+        "  parfor i from 1 upto n {",
+        "    var y = i * 2",
+        "    y = y + n",
+        "    for j from 1 upto 2 {",
+        "      y = y + j",
+        "    }",
+        "    t.x = y",
+        "  }",
+        "}");
+    buildParser(s).parse().accept(buildChecker());
+  }
+
+  @Test
+  public void parforWriteToEnclosingLocal() throws Exception {
+    String s = buildString("fun void main() {",
+        "  var sum = 0",
+        "  parfor i from 1 upto 10 {",
+        "    if i > 5 {",
+        "      sum = sum + i",
+        "    }",
+        "  }",
+        "}");
+    try {
+      buildParser(s).parse().accept(buildChecker());
+      fail("error not detected");
+    } catch (MyPLException ex) {
+      assertTrue(ex.getMessage().startsWith("STATIC_ERROR:"));
+    }
+  }
+
+  @Test
+  public void parforWriteToLoopVariable() throws Exception {
+    String s = buildString("fun void main() {",
+        "  parfor i from 1 upto 10 {",
+        "    i = i + 1",
+        "  }",
+        "}");
+    try {
+      buildParser(s).parse().accept(buildChecker());
+      fail("error not detected");
+    } catch (MyPLException ex) {
+      assertTrue(ex.getMessage().startsWith("STATIC_ERROR:"));
+    }
+  }
+
+  @Test
+  public void parforReturn() throws Exception {
+    String s = buildString("fun int f() {",
+        "  parfor i from 1 upto 10 {",
+        "    return i",
+        "  }",
+        "  return 0",
+        "}",
+        "fun void main() {}");
+    try {
+      buildParser(s).parse().accept(buildChecker());
+      fail("error not detected");
+    } catch (MyPLException ex) {
+      assertTrue(ex.getMessage().startsWith("STATIC_ERROR:"));
+    }
+  }
+
   @Test
   public void undefinedFunctionCall() throws Exception {
     String s = buildString("fun void main() {",
@@ -0,0 +1,185 @@
+/*
+ * File: VMExecutorTest.java
+ * Date: Spring 2022
+ * Auth: Cameron S. Williamson
+ * Desc: Tests for running many concurrent executions of one MyPL
+ *       program, including a small load test that reports how
+ *       throughput scales with the number of sessions.
+ */
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+
+public class VMExecutorTest {
+
+  //------------------------------------------------------------
+  // HELPER FUNCTIONS
+  //------------------------------------------------------------
+
+  private static VMProgram buildProgram(String s) throws Exception {
+    InputStream in = new ByteArrayInputStream(s.getBytes("UTF-8"));
+    return MyPL.compile(in);
+  }
+
+  private static String buildString(String... args) {
+    String str = "";
+    for (String s : args)
+      str += s + "\n";
+    return str;
+  }
+
+  // an interactive program: echoes back each line until "quit"
+  private static String echoProgram() {
+    return buildString
+      ("fun void main() {",
+       "  var line = read()",
+       "  while line != \"quit\" {",
+       "    print(\"> \" + line + \"\\n\")",
+       "    line = read()",
+       "  }",
+       "}");
+  }
+
+  // runs the given number of sessions that are all blocked in READ
+  // before any input is sent, and returns the elapsed nanoseconds
+  private static long runSessions(VMProgram program, int sessions) throws Exception {
+    long start = System.nanoTime();
+    List<PipedOutputStream> inputs = new ArrayList<>();
+    List<ByteArrayOutputStream> outputs = new ArrayList<>();
+    List<Future<Void>> results = new ArrayList<>();
+    try (VMExecutor executor = new VMExecutor(program)) {
+      for (int i = 0; i < sessions; ++i) {
+        PipedOutputStream input = new PipedOutputStream();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        InputStream in = new PipedInputStream(input);
+        results.add(executor.submit(in, new PrintStream(output)));
+        inputs.add(input);
+        outputs.add(output);
+      }
+      for (int i = 0; i < sessions; ++i) {
+        PipedOutputStream input = inputs.get(i);
+        input.write(("hello " + i + "\nquit\n").getBytes("UTF-8"));
+        input.close();
+      }
+      for (Future<Void> result : results)
+        result.get();
+    }
+    long elapsed = System.nanoTime() - start;
+    for (int i = 0; i < sessions; ++i)
+      assertEquals("> hello " + i + "\n", outputs.get(i).toString());
+    return elapsed;
+  }
+
+  //------------------------------------------------------------
+  // Executions
+  //------------------------------------------------------------
+
+  @Test
+  public void singleExecution() throws Exception {
+    VMProgram program = buildProgram(echoProgram());
+    InputStream in = new ByteArrayInputStream("a\nb\nquit\n".getBytes("UTF-8"));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (VMExecutor executor = new VMExecutor(program)) {
+      executor.submit(in, new PrintStream(out)).get();
+    }
+    assertEquals("> a\n> b\n", out.toString());
+  }
+
+  @Test
+  public void runtimeErrorReported() throws Exception {
+    String s = buildString
+      ("fun void main() {",
+       "  var x = stoi(read())",
+       "}");
+    VMProgram program = buildProgram(s);
+    InputStream in = new ByteArrayInputStream("abc\n".getBytes("UTF-8"));
+    try (VMExecutor executor = new VMExecutor(program)) {
+      executor.submit(in, new PrintStream(new ByteArrayOutputStream())).get();
+      fail("runtime error not detected");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof MyPLException);
+    }
+  }
+
+  @Test
+  public void limitsApplied() throws Exception {
+    String s = buildString
+      ("type T {",
+       "  var int x = 0",
+       "}",
+       "fun void main() {",
+       "  var n = stoi(read())",
+       "  var i = 0",
+       "  while i < n {",
+       "    var t = new T",
+       "    i = i + 1",
+       "  }",
+       "  print(i)",
+       "}");
+    VMProgram program = buildProgram(s);
+    try (VMExecutor executor = new VMExecutor(program)) {
+      // within both limits
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      executor.submit(new ByteArrayInputStream("10\n".getBytes("UTF-8")),
+                      new PrintStream(out), 1000, 100).get();
+      assertEquals("10", out.toString());
+      // over the instruction budget
+      try {
+        executor.submit(new ByteArrayInputStream("1000\n".getBytes("UTF-8")),
+                        new PrintStream(new ByteArrayOutputStream()), 5000, 0).get();
+        fail("runtime error not detected");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause().getMessage().contains("Instruction budget"));
+      }
+      // over the heap object cap
+      try {
+        executor.submit(new ByteArrayInputStream("200\n".getBytes("UTF-8")),
+                        new PrintStream(new ByteArrayOutputStream()), 0, 100).get();
+        fail("runtime error not detected");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause().getMessage().contains("Heap object limit"));
+      }
+    }
+  }
+
+  @Test
+  public void blockedSessionsDoNotInterfere() throws Exception {
+    VMProgram program = buildProgram(echoProgram());
+    runSessions(program, 100);
+  }
+
+  //------------------------------------------------------------
+  // Load test
+  //------------------------------------------------------------
+
+  @Test
+  public void throughputBySessionCount() throws Exception {
+    VMProgram program = buildProgram(echoProgram());
+    boolean virtual;
+    try (VMExecutor executor = new VMExecutor(program)) {
+      virtual = executor.usesVirtualThreads();
+    }
+    System.out.println("VMExecutor load test (virtual threads: " + virtual + ")");
+    for (int sessions : new int[] {1, 10, 100, 1000}) {
+      long elapsed = runSessions(program, sessions);
+      double perSecond = sessions / (elapsed / 1e9);
+      System.out.printf("  %5d sessions: %8.2f ms, %10.1f sessions/sec%n",
+                        sessions, elapsed / 1e6, perSecond);
+    }
+  }
+}
@@ -817,6 +817,7 @@ public class VMTest {
     VM vm = new VM();
     VMFrame f = new VMFrame("f", 1);
     vm.add(f);
+    f.instructions.add(VMInstr.LOAD(0));
     f.instructions.add(VMInstr.PUSH("green"));
     f.instructions.add(VMInstr.ADD());
     f.instructions.add(VMInstr.VRET());
@@ -834,7 +835,9 @@ public class VMTest {
     VM vm = new VM();
     VMFrame f = new VMFrame("f", 2);
     vm.add(f);
+    f.instructions.add(VMInstr.LOAD(0));
     f.instructions.add(VMInstr.WRITE());
+    f.instructions.add(VMInstr.LOAD(1));
     f.instructions.add(VMInstr.WRITE());
     f.instructions.add(VMInstr.PUSH(VM.NIL_OBJ));
     f.instructions.add(VMInstr.VRET());
@@ -853,20 +856,19 @@ public class VMTest {
     VM vm = new VM();
     VMFrame f = new VMFrame("sum", 1);
     vm.add(f);
-    f.instructions.add(VMInstr.STORE(0));    // 0
-    f.instructions.add(VMInstr.LOAD(0));     // 1
-    f.instructions.add(VMInstr.PUSH(0));     // 2
-    f.instructions.add(VMInstr.CMPLE());     // 3
-    f.instructions.add(VMInstr.JMPF(7));     // 4
-    f.instructions.add(VMInstr.PUSH(0));     // 5
-    f.instructions.add(VMInstr.VRET());      // 6
-    f.instructions.add(VMInstr.LOAD(0));     // 7
-    f.instructions.add(VMInstr.PUSH(1));     // 8
-    f.instructions.add(VMInstr.SUB());       // 9
-    f.instructions.add(VMInstr.CALL("sum")); // 10
-    f.instructions.add(VMInstr.LOAD(0));     // 11
-    f.instructions.add(VMInstr.ADD());       // 12
-    f.instructions.add(VMInstr.VRET());      // 13
+    f.instructions.add(VMInstr.LOAD(0));     // 0
+    f.instructions.add(VMInstr.PUSH(0));     // 1
+    f.instructions.add(VMInstr.CMPLE());     // 2
+    f.instructions.add(VMInstr.JMPF(6));     // 3
+    f.instructions.add(VMInstr.PUSH(0));     // 4
+    f.instructions.add(VMInstr.VRET());      // 5
+    f.instructions.add(VMInstr.LOAD(0));     // 6
+    f.instructions.add(VMInstr.PUSH(1));     // 7
+    f.instructions.add(VMInstr.SUB());       // 8
+    f.instructions.add(VMInstr.CALL("sum")); // 9
+    f.instructions.add(VMInstr.LOAD(0));     // 10
+    f.instructions.add(VMInstr.ADD());       // 11
+    f.instructions.add(VMInstr.VRET());      // 12
     VMFrame main = new VMFrame("main", 0);
     vm.add(main);
     main.instructions.add(VMInstr.PUSH(3));
@@ -1150,4 +1152,231 @@ public class VMTest {
       // should be a NPE
     }
   }
+
+  @Test
+  public void nestedTimerTest() throws Exception {
+    VM vm = new VM();
+    VMFrame main = new VMFrame("main", 0);
+    vm.add(main);
+    main.instructions.add(VMInstr.PUSH(""));
+    main.instructions.add(VMInstr.TIMESTART());
+    main.instructions.add(VMInstr.PUSH(""));
+    main.instructions.add(VMInstr.TIMESTART());
+    main.instructions.add(VMInstr.PUSH(""));
+    main.instructions.add(VMInstr.TIMEEND());
+    main.instructions.add(VMInstr.PUSH(""));
+    main.instructions.add(VMInstr.TIMEDELTA());
+    main.instructions.add(VMInstr.PUSH(""));
+    main.instructions.add(VMInstr.TIMEEND());
+    main.instructions.add(VMInstr.PUSH(""));
+    main.instructions.add(VMInstr.TIMEDELTA());
+    main.instructions.add(VMInstr.CMPLE());
+    main.instructions.add(VMInstr.WRITE());
+    vm.run();
+    assertEquals("true", output.toString());
+  }
+
+  @Test
+  public void missingTimeDeltaTest() throws Exception {
+    VM vm = new VM();
+    VMFrame main = new VMFrame("main", 0);
+    vm.add(main);
+    main.instructions.add(VMInstr.PUSH("t"));
+    main.instructions.add(VMInstr.TIMESTART());
+    main.instructions.add(VMInstr.PUSH("t"));
+    main.instructions.add(VMInstr.TIMEDELTA());
+    try {
+      vm.run();
+      fail("no error reported in TIMEDELTA");
+    }
+    catch(MyPLException ex) {
+      // timer "t" was never stopped
+    }
+  }
+
+  @Test
+  public void instructionBudgetTest() throws Exception {
+    VM vm = new VM();
+    VMFrame main = new VMFrame("main", 0);
+    vm.add(main);
+    main.instructions.add(VMInstr.NOP());
+    main.instructions.add(VMInstr.JMP(0));
+    vm.setInstructionBudget(1000);
+    try {
+      vm.run();
+      fail("no error reported for infinite loop");
+    }
+    catch(MyPLException ex) {
+      assertTrue(ex.getMessage().startsWith("VM_ERROR:"));
+    }
+  }
+
+  @Test
+  public void instructionBudgetRecursionTest() throws Exception {
+    VM vm = new VM();
+    VMFrame f = new VMFrame("f", 0);
+    vm.add(f);
+    f.instructions.add(VMInstr.CALL("f"));
+    VMFrame main = new VMFrame("main", 0);
+    vm.add(main);
+    main.instructions.add(VMInstr.CALL("f"));
+    vm.setInstructionBudget(1000);
+    try {
+      vm.run();
+      fail("no error reported for unbounded recursion");
+    }
+    catch(MyPLException ex) {
+      assertTrue(ex.getMessage().startsWith("VM_ERROR:"));
+    }
+  }
+
+  @Test
+  public void instructionBudgetNotExceededTest() throws Exception {
+    VM vm = new VM();
+    VMFrame main = new VMFrame("main", 0);
+    vm.add(main);
+    main.instructions.add(VMInstr.PUSH(0));
+    main.instructions.add(VMInstr.STORE(0));
+    main.instructions.add(VMInstr.LOAD(0));
+    main.instructions.add(VMInstr.PUSH(10));
+    main.instructions.add(VMInstr.CMPLT());
+    main.instructions.add(VMInstr.JMPF(11));
+    main.instructions.add(VMInstr.LOAD(0));
+    main.instructions.add(VMInstr.PUSH(1));
+    main.instructions.add(VMInstr.ADD());
+    main.instructions.add(VMInstr.STORE(0));
+    main.instructions.add(VMInstr.JMP(2));
+    main.instructions.add(VMInstr.LOAD(0));
+    main.instructions.add(VMInstr.WRITE());
+    vm.setInstructionBudget(1000);
+    vm.run();
+    assertEquals("10", output.toString());
+  }
+
+  @Test
+  public void heapObjectLimitTest() throws Exception {
+    VM vm = new VM();
+    VMFrame main = new VMFrame("main", 0);
+    vm.add(main);
+    List<String> fields = new ArrayList<>();
+    main.instructions.add(VMInstr.ALLOC(fields));
+    main.instructions.add(VMInstr.FREE());
+    main.instructions.add(VMInstr.ALLOC(fields));
+    main.instructions.add(VMInstr.ALLOC(fields));
+    main.instructions.add(VMInstr.ALLOC(fields));
+    vm.setMaxHeapObjects(2);
+    try {
+      vm.run();
+      fail("no error reported for heap object limit");
+    }
+    catch(MyPLException ex) {
+      assertTrue(ex.getMessage().startsWith("VM_ERROR:"));
+    }
+  }
+
+  @Test
+  public void spawnJoinTest() throws Exception {
+    VM vm = new VM();
+    VMFrame f = new VMFrame("f", 2);
+    vm.add(f);
+    f.instructions.add(VMInstr.LOAD(0));
+    f.instructions.add(VMInstr.LOAD(1));
+    f.instructions.add(VMInstr.SUB());
+    f.instructions.add(VMInstr.VRET());
+    VMFrame main = new VMFrame("main", 0);
+    vm.add(main);
+    main.instructions.add(VMInstr.PUSH(10));
+    main.instructions.add(VMInstr.PUSH(4));
+    main.instructions.add(VMInstr.SPAWN("f"));
+    main.instructions.add(VMInstr.JOIN());
+    main.instructions.add(VMInstr.WRITE());
+    vm.run();
+    assertEquals("6", output.toString());
+  }
+
+  //------------------------------------------------------------
+  // Verifier
+  //------------------------------------------------------------
+
+  @Test
+  public void verifierMaxStackTest() throws Exception {
+    VM vm = new VM();
+    VMFrame main = new VMFrame("main", 0);
+    vm.add(main);
+    main.instructions.add(VMInstr.PUSH(1));
+    main.instructions.add(VMInstr.PUSH(2));
+    main.instructions.add(VMInstr.PUSH(3));
+    main.instructions.add(VMInstr.MUL());
+    main.instructions.add(VMInstr.ADD());
+    main.instructions.add(VMInstr.WRITE());
+    vm.run();
+    assertEquals("7", output.toString());
+    assertEquals(3, main.maxStack());
+  }
+
+  @Test
+  public void verifierStackUnderflowTest() throws Exception {
+    VM vm = new VM();
+    VMFrame main = new VMFrame("main", 0);
+    vm.add(main);
+    main.instructions.add(VMInstr.PUSH(1));
+    main.instructions.add(VMInstr.ADD());
+    try {
+      vm.run();
+      fail("no error reported for stack underflow");
+    }
+    catch(MyPLException ex) {
+      assertTrue(ex.getMessage().startsWith("VM_ERROR: Stack underflow"));
+    }
+  }
+
+  @Test
+  public void verifierUnbalancedLoopTest() throws Exception {
+    // each iteration leaves a value on the stack
+    VM vm = new VM();
+    VMFrame main = new VMFrame("main", 0);
+    vm.add(main);
+    main.instructions.add(VMInstr.PUSH(true));
+    main.instructions.add(VMInstr.JMPF(4));
+    main.instructions.add(VMInstr.PUSH(1));
+    main.instructions.add(VMInstr.JMP(0));
+    main.instructions.add(VMInstr.NOP());
+    try {
+      vm.run();
+      fail("no error reported for unbalanced loop");
+    }
+    catch(MyPLException ex) {
+      assertTrue(ex.getMessage().startsWith("VM_ERROR: Stack depth"));
+    }
+  }
+
+  @Test
+  public void verifierJumpOutOfRangeTest() throws Exception {
+    VM vm = new VM();
+    VMFrame main = new VMFrame("main", 0);
+    vm.add(main);
+    main.instructions.add(VMInstr.JMP(5));
+    try {
+      vm.run();
+      fail("no error reported for bad jump target");
+    }
+    catch(MyPLException ex) {
+      assertTrue(ex.getMessage().startsWith("VM_ERROR: Jump target"));
+    }
+  }
+
+  @Test
+  public void verifierUndefinedFunctionTest() throws Exception {
+    VM vm = new VM();
+    VMFrame main = new VMFrame("main", 0);
+    vm.add(main);
+    main.instructions.add(VMInstr.CALL("f"));
+    try {
+      vm.run();
+      fail("no error reported for undefined function");
+    }
+    catch(MyPLException ex) {
+      assertTrue(ex.getMessage().startsWith("VM_ERROR: Undefined function"));
+    }
+  }
 }